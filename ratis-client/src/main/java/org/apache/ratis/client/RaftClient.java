@@ -88,6 +88,12 @@ public interface RaftClient extends Closeable {
   /** Send the given readonly message to the raft service. */
   RaftClientReply sendReadOnly(Message message) throws IOException;
 
+  /**
+   * Send the given readonly message to the given server, which may be a follower.
+   * A follower serves the read at a read index provided by the leader, so the read is not stale.
+   */
+  RaftClientReply sendReadOnly(Message message, RaftPeerId server) throws IOException;
+
   /** Send the given stale-read message to the given server (not the raft service). */
   RaftClientReply sendStaleRead(Message message, long minIndex, RaftPeerId server) throws IOException;
 
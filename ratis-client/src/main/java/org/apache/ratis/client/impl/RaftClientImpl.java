@@ -191,6 +191,12 @@ final class RaftClientImpl implements RaftClient {
     return send(RaftClientRequest.readRequestType(), message, null);
   }
 
+  @Override
+  public RaftClientReply sendReadOnly(Message message, RaftPeerId server) throws IOException {
+    Objects.requireNonNull(server, "server == null");
+    return send(RaftClientRequest.readRequestType(), message, server);
+  }
+
   @Override
   public RaftClientReply sendStaleRead(Message message, long minIndex, RaftPeerId server)
       throws IOException {
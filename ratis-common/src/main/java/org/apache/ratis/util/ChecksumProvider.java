@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.util;
+
+import org.apache.ratis.io.MD5Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
+
+/**
+ * Provide the checksums of the log entries and the digests of the snapshot
+ * files, using the fastest implementation available at runtime.
+ *
+ * For CRC32C, it is java.util.zip.CRC32C (Java 9+), which is an intrinsic
+ * using the CPU instructions, or otherwise {@link PureJavaCrc32C}.
+ * {@link NativeCrc32} is not used since it only computes chunked sums.
+ */
+public final class ChecksumProvider {
+  public static final Logger LOG = LoggerFactory.getLogger(ChecksumProvider.class);
+
+  /** A {@link Checksum} which can also be updated from a {@link ByteBuffer} without copying. */
+  public interface BufferChecksum extends Checksum {
+    /**
+     * Update the checksum with the bytes in [off, off + len) of the buffer.
+     * The position and the limit of the buffer are not changed.
+     */
+    void update(ByteBuffer buffer, int off, int len);
+  }
+
+  private static final Supplier<BufferChecksum> CRC32C_FACTORY = newCrc32CFactory();
+
+  private static Supplier<BufferChecksum> newCrc32CFactory() {
+    if (JdkCrc32C.isAvailable()) {
+      LOG.debug("Use java.util.zip.CRC32C for CRC32C");
+      return JdkCrc32C::new;
+    }
+    LOG.debug("Use {} for CRC32C", PureJavaCrc32C.class.getSimpleName());
+    return PureJavaCrc32C::new;
+  }
+
+  private ChecksumProvider() {}
+
+  /** @return a new CRC32C checksum. */
+  public static BufferChecksum newCrc32C() {
+    return CRC32C_FACTORY.get();
+  }
+
+  /** The size of the buffer for computing the digest of a file. */
+  private static final int DIGEST_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Compute the MD5 digest of the file. The file is read through a
+   * {@link FileChannel} into a direct buffer which is passed to the digester,
+   * so the data is not copied through a stream.
+   */
+  public static MD5Hash computeMd5(File file) throws IOException {
+    final MessageDigest digester = MD5Hash.getDigester();
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+    try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      while (in.read(buffer) >= 0) {
+        buffer.flip();
+        digester.update(buffer);
+        buffer.clear();
+      }
+    }
+    return new MD5Hash(digester.digest());
+  }
+
+  /** Wrap java.util.zip.CRC32C, which is only available in Java 9+, by method handles. */
+  static final class JdkCrc32C implements BufferChecksum {
+    private static final MethodHandle CONSTRUCTOR;
+    private static final MethodHandle UPDATE_BUFFER;
+
+    static {
+      MethodHandle constructor = null;
+      MethodHandle updateBuffer = null;
+      try {
+        final Class<?> clazz = Class.forName("java.util.zip.CRC32C");
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class))
+            .asType(MethodType.methodType(Checksum.class));
+        updateBuffer = lookup.findVirtual(clazz, "update",
+            MethodType.methodType(void.class, ByteBuffer.class))
+            .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+      } catch (ReflectiveOperationException e) {
+        LOG.trace("java.util.zip.CRC32C is unavailable", e);
+      }
+      CONSTRUCTOR = constructor;
+      UPDATE_BUFFER = updateBuffer;
+    }
+
+    static boolean isAvailable() {
+      return CONSTRUCTOR != null && UPDATE_BUFFER != null;
+    }
+
+    private final Checksum checksum;
+
+    JdkCrc32C() {
+      try {
+        checksum = (Checksum) CONSTRUCTOR.invokeExact();
+      } catch (Throwable t) {
+        throw new IllegalStateException("Failed to create java.util.zip.CRC32C", t);
+      }
+    }
+
+    @Override
+    public void update(ByteBuffer buffer, int off, int len) {
+      if (buffer.hasArray()) {
+        checksum.update(buffer.array(), buffer.arrayOffset() + off, len);
+        return;
+      }
+      final ByteBuffer b = buffer.duplicate();
+      b.limit(off + len);
+      b.position(off);
+      try {
+        UPDATE_BUFFER.invokeExact(checksum, b);
+      } catch (Throwable t) {
+        throw new IllegalStateException("Failed to update java.util.zip.CRC32C", t);
+      }
+    }
+
+    @Override
+    public void update(int b) {
+      checksum.update(b);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+      checksum.update(b, off, len);
+    }
+
+    @Override
+    public long getValue() {
+      return checksum.getValue();
+    }
+
+    @Override
+    public void reset() {
+      checksum.reset();
+    }
+  }
+}
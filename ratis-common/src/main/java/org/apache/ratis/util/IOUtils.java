@@ -120,6 +120,26 @@ public interface IOUtils {
     } while (buf.remaining() > 0);
   }
 
+  /**
+   * Read from the FileChannel into the buffer until the buffer is full.
+   *
+   * @param fc               The FileChannel to read from
+   * @param buf              The output buffer
+   * @param offset           The offset in the file to start reading at
+   * @throws IOException     On I/O error, or if EOF is reached before the buffer is full
+   */
+  static void readFully(FileChannel fc, ByteBuffer buf, long offset)
+      throws IOException {
+    while (buf.remaining() > 0) {
+      final int n = fc.read(buf, offset);
+      if (n < 0) {
+        throw new EOFException("Premature EOF from FileChannel at offset " + offset
+            + ", remaining " + buf.remaining() + " bytes");
+      }
+      offset += n;
+    }
+  }
+
   /**
    * Similar to readFully(). Skips bytes in a loop.
    * @param in The InputStream to skip bytes from
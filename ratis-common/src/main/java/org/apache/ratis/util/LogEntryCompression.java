@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.util;
+
+import org.apache.ratis.proto.RaftProtos.CompressionCodecProto;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto.LogEntryBodyCase;
+import org.apache.ratis.proto.RaftProtos.SMLogEntryProto;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.apache.ratis.thirdparty.com.google.protobuf.CodedInputStream;
+import org.apache.ratis.thirdparty.com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compress the data of the {@link SMLogEntryProto}s.
+ *
+ * The codec is recorded in each entry so that the compressed and the
+ * uncompressed entries can be mixed in a log.  A compressed data is the
+ * length of the uncompressed data as a varint followed by the codec output.
+ */
+public interface LogEntryCompression {
+  static boolean isCompressed(LogEntryProto entry) {
+    return entry.getLogEntryBodyCase() == LogEntryBodyCase.SMLOGENTRY
+        && entry.getSmLogEntry().getDataCompression() != CompressionCodecProto.NONE;
+  }
+
+  /**
+   * Compress the data of the given entry if it has at least minSize bytes.
+   *
+   * @return a new entry with the compressed data if the compression reduces its size;
+   *         otherwise, return the given entry.
+   */
+  static LogEntryProto compress(LogEntryProto entry, CompressionCodecProto codec, int minSize) {
+    if (entry.getLogEntryBodyCase() != LogEntryBodyCase.SMLOGENTRY) {
+      return entry;
+    }
+    final SMLogEntryProto smLog = entry.getSmLogEntry();
+    final SMLogEntryProto compressed = compress(smLog, codec, minSize);
+    return compressed == smLog? entry
+        : LogEntryProto.newBuilder(entry).setSmLogEntry(compressed).build();
+  }
+
+  /**
+   * Compress the data of the given {@link SMLogEntryProto} if it has at least minSize bytes.
+   *
+   * @return a new proto with the compressed data if the compression reduces its size;
+   *         otherwise, return the given proto.
+   */
+  static SMLogEntryProto compress(SMLogEntryProto smLog, CompressionCodecProto codec, int minSize) {
+    final ByteString data = smLog.getData();
+    if (codec == CompressionCodecProto.NONE
+        || smLog.getDataCompression() != CompressionCodecProto.NONE || data.size() < minSize) {
+      return smLog;
+    }
+    final ByteString compressed = compress(data, codec);
+    if (compressed.size() >= data.size()) {
+      return smLog;
+    }
+    return SMLogEntryProto.newBuilder(smLog)
+        .setData(compressed)
+        .setDataCompression(codec)
+        .build();
+  }
+
+  /**
+   * @return a new entry with the decompressed data if the given entry is compressed;
+   *         otherwise, return the given entry.
+   */
+  static LogEntryProto decompress(LogEntryProto entry) {
+    if (!isCompressed(entry)) {
+      return entry;
+    }
+    final SMLogEntryProto smLog = entry.getSmLogEntry();
+    final ByteString data;
+    try {
+      data = decompress(smLog.getData(), smLog.getDataCompression());
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to decompress the data of the log entry "
+          + entry.getTerm() + ":" + entry.getIndex(), e);
+    }
+    return LogEntryProto.newBuilder(entry)
+        .setSmLogEntry(SMLogEntryProto.newBuilder(smLog)
+            .setData(data)
+            .clearDataCompression())
+        .build();
+  }
+
+  static ByteString compress(ByteString data, CompressionCodecProto codec) {
+    final byte[] src = data.toByteArray();
+    final ByteString.Output out = ByteString.newOutput(src.length / 2 + 16);
+    try {
+      final CodedOutputStream header = CodedOutputStream.newInstance(out);
+      header.writeUInt32NoTag(src.length);
+      header.flush();
+
+      switch (codec) {
+        case LZ4:
+          final byte[] dst = new byte[Lz4BlockCodec.maxCompressedLength(src.length)];
+          out.write(dst, 0, Lz4BlockCodec.compress(src, 0, src.length, dst, 0));
+          break;
+        case DEFLATE:
+          final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+          try {
+            deflater.setInput(src);
+            deflater.finish();
+            final byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+              out.write(buf, 0, deflater.deflate(buf));
+            }
+          } finally {
+            deflater.end();
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("Unexpected codec " + codec);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unexpected IOException when writing to a ByteString.", e);
+    }
+    return out.toByteString();
+  }
+
+  static ByteString decompress(ByteString data, CompressionCodecProto codec) throws IOException {
+    final CodedInputStream in = data.newCodedInput();
+    final int length = in.readRawVarint32();
+    if (length < 0) {
+      throw new IOException("Invalid uncompressed length " + length);
+    }
+    final int offset = in.getTotalBytesRead();
+    final byte[] src = data.toByteArray();
+    final byte[] dst = new byte[length];
+
+    switch (codec) {
+      case LZ4:
+        Lz4BlockCodec.decompress(src, offset, src.length - offset, dst);
+        break;
+      case DEFLATE:
+        final Inflater inflater = new Inflater(true);
+        try {
+          inflater.setInput(src, offset, src.length - offset);
+          int n = 0;
+          while (n < length && !inflater.finished()) {
+            final int read = inflater.inflate(dst, n, length - n);
+            if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+              break;
+            }
+            n += read;
+          }
+          if (n != length) {
+            throw new IOException("Uncompressed length mismatched: expected " + length + " but was " + n);
+          }
+        } catch (DataFormatException e) {
+          throw new IOException("Malformed deflate data", e);
+        } finally {
+          inflater.end();
+        }
+        break;
+      default:
+        throw new IOException("Unexpected codec " + codec);
+    }
+    return ByteString.copyFrom(dst);
+  }
+}
@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pure-java compressor and decompressor of the LZ4 block format, see
+ * https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md
+ *
+ * The compressor uses a single hash table probe per position, which favors
+ * speed over the compression ratio.  The block does not record the length
+ * of the uncompressed data, so it must be passed to the decompressor.
+ */
+public final class Lz4BlockCodec {
+  private static final int MIN_MATCH = 4;
+  /** The last match must start at least 12 bytes before the end. */
+  private static final int MF_LIMIT = 12;
+  /** The last 5 bytes are always literals. */
+  private static final int LAST_LITERALS = 5;
+  private static final int MAX_OFFSET = 0xFFFF;
+
+  private static final int HASH_LOG = 12;
+  private static final int RUN_MASK = 0xF;
+
+  private Lz4BlockCodec() {}
+
+  /** @return the max size of the compressed block for the given input size. */
+  public static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+  }
+
+  private static int hash(int v) {
+    return (v * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  /**
+   * Compress src[srcOff, srcOff + srcLen) into dst starting at dstOff.
+   * The dst must have at least {@link #maxCompressedLength(int)} bytes available.
+   *
+   * @return the length of the compressed block.
+   */
+  public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+    final int srcEnd = srcOff + srcLen;
+    final int matchLimit = srcEnd - LAST_LITERALS;
+    final int mfLimit = srcEnd - MF_LIMIT;
+    int d = dstOff;
+    int anchor = srcOff;
+
+    if (srcLen >= MF_LIMIT + 1) {
+      final int[] table = new int[1 << HASH_LOG];
+      Arrays.fill(table, -1);
+      int i = srcOff;
+      while (i < mfLimit) {
+        final int v = readInt(src, i);
+        final int h = hash(v);
+        final int ref = table[h];
+        table[h] = i;
+        if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != v) {
+          i++;
+          continue;
+        }
+
+        // extend the match forward
+        int matchEnd = i + MIN_MATCH;
+        int refEnd = ref + MIN_MATCH;
+        while (matchEnd < matchLimit && src[matchEnd] == src[refEnd]) {
+          matchEnd++;
+          refEnd++;
+        }
+        // extend the match backward over the pending literals
+        int start = i;
+        int refStart = ref;
+        while (start > anchor && refStart > srcOff && src[start - 1] == src[refStart - 1]) {
+          start--;
+          refStart--;
+        }
+
+        d = writeSequence(src, anchor, start - anchor, start - refStart,
+            matchEnd - start - MIN_MATCH, dst, d);
+        anchor = i = matchEnd;
+        if (i < mfLimit) {
+          table[hash(readInt(src, i - 2))] = i - 2;
+        }
+      }
+    }
+    // the last literals
+    return writeLiterals(src, anchor, srcEnd - anchor, dst, d) - dstOff;
+  }
+
+  private static int writeSequence(byte[] src, int literalOff, int literalLen,
+      int offset, int matchLen, byte[] dst, int d) {
+    final int tokenPos = d++;
+    int token = Math.min(literalLen, RUN_MASK) << 4;
+    d = writeLength(literalLen, dst, d);
+    System.arraycopy(src, literalOff, dst, d, literalLen);
+    d += literalLen;
+
+    dst[d++] = (byte) offset;
+    dst[d++] = (byte) (offset >>> 8);
+    token |= Math.min(matchLen, RUN_MASK);
+    d = writeLength(matchLen, dst, d);
+    dst[tokenPos] = (byte) token;
+    return d;
+  }
+
+  private static int writeLiterals(byte[] src, int literalOff, int literalLen, byte[] dst, int d) {
+    dst[d++] = (byte) (Math.min(literalLen, RUN_MASK) << 4);
+    d = writeLength(literalLen, dst, d);
+    System.arraycopy(src, literalOff, dst, d, literalLen);
+    return d + literalLen;
+  }
+
+  /** Write the remaining bytes of a length which does not fit in the token. */
+  private static int writeLength(int length, byte[] dst, int d) {
+    if (length >= RUN_MASK) {
+      int remaining = length - RUN_MASK;
+      for (; remaining >= 255; remaining -= 255) {
+        dst[d++] = (byte) 255;
+      }
+      dst[d++] = (byte) remaining;
+    }
+    return d;
+  }
+
+  /**
+   * Decompress the block src[srcOff, srcOff + srcLen) into dst, which must
+   * have exactly the length of the uncompressed data.
+   *
+   * @throws IOException if the block is malformed.
+   */
+  public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst) throws IOException {
+    final int srcEnd = srcOff + srcLen;
+    int s = srcOff;
+    int d = 0;
+    while (s < srcEnd) {
+      final int token = src[s++] & 0xFF;
+
+      // literals
+      int literalLen = token >>> 4;
+      if (literalLen == RUN_MASK) {
+        int b;
+        do {
+          checkBound(s < srcEnd, "literal length");
+          b = src[s++] & 0xFF;
+          literalLen += b;
+        } while (b == 255);
+      }
+      checkBound(s + literalLen <= srcEnd && d + literalLen <= dst.length, "literals");
+      System.arraycopy(src, s, dst, d, literalLen);
+      s += literalLen;
+      d += literalLen;
+      if (s == srcEnd) {
+        break; // the last sequence has only literals
+      }
+
+      // match
+      checkBound(s + 2 <= srcEnd, "offset");
+      final int offset = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8;
+      s += 2;
+      checkBound(offset > 0 && offset <= d, "offset");
+      int matchLen = token & RUN_MASK;
+      if (matchLen == RUN_MASK) {
+        int b;
+        do {
+          checkBound(s < srcEnd, "match length");
+          b = src[s++] & 0xFF;
+          matchLen += b;
+        } while (b == 255);
+      }
+      matchLen += MIN_MATCH;
+      checkBound(d + matchLen <= dst.length, "match");
+      // the match may overlap the output, so copy byte by byte
+      for (int from = d - offset, end = d + matchLen; d < end; ) {
+        dst[d++] = dst[from++];
+      }
+    }
+    checkBound(d == dst.length, "uncompressed length");
+  }
+
+  private static void checkBound(boolean valid, String what) throws IOException {
+    if (!valid) {
+      throw new IOException("Malformed LZ4 block: invalid " + what);
+    }
+  }
+}
@@ -23,8 +23,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -114,16 +112,7 @@ public abstract class MD5FileUtil {
    * Read dataFile and compute its MD5 checksum.
    */
   public static MD5Hash computeMd5ForFile(File dataFile) throws IOException {
-    InputStream in = new FileInputStream(dataFile);
-    try {
-      MessageDigest digester = MD5Hash.getDigester();
-      DigestInputStream dis = new DigestInputStream(in, digester);
-      IOUtils.readFully(dis, 128*1024);
-
-      return new MD5Hash(digester.digest());
-    } finally {
-      IOUtils.cleanup(LOG, in);
-    }
+    return ChecksumProvider.computeMd5(dataFile);
   }
 
   /**
@@ -189,6 +189,7 @@ public interface ProtoUtils {
         .setSmLogEntry
             (SMLogEntryProto.newBuilder()
             .setData(smLog.getData())
+            .setDataCompression(smLog.getDataCompression())
             .setStateMachineDataAttached(true)
             .setSerializedProtobufSize(entry.getSerializedSize()))
         .build();
@@ -20,14 +20,14 @@
  */
 package org.apache.ratis.util;
 
-import java.util.zip.Checksum;
+import java.nio.ByteBuffer;
 
 /**
  * A pure-java implementation of the CRC32 checksum that uses
  * the CRC32-C polynomial, the same polynomial used by iSCSI
  * and implemented on many Intel chipsets supporting SSE4.2.
  */
-public class PureJavaCrc32C implements Checksum {
+public class PureJavaCrc32C implements ChecksumProvider.BufferChecksum {
 
   /** the current CRC value, bit-flipped */
   private int crc;
@@ -89,6 +89,47 @@ public class PureJavaCrc32C implements Checksum {
     crc = localCrc;
   }
 
+  /**
+   * Update the checksum with the bytes of the given buffer in the range
+   * [off, off + len) without changing the buffer's position.
+   * It does not copy the bytes even if the buffer is a direct buffer.
+   */
+  @Override
+  public void update(ByteBuffer b, int off, int len) {
+    if (b.hasArray()) {
+      update(b.array(), b.arrayOffset() + off, len);
+      return;
+    }
+    int localCrc = crc;
+
+    while(len > 7) {
+      final int c0 =(b.get(off+0) ^ localCrc) & 0xff;
+      final int c1 =(b.get(off+1) ^ (localCrc >>>= 8)) & 0xff;
+      final int c2 =(b.get(off+2) ^ (localCrc >>>= 8)) & 0xff;
+      final int c3 =(b.get(off+3) ^ (localCrc >>>= 8)) & 0xff;
+      localCrc = (T[T8_7_start + c0] ^ T[T8_6_start + c1])
+          ^ (T[T8_5_start + c2] ^ T[T8_4_start + c3]);
+
+      final int c4 = b.get(off+4) & 0xff;
+      final int c5 = b.get(off+5) & 0xff;
+      final int c6 = b.get(off+6) & 0xff;
+      final int c7 = b.get(off+7) & 0xff;
+
+      localCrc ^= (T[T8_3_start + c4] ^ T[T8_2_start + c5])
+           ^ (T[T8_1_start + c6] ^ T[T8_0_start + c7]);
+
+      off += 8;
+      len -= 8;
+    }
+
+    for(; len > 0; len--) {
+      localCrc = (localCrc >>> 8) ^ T[T8_0_start + ((localCrc ^ b.get(off++)) & 0xff)];
+    }
+
+    // Publish crc out to object
+    crc = localCrc;
+  }
+
   @Override
   final public void update(int b) {
     crc = (crc >>> 8) ^ T[T8_0_start + ((crc ^ b) & 0xff)];
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.util;
+
+import org.apache.ratis.BaseTest;
+import org.apache.ratis.io.MD5Hash;
+import org.apache.ratis.util.ChecksumProvider.BufferChecksum;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class TestChecksumProvider extends BaseTest {
+  @Test
+  public void testCrc32C() {
+    final byte[] data = new byte[10000];
+    ThreadLocalRandom.current().nextBytes(data);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data).flip();
+    final ByteBuffer heap = ByteBuffer.wrap(data);
+
+    for (int off = 0; off < 100; off += 7) {
+      final int len = data.length - 2 * off;
+      final PureJavaCrc32C expected = new PureJavaCrc32C();
+      expected.update(data, off, len);
+
+      final BufferChecksum fromArray = ChecksumProvider.newCrc32C();
+      fromArray.update(data, off, len);
+      Assert.assertEquals(expected.getValue(), fromArray.getValue());
+
+      for (ByteBuffer buffer : new ByteBuffer[]{heap, direct}) {
+        final BufferChecksum fromBuffer = ChecksumProvider.newCrc32C();
+        fromBuffer.update(buffer, off, len);
+        Assert.assertEquals(expected.getValue(), fromBuffer.getValue());
+        // the buffer is not changed
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(data.length, buffer.limit());
+      }
+    }
+  }
+
+  @Test
+  public void testComputeMd5() throws Exception {
+    final byte[] data = new byte[(3 << 20) + 123];
+    ThreadLocalRandom.current().nextBytes(data);
+    final File dir = getTestDir();
+    FileUtils.createDirectories(dir);
+    final File file = new File(dir, "data");
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(data);
+    }
+    try {
+      Assert.assertEquals(MD5Hash.digest(data), ChecksumProvider.computeMd5(file));
+    } finally {
+      FileUtils.deleteFully(dir);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.util;
+
+import org.apache.ratis.BaseTest;
+import org.apache.ratis.proto.RaftProtos.CompressionCodecProto;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.proto.RaftProtos.SMLogEntryProto;
+import org.apache.ratis.protocol.ClientId;
+import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class TestLogEntryCompression extends BaseTest {
+  private static final CompressionCodecProto[] CODECS = {
+      CompressionCodecProto.LZ4, CompressionCodecProto.DEFLATE};
+
+  private static byte[] newData(int size, int distinctBytes) {
+    final byte[] data = new byte[size];
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) random.nextInt(distinctBytes);
+    }
+    return data;
+  }
+
+  private static LogEntryProto newEntry(long index, byte[] data) {
+    final SMLogEntryProto smLog = SMLogEntryProto.newBuilder()
+        .setData(ByteString.copyFrom(data)).build();
+    return ProtoUtils.toLogEntryProto(smLog, 1, index, ClientId.randomId(), index);
+  }
+
+  @Test
+  public void testLz4Block() throws Exception {
+    for (int size : new int[]{0, 1, 12, 13, 100, 65536, 300000}) {
+      for (int distinctBytes : new int[]{1, 4, 256}) {
+        final byte[] src = newData(size, distinctBytes);
+        final byte[] compressed = new byte[Lz4BlockCodec.maxCompressedLength(size)];
+        final int n = Lz4BlockCodec.compress(src, 0, size, compressed, 0);
+        final byte[] dst = new byte[size];
+        Lz4BlockCodec.decompress(compressed, 0, n, dst);
+        Assert.assertArrayEquals(src, dst);
+
+        if (size > 0) {
+          // a wrong uncompressed length is detected
+          testFailureCase("wrong length", () -> Lz4BlockCodec.decompress(compressed, 0, n, new byte[size - 1]),
+              IOException.class);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCompressEntry() {
+    for (CompressionCodecProto codec : CODECS) {
+      final LogEntryProto entry = newEntry(1, newData(10000, 4));
+      final LogEntryProto compressed = LogEntryCompression.compress(entry, codec, 1024);
+      Assert.assertTrue(LogEntryCompression.isCompressed(compressed));
+      Assert.assertEquals(codec, compressed.getSmLogEntry().getDataCompression());
+      Assert.assertTrue(compressed.getSerializedSize() < entry.getSerializedSize());
+      Assert.assertEquals(entry, LogEntryCompression.decompress(compressed));
+
+      // the state machine data removal keeps the codec
+      final LogEntryProto removed = ProtoUtils.removeStateMachineData(
+          ProtoUtils.addStateMachineData(ByteString.copyFromUtf8("sm"), compressed));
+      Assert.assertEquals(codec, removed.getSmLogEntry().getDataCompression());
+    }
+  }
+
+  @Test
+  public void testEntriesNotCompressed() {
+    for (CompressionCodecProto codec : CODECS) {
+      // too small
+      final LogEntryProto small = newEntry(1, newData(100, 4));
+      Assert.assertSame(small, LogEntryCompression.compress(small, codec, 1024));
+      // not compressible
+      final LogEntryProto random = newEntry(2, newData(10000, 256));
+      Assert.assertSame(random, LogEntryCompression.compress(random, codec, 1024));
+      // an uncompressed entry is decompressed to itself, so the mixed logs can be read
+      Assert.assertSame(random, LogEntryCompression.decompress(random));
+    }
+    final LogEntryProto entry = newEntry(3, newData(10000, 4));
+    Assert.assertSame(entry, LogEntryCompression.compress(entry, CompressionCodecProto.NONE, 0));
+  }
+
+  @Test
+  public void testCorruptedData() {
+    for (CompressionCodecProto codec : CODECS) {
+      final ByteString compressed = LogEntryCompression.compress(
+          ByteString.copyFrom(newData(10000, 4)), codec);
+      final byte[] truncated = Arrays.copyOf(compressed.toByteArray(), compressed.size() / 2);
+      testFailureCase("truncated " + codec,
+          () -> LogEntryCompression.decompress(ByteString.copyFrom(truncated), codec), IOException.class);
+    }
+  }
+}
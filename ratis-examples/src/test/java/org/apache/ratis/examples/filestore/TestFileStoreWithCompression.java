@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.examples.filestore;
+
+import org.apache.ratis.RaftTestUtil;
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.grpc.MiniRaftClusterWithGrpc;
+import org.apache.ratis.proto.RaftProtos.CompressionCodecProto;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.server.storage.RaftLog;
+import org.apache.ratis.util.LogEntryCompression;
+import org.apache.ratis.util.SizeInBytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class TestFileStoreWithCompression
+    extends FileStoreBaseTest<MiniRaftClusterWithGrpc>
+    implements MiniRaftClusterWithGrpc.FactoryGet {
+  {
+    final RaftProperties p = getProperties();
+    RaftServerConfigKeys.Log.setCompressionCodec(p, CompressionCodecProto.LZ4);
+    RaftServerConfigKeys.Log.setCompressionSizeMin(p, SizeInBytes.valueOf(32));
+  }
+
+  /**
+   * The long paths make the data of the entries compressible.  The file
+   * content is written by writeStateMachineData, which parses the data.
+   */
+  @Test
+  public void testWriteStateMachineDataWithCompression() throws Exception {
+    final MiniRaftClusterWithGrpc cluster = newCluster(NUM_PEERS);
+    cluster.start();
+    RaftTestUtil.waitForLeader(cluster);
+
+    final String prefix = String.join("", Collections.nCopies(100, "a"));
+    for (int i = 0; i < 3; i++) {
+      try (Writer w = new Writer(prefix + i, SizeInBytes.valueOf("64KB"), null,
+          () -> new FileStoreClient(cluster.getGroup(), getProperties()))) {
+        w.write().verify();
+      }
+    }
+
+    // the leader has written the compressed entries to its log
+    final RaftLog log = cluster.getLeader().getState().getLog();
+    boolean compressed = false;
+    for (long i = log.getStartIndex(); i <= log.getLastEntryTermIndex().getIndex(); i++) {
+      compressed |= LogEntryCompression.isCompressed(log.get(i));
+    }
+    Assert.assertTrue(compressed);
+
+    cluster.shutdown();
+  }
+}
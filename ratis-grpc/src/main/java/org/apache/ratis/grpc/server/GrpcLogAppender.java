@@ -48,6 +48,8 @@ public class GrpcLogAppender extends LogAppender {
 
   private final GrpcService rpcService;
   private final Map<Long, AppendEntriesRequestProto> pendingRequests;
+  /** The leadership acks of the pending requests, keyed by call id. */
+  private final Map<Long, LeadershipAck> leadershipAcks = new ConcurrentHashMap<>();
   private final int maxPendingRequestsNum;
   private long callId = 0;
   private volatile boolean firstResponseReceived = false;
@@ -154,6 +156,7 @@ public class GrpcLogAppender extends LogAppender {
         return;
       }
       pendingRequests.put(pending.getServerRequest().getCallId(), pending);
+      leadershipAcks.put(pending.getServerRequest().getCallId(), newLeadershipAck());
       updateNextIndex(pending);
       if (appendLogRequestObserver == null) {
         appendLogRequestObserver = getClient().appendEntries(new AppendLogResponseHandler());
@@ -178,7 +181,9 @@ public class GrpcLogAppender extends LogAppender {
   }
 
   private void timeoutAppendRequest(AppendEntriesRequestProto request) {
-    AppendEntriesRequestProto pendingRequest = pendingRequests.remove(request.getServerRequest().getCallId());
+    final long callId = request.getServerRequest().getCallId();
+    leadershipAcks.remove(callId);
+    AppendEntriesRequestProto pendingRequest = pendingRequests.remove(callId);
     if (pendingRequest != null) {
       LOG.warn( "{}: appendEntries Timeout, request={}", this, ProtoUtils.toString(pendingRequest.getServerRequest()));
     }
@@ -216,6 +221,10 @@ public class GrpcLogAppender extends LogAppender {
       if (!firstResponseReceived) {
         firstResponseReceived = true;
       }
+      if (reply.getResult() != AppendEntriesReplyProto.AppendResult.NOT_LEADER) {
+        // not synchronized since it may notify the other appenders
+        ackLeadership(reply);
+      }
       switch (reply.getResult()) {
         case SUCCESS:
           onSuccess(reply);
@@ -256,9 +265,17 @@ public class GrpcLogAppender extends LogAppender {
 
   private void clearPendingRequests(long newNextIndex) {
     pendingRequests.clear();
+    leadershipAcks.clear();
     follower.decreaseNextIndex(newNextIndex);
   }
 
+  private void ackLeadership(AppendEntriesReplyProto reply) {
+    final LeadershipAck ack = leadershipAcks.remove(reply.getServerReply().getCallId());
+    if (ack != null) {
+      ackLeadership(ack);
+    }
+  }
+
   protected synchronized void onSuccess(AppendEntriesReplyProto reply) {
     AppendEntriesRequestProto request = pendingRequests.remove(reply.getServerReply().getCallId());
     if (request == null) {
@@ -23,6 +23,7 @@ import org.apache.ratis.server.RaftServer;
 import org.apache.ratis.thirdparty.io.grpc.stub.StreamObserver;
 import org.apache.ratis.proto.RaftProtos.*;
 import org.apache.ratis.proto.grpc.RaftServerProtocolServiceGrpc.RaftServerProtocolServiceImplBase;
+import org.apache.ratis.util.JavaUtils;
 import org.apache.ratis.util.ProtoUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +61,27 @@ public class GrpcServerProtocolService extends RaftServerProtocolServiceImplBase
     }
   }
 
+  @Override
+  public void readIndex(ReadIndexRequestProto request,
+      StreamObserver<ReadIndexReplyProto> responseObserver) {
+    try {
+      server.readIndexAsync(request).whenComplete((reply, e) -> {
+        if (e != null) {
+          final Throwable t = JavaUtils.unwrapCompletionException(e);
+          GrpcUtil.warn(LOG,
+              () -> getId() + ": Failed readIndex " + ProtoUtils.toString(request.getServerRequest()), t);
+          responseObserver.onError(GrpcUtil.wrapException(t));
+        } else {
+          responseObserver.onNext(reply);
+          responseObserver.onCompleted();
+        }
+      });
+    } catch (Throwable e) {
+      GrpcUtil.warn(LOG, () -> getId() + ": Failed readIndex " + ProtoUtils.toString(request.getServerRequest()), e);
+      responseObserver.onError(GrpcUtil.wrapException(e));
+    }
+  }
+
   @Override
   public StreamObserver<AppendEntriesRequestProto> appendEntries(
       StreamObserver<AppendEntriesReplyProto> responseObserver) {
@@ -175,6 +175,13 @@ public class HadoopRpcService extends RaftServerRpcWithProxy<Proxy<RaftServerPro
         proxy -> proxy.requestVote(null, request));
   }
 
+  @Override
+  public ReadIndexReplyProto readIndex(
+      ReadIndexRequestProto request) throws IOException {
+    return processRequest(request, request.getServerRequest().getReplyId(),
+        proxy -> proxy.readIndex(null, request));
+  }
+
   private <REQUEST, REPLY> REPLY processRequest(
       REQUEST request, ByteString replyId,
       CheckedFunction<RaftServerProtocolPB, REPLY, ServiceException> f)
@@ -74,6 +74,8 @@ public class NettyRpcProxy implements Closeable {
         return proto.getAppendEntriesReply().getServerReply().getCallId();
       case INSTALLSNAPSHOTREPLY:
         return proto.getInstallSnapshotReply().getServerReply().getCallId();
+      case READINDEXREPLY:
+        return proto.getReadIndexReply().getServerReply().getCallId();
       case RAFTCLIENTREPLY:
         return proto.getRaftClientReply().getRpcReply().getCallId();
       case EXCEPTIONREPLY:
@@ -43,12 +43,15 @@ import org.apache.ratis.proto.netty.NettyProtos.RaftNettyExceptionReplyProto;
 import org.apache.ratis.proto.netty.NettyProtos.RaftNettyServerReplyProto;
 import org.apache.ratis.proto.netty.NettyProtos.RaftNettyServerRequestProto;
 import org.apache.ratis.util.CodeInjectionForTesting;
+import org.apache.ratis.util.IOUtils;
+import org.apache.ratis.util.JavaUtils;
 import org.apache.ratis.util.ProtoUtils;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A netty server endpoint that acts as the communication layer.
@@ -85,6 +88,11 @@ public final class NettyRpcService extends RaftServerRpcWithProxy<NettyRpcProxy,
   class InboundHandler extends SimpleChannelInboundHandler<RaftNettyServerRequestProto> {
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, RaftNettyServerRequestProto proto) {
+      if (proto.hasReadIndexRequest()) {
+        // the leader replies once its leadership is confirmed, do not block the event loop
+        readIndexAsync(proto.getReadIndexRequest()).thenAccept(ctx::writeAndFlush);
+        return;
+      }
       final RaftNettyServerReplyProto reply = handle(proto);
       ctx.writeAndFlush(reply);
     }
@@ -224,6 +232,17 @@ public final class NettyRpcService extends RaftServerRpcWithProxy<NettyRpcProxy,
     }
   }
 
+  CompletableFuture<RaftNettyServerReplyProto> readIndexAsync(ReadIndexRequestProto request) {
+    final RaftRpcRequestProto rpcRequest = request.getServerRequest();
+    try {
+      return server.readIndexAsync(request).handle((reply, e) -> e == null
+          ? RaftNettyServerReplyProto.newBuilder().setReadIndexReply(reply).build()
+          : toRaftNettyServerReplyProto(rpcRequest, IOUtils.asIOException(JavaUtils.unwrapCompletionException(e))));
+    } catch (IOException ioe) {
+      return CompletableFuture.completedFuture(toRaftNettyServerReplyProto(rpcRequest, ioe));
+    }
+  }
+
   private static RaftNettyServerReplyProto toRaftNettyServerReplyProto(
       RaftRpcRequestProto request, IOException e) {
     final RaftRpcReplyProto.Builder rpcReply = RaftRpcReplyProto.newBuilder()
@@ -270,6 +289,17 @@ public final class NettyRpcService extends RaftServerRpcWithProxy<NettyRpcProxy,
     return sendRaftNettyServerRequestProto(serverRequest, proto).getInstallSnapshotReply();
   }
 
+  @Override
+  public ReadIndexReplyProto readIndex(ReadIndexRequestProto request) throws IOException {
+    CodeInjectionForTesting.execute(SEND_SERVER_REQUEST, getId(), null, request);
+
+    final RaftNettyServerRequestProto proto = RaftNettyServerRequestProto.newBuilder()
+        .setReadIndexRequest(request)
+        .build();
+    final RaftRpcRequestProto serverRequest = request.getServerRequest();
+    return sendRaftNettyServerRequestProto(serverRequest, proto).getReadIndexReply();
+  }
+
   private RaftNettyServerReplyProto sendRaftNettyServerRequestProto(
       RaftRpcRequestProto request, RaftNettyServerRequestProto proto)
       throws IOException {
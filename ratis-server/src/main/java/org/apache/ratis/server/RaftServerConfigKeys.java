@@ -19,6 +19,10 @@ package org.apache.ratis.server;
 
 import org.apache.ratis.conf.ConfUtils;
 import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.proto.RaftProtos.CompressionCodecProto;
+import org.apache.ratis.server.storage.LogFlushPolicy;
+import org.apache.ratis.server.storage.LogOutputStream;
+import org.apache.ratis.server.storage.StorageDirPlacementPolicy;
 import org.apache.ratis.util.SizeInBytes;
 import org.apache.ratis.util.TimeDuration;
 import org.slf4j.Logger;
@@ -49,6 +53,19 @@ public interface RaftServerConfigKeys {
     setFiles(properties::setFiles, STORAGE_DIR_KEY, storageDir);
   }
 
+  /** The policy to place a new group on one of the storage directories. */
+  String STORAGE_DIR_PLACEMENT_POLICY_KEY = PREFIX + ".storage.dir.placement.policy";
+  StorageDirPlacementPolicy.Type STORAGE_DIR_PLACEMENT_POLICY_DEFAULT
+      = StorageDirPlacementPolicy.Type.LEAST_GROUPS;
+  static StorageDirPlacementPolicy.Type storageDirPlacementPolicy(RaftProperties properties) {
+    return get(properties::getEnum, STORAGE_DIR_PLACEMENT_POLICY_KEY,
+        STORAGE_DIR_PLACEMENT_POLICY_DEFAULT, getDefaultLog());
+  }
+  static void setStorageDirPlacementPolicy(RaftProperties properties,
+      StorageDirPlacementPolicy.Type policy) {
+    set(properties::setEnum, STORAGE_DIR_PLACEMENT_POLICY_KEY, policy);
+  }
+
   /**
    * When bootstrapping a new peer, If the gap between the match index of the
    * peer and the leader's latest committed index is less than this gap, we
@@ -114,6 +131,85 @@ public interface RaftServerConfigKeys {
       setInt(properties::setInt, SEGMENT_CACHE_MAX_NUM_KEY, maxCachedSegmentNum);
     }
 
+    /**
+     * The max total size of the cached log entries, which is shared by all the
+     * groups in a server. If it is positive, the entries are evicted
+     * individually by LRU instead of by segment.
+     */
+    String ENTRY_CACHE_SIZE_MAX_KEY = PREFIX + ".entry.cache.size.max";
+    SizeInBytes ENTRY_CACHE_SIZE_MAX_DEFAULT = SizeInBytes.valueOf(0);
+    static SizeInBytes entryCacheSizeMax(RaftProperties properties) {
+      return getSizeInBytes(properties::getSizeInBytes,
+          ENTRY_CACHE_SIZE_MAX_KEY, ENTRY_CACHE_SIZE_MAX_DEFAULT, getDefaultLog());
+    }
+    static void setEntryCacheSizeMax(RaftProperties properties, SizeInBytes entryCacheSizeMax) {
+      setSizeInBytes(properties::set, ENTRY_CACHE_SIZE_MAX_KEY, entryCacheSizeMax);
+    }
+
+    /**
+     * When a segment is loaded with its entries cached, only the entries in a
+     * tail window of this size are cached; the other entries are indexed and
+     * loaded on demand, so that a huge segment can be loaded in bounded memory.
+     */
+    String LOAD_TAIL_CACHE_SIZE_KEY = PREFIX + ".load.tail.cache.size";
+    SizeInBytes LOAD_TAIL_CACHE_SIZE_DEFAULT = SizeInBytes.valueOf("64MB");
+    static SizeInBytes loadTailCacheSize(RaftProperties properties) {
+      return getSizeInBytes(properties::getSizeInBytes,
+          LOAD_TAIL_CACHE_SIZE_KEY, LOAD_TAIL_CACHE_SIZE_DEFAULT, getDefaultLog());
+    }
+    static void setLoadTailCacheSize(RaftProperties properties, SizeInBytes loadTailCacheSize) {
+      setSizeInBytes(properties::set, LOAD_TAIL_CACHE_SIZE_KEY, loadTailCacheSize);
+    }
+
+    /**
+     * Should the groups in a server store their entries in shared files,
+     * which are located in the first storage directory?
+     */
+    String SHARED_FILE_ENABLED_KEY = PREFIX + ".shared.file.enabled";
+    boolean SHARED_FILE_ENABLED_DEFAULT = false;
+    static boolean sharedFileEnabled(RaftProperties properties) {
+      return getBoolean(properties::getBoolean,
+          SHARED_FILE_ENABLED_KEY, SHARED_FILE_ENABLED_DEFAULT, getDefaultLog());
+    }
+    static void setSharedFileEnabled(RaftProperties properties, boolean sharedFileEnabled) {
+      setBoolean(properties::setBoolean, SHARED_FILE_ENABLED_KEY, sharedFileEnabled);
+    }
+
+    String SHARED_FILE_SIZE_MAX_KEY = PREFIX + ".shared.file.size.max";
+    SizeInBytes SHARED_FILE_SIZE_MAX_DEFAULT = SizeInBytes.valueOf("64MB");
+    static SizeInBytes sharedFileSizeMax(RaftProperties properties) {
+      return getSizeInBytes(properties::getSizeInBytes,
+          SHARED_FILE_SIZE_MAX_KEY, SHARED_FILE_SIZE_MAX_DEFAULT, getDefaultLog());
+    }
+    static void setSharedFileSizeMax(RaftProperties properties, SizeInBytes sharedFileSizeMax) {
+      setSizeInBytes(properties::set, SHARED_FILE_SIZE_MAX_KEY, sharedFileSizeMax);
+    }
+
+    /**
+     * The number of the log worker threads shared by all the groups in a server.
+     * If it is zero, each log has its own worker thread.
+     */
+    String WORKER_SHARED_THREADS_KEY = PREFIX + ".worker.shared.threads";
+    int WORKER_SHARED_THREADS_DEFAULT = 0;
+    static int workerSharedThreads(RaftProperties properties) {
+      return getInt(properties::getInt,
+          WORKER_SHARED_THREADS_KEY, WORKER_SHARED_THREADS_DEFAULT, getDefaultLog(), requireMin(0));
+    }
+    static void setWorkerSharedThreads(RaftProperties properties, int workerSharedThreads) {
+      setInt(properties::setInt, WORKER_SHARED_THREADS_KEY, workerSharedThreads);
+    }
+
+    /** The number of threads for loading the log segments when the server starts. */
+    String LOAD_THREADS_KEY = PREFIX + ".load.threads";
+    int LOAD_THREADS_DEFAULT = 4;
+    static int loadThreads(RaftProperties properties) {
+      return getInt(properties::getInt,
+          LOAD_THREADS_KEY, LOAD_THREADS_DEFAULT, getDefaultLog(), requireMin(1));
+    }
+    static void setLoadThreads(RaftProperties properties, int loadThreads) {
+      setInt(properties::setInt, LOAD_THREADS_KEY, loadThreads);
+    }
+
     String PREALLOCATED_SIZE_KEY = PREFIX + ".preallocated.size";
     SizeInBytes PREALLOCATED_SIZE_DEFAULT = SizeInBytes.valueOf("4MB");
     static SizeInBytes preallocatedSize(RaftProperties properties) {
@@ -144,6 +240,202 @@ public interface RaftServerConfigKeys {
       setInt(properties::setInt, FORCE_SYNC_NUM_KEY, forceSyncNum);
     }
 
+    /**
+     * After a snapshot is taken, the closed log segments covered by the
+     * snapshot are purged, except the last entries within this gap.
+     */
+    String PURGE_GAP_KEY = PREFIX + ".purge.gap";
+    int PURGE_GAP_DEFAULT = 1024;
+    static int purgeGap(RaftProperties properties) {
+      return getInt(properties::getInt,
+          PURGE_GAP_KEY, PURGE_GAP_DEFAULT, getDefaultLog(), requireMin(0));
+    }
+    static void setPurgeGap(RaftProperties properties, int purgeGap) {
+      setInt(properties::setInt, PURGE_GAP_KEY, purgeGap);
+    }
+
+    String FLUSH_POLICY_KEY = PREFIX + ".flush.policy";
+    LogFlushPolicy.Type FLUSH_POLICY_DEFAULT = LogFlushPolicy.Type.COUNT;
+    static LogFlushPolicy.Type flushPolicy(RaftProperties properties) {
+      return get(properties::getEnum, FLUSH_POLICY_KEY, FLUSH_POLICY_DEFAULT, getDefaultLog());
+    }
+    static void setFlushPolicy(RaftProperties properties, LogFlushPolicy.Type flushPolicy) {
+      set(properties::setEnum, FLUSH_POLICY_KEY, flushPolicy);
+    }
+
+    /** How the log entries are written to the segment files; see {@link LogOutputStream.WriteMode}. */
+    String WRITE_MODE_KEY = PREFIX + ".write.mode";
+    LogOutputStream.WriteMode WRITE_MODE_DEFAULT = LogOutputStream.WriteMode.BUFFERED;
+    static LogOutputStream.WriteMode writeMode(RaftProperties properties) {
+      return get(properties::getEnum, WRITE_MODE_KEY, WRITE_MODE_DEFAULT, getDefaultLog());
+    }
+    static void setWriteMode(RaftProperties properties, LogOutputStream.WriteMode writeMode) {
+      set(properties::setEnum, WRITE_MODE_KEY, writeMode);
+    }
+
+    /** For the adaptive flush policy, the max delay of a pending write before it is flushed. */
+    String FLUSH_DELAY_MAX_KEY = PREFIX + ".flush.delay.max";
+    TimeDuration FLUSH_DELAY_MAX_DEFAULT = TimeDuration.valueOf(10, TimeUnit.MILLISECONDS);
+    static TimeDuration flushDelayMax(RaftProperties properties) {
+      return getTimeDuration(properties.getTimeDuration(FLUSH_DELAY_MAX_DEFAULT.getUnit()),
+          FLUSH_DELAY_MAX_KEY, FLUSH_DELAY_MAX_DEFAULT, getDefaultLog());
+    }
+    static void setFlushDelayMax(RaftProperties properties, TimeDuration flushDelayMax) {
+      setTimeDuration(properties::setTimeDuration, FLUSH_DELAY_MAX_KEY, flushDelayMax);
+    }
+
+    /** For the adaptive flush policy, the max size of the pending writes before they are flushed. */
+    String FLUSH_SIZE_MAX_KEY = PREFIX + ".flush.size.max";
+    SizeInBytes FLUSH_SIZE_MAX_DEFAULT = SizeInBytes.valueOf("1MB");
+    static SizeInBytes flushSizeMax(RaftProperties properties) {
+      return getSizeInBytes(properties::getSizeInBytes,
+          FLUSH_SIZE_MAX_KEY, FLUSH_SIZE_MAX_DEFAULT, getDefaultLog());
+    }
+    static void setFlushSizeMax(RaftProperties properties, SizeInBytes flushSizeMax) {
+      setSizeInBytes(properties::set, FLUSH_SIZE_MAX_KEY, flushSizeMax);
+    }
+
+    /**
+     * Whether the log worker hands the fsync over to a separate flush thread
+     * so that the writes of the next batch are pipelined with the current fsync.
+     */
+    /**
+     * Should checkpoints of the open segment be written at the flush points,
+     * so that after a restart only the entries written after the last
+     * checkpoint are validated instead of the whole open segment?
+     */
+    String CHECKPOINT_ENABLED_KEY = PREFIX + ".checkpoint.enabled";
+    boolean CHECKPOINT_ENABLED_DEFAULT = false;
+    static boolean checkpointEnabled(RaftProperties properties) {
+      return getBoolean(properties::getBoolean,
+          CHECKPOINT_ENABLED_KEY, CHECKPOINT_ENABLED_DEFAULT, getDefaultLog());
+    }
+    static void setCheckpointEnabled(RaftProperties properties, boolean checkpointEnabled) {
+      setBoolean(properties::setBoolean, CHECKPOINT_ENABLED_KEY, checkpointEnabled);
+    }
+
+    /**
+     * The min size of the entries written between two checkpoints, which
+     * bounds the number of entries validated when recovering the open segment.
+     */
+    String CHECKPOINT_INTERVAL_KEY = PREFIX + ".checkpoint.interval";
+    SizeInBytes CHECKPOINT_INTERVAL_DEFAULT = SizeInBytes.valueOf("1MB");
+    static SizeInBytes checkpointInterval(RaftProperties properties) {
+      return getSizeInBytes(properties::getSizeInBytes,
+          CHECKPOINT_INTERVAL_KEY, CHECKPOINT_INTERVAL_DEFAULT, getDefaultLog());
+    }
+    static void setCheckpointInterval(RaftProperties properties, SizeInBytes checkpointInterval) {
+      setSizeInBytes(properties::set, CHECKPOINT_INTERVAL_KEY, checkpointInterval);
+    }
+
+    String ASYNC_FLUSH_ENABLED_KEY = PREFIX + ".async.flush.enabled";
+    boolean ASYNC_FLUSH_ENABLED_DEFAULT = false;
+    static boolean asyncFlushEnabled(RaftProperties properties) {
+      return getBoolean(properties::getBoolean,
+          ASYNC_FLUSH_ENABLED_KEY, ASYNC_FLUSH_ENABLED_DEFAULT, getDefaultLog());
+    }
+    static void setAsyncFlushEnabled(RaftProperties properties, boolean asyncFlush) {
+      setBoolean(properties::setBoolean, ASYNC_FLUSH_ENABLED_KEY, asyncFlush);
+    }
+
+    /**
+     * Whether the log worker finalizes the closed segments and creates the
+     * next segment file in advance by a separate thread, off the write path.
+     */
+    String ASYNC_ROLL_ENABLED_KEY = PREFIX + ".async.roll.enabled";
+    boolean ASYNC_ROLL_ENABLED_DEFAULT = false;
+    static boolean asyncRollEnabled(RaftProperties properties) {
+      return getBoolean(properties::getBoolean,
+          ASYNC_ROLL_ENABLED_KEY, ASYNC_ROLL_ENABLED_DEFAULT, getDefaultLog());
+    }
+    static void setAsyncRollEnabled(RaftProperties properties, boolean asyncRoll) {
+      setBoolean(properties::setBoolean, ASYNC_ROLL_ENABLED_KEY, asyncRoll);
+    }
+
+    /**
+     * Whether to advise the kernel with posix_fadvise about the page cache
+     * usage of the segment files. It requires the native code.
+     */
+    String FADVISE_ENABLED_KEY = PREFIX + ".fadvise.enabled";
+    boolean FADVISE_ENABLED_DEFAULT = false;
+    static boolean fadviseEnabled(RaftProperties properties) {
+      return getBoolean(properties::getBoolean,
+          FADVISE_ENABLED_KEY, FADVISE_ENABLED_DEFAULT, getDefaultLog());
+    }
+    static void setFadviseEnabled(RaftProperties properties, boolean fadviseEnabled) {
+      setBoolean(properties::setBoolean, FADVISE_ENABLED_KEY, fadviseEnabled);
+    }
+
+    /**
+     * The codec compressing the state machine data of the entries appended
+     * by the leader.  The entries are decompressed before they are applied.
+     */
+    String COMPRESSION_CODEC_KEY = PREFIX + ".compression.codec";
+    CompressionCodecProto COMPRESSION_CODEC_DEFAULT = CompressionCodecProto.NONE;
+    static CompressionCodecProto compressionCodec(RaftProperties properties) {
+      return get(properties::getEnum, COMPRESSION_CODEC_KEY, COMPRESSION_CODEC_DEFAULT, getDefaultLog());
+    }
+    static void setCompressionCodec(RaftProperties properties, CompressionCodecProto codec) {
+      set(properties::setEnum, COMPRESSION_CODEC_KEY, codec);
+    }
+
+    /** The data smaller than this size is not compressed. */
+    String COMPRESSION_SIZE_MIN_KEY = PREFIX + ".compression.size.min";
+    SizeInBytes COMPRESSION_SIZE_MIN_DEFAULT = SizeInBytes.valueOf("1KB");
+    static SizeInBytes compressionSizeMin(RaftProperties properties) {
+      return getSizeInBytes(properties::getSizeInBytes,
+          COMPRESSION_SIZE_MIN_KEY, COMPRESSION_SIZE_MIN_DEFAULT, getDefaultLog());
+    }
+    static void setCompressionSizeMin(RaftProperties properties, SizeInBytes compressionSizeMin) {
+      setSizeInBytes(properties::set, COMPRESSION_SIZE_MIN_KEY, compressionSizeMin);
+    }
+
+    /** Whether the closed segments are read through memory mapped files. */
+    String MMAP_ENABLED_KEY = PREFIX + ".mmap.enabled";
+    boolean MMAP_ENABLED_DEFAULT = false;
+    static boolean mmapEnabled(RaftProperties properties) {
+      return getBoolean(properties::getBoolean,
+          MMAP_ENABLED_KEY, MMAP_ENABLED_DEFAULT, getDefaultLog());
+    }
+    static void setMmapEnabled(RaftProperties properties, boolean mmapEnabled) {
+      setBoolean(properties::setBoolean, MMAP_ENABLED_KEY, mmapEnabled);
+    }
+
+    /** The max number of closed segments mapped at the same time. */
+    String MMAP_MAPPINGS_MAX_KEY = PREFIX + ".mmap.mappings.max";
+    int MMAP_MAPPINGS_MAX_DEFAULT = 16;
+    static int mmapMappingsMax(RaftProperties properties) {
+      return getInt(properties::getInt,
+          MMAP_MAPPINGS_MAX_KEY, MMAP_MAPPINGS_MAX_DEFAULT, getDefaultLog(), requireMin(1));
+    }
+    static void setMmapMappingsMax(RaftProperties properties, int mappingsMax) {
+      setInt(properties::setInt, MMAP_MAPPINGS_MAX_KEY, mappingsMax);
+    }
+
+    /**
+     * The directory, usually on a cheaper and larger volume, to move the old
+     * closed segments to.  The segments are not moved if it is not set.
+     */
+    String COLD_STORAGE_DIR_KEY = PREFIX + ".cold.storage.dir";
+    File COLD_STORAGE_DIR_DEFAULT = null;
+    static File coldStorageDir(RaftProperties properties) {
+      return getFile(properties::getFile, COLD_STORAGE_DIR_KEY, COLD_STORAGE_DIR_DEFAULT, getDefaultLog());
+    }
+    static void setColdStorageDir(RaftProperties properties, File coldStorageDir) {
+      setFile(properties::setFile, COLD_STORAGE_DIR_KEY, coldStorageDir);
+    }
+
+    /** The min time since a closed segment was written before it is moved to the cold storage. */
+    String COLD_SEGMENT_AGE_MIN_KEY = PREFIX + ".cold.segment.age.min";
+    TimeDuration COLD_SEGMENT_AGE_MIN_DEFAULT = TimeDuration.valueOf(1, TimeUnit.HOURS);
+    static TimeDuration coldSegmentAgeMin(RaftProperties properties) {
+      return getTimeDuration(properties.getTimeDuration(COLD_SEGMENT_AGE_MIN_DEFAULT.getUnit()),
+          COLD_SEGMENT_AGE_MIN_KEY, COLD_SEGMENT_AGE_MIN_DEFAULT, getDefaultLog());
+    }
+    static void setColdSegmentAgeMin(RaftProperties properties, TimeDuration coldSegmentAgeMin) {
+      setTimeDuration(properties::setTimeDuration, COLD_SEGMENT_AGE_MIN_KEY, coldSegmentAgeMin);
+    }
+
     interface Appender {
       String PREFIX = Log.PREFIX + ".appender";
 
@@ -205,6 +497,70 @@ public interface RaftServerConfigKeys {
     }
   }
 
+  /** client read related */
+  interface Read {
+    String PREFIX = RaftServerConfigKeys.PREFIX + ".read";
+
+    /**
+     * Should the leader serve reads locally while a majority has acked its leadership recently?
+     * When it is enabled, a follower withholds votes from all the candidates, whatever their terms,
+     * within {@link Rpc#TIMEOUT_MIN_KEY} after hearing from the leader.
+     * It must be set to the same value on all the servers of a group.
+     */
+    String LEADER_LEASE_ENABLED_KEY = PREFIX + ".leader.lease.enabled";
+    boolean LEADER_LEASE_ENABLED_DEFAULT = false;
+    static boolean leaderLeaseEnabled(RaftProperties properties) {
+      return getBoolean(properties::getBoolean,
+          LEADER_LEASE_ENABLED_KEY, LEADER_LEASE_ENABLED_DEFAULT, getDefaultLog());
+    }
+    static void setLeaderLeaseEnabled(RaftProperties properties, boolean enabled) {
+      setBoolean(properties::setBoolean, LEADER_LEASE_ENABLED_KEY, enabled);
+    }
+
+    /**
+     * The bound of the clock drift between the servers.
+     * The leader lease lasts for {@link Rpc#TIMEOUT_MIN_KEY} minus the drift.
+     */
+    String LEADER_LEASE_CLOCK_DRIFT_KEY = PREFIX + ".leader.lease.clock.drift";
+    TimeDuration LEADER_LEASE_CLOCK_DRIFT_DEFAULT = TimeDuration.valueOf(50, TimeUnit.MILLISECONDS);
+    static TimeDuration leaderLeaseClockDrift(RaftProperties properties) {
+      return getTimeDuration(properties.getTimeDuration(LEADER_LEASE_CLOCK_DRIFT_DEFAULT.getUnit()),
+          LEADER_LEASE_CLOCK_DRIFT_KEY, LEADER_LEASE_CLOCK_DRIFT_DEFAULT, getDefaultLog());
+    }
+    static void setLeaderLeaseClockDrift(RaftProperties properties, TimeDuration drift) {
+      setTimeDuration(properties::setTimeDuration, LEADER_LEASE_CLOCK_DRIFT_KEY, drift);
+    }
+
+    /**
+     * Should a follower serve reads with the read index provided by the leader?
+     * Otherwise, a follower replies {@link org.apache.ratis.protocol.NotLeaderException} to reads.
+     */
+    String FOLLOWER_ENABLED_KEY = PREFIX + ".follower.enabled";
+    boolean FOLLOWER_ENABLED_DEFAULT = false;
+    static boolean followerEnabled(RaftProperties properties) {
+      return getBoolean(properties::getBoolean,
+          FOLLOWER_ENABLED_KEY, FOLLOWER_ENABLED_DEFAULT, getDefaultLog());
+    }
+    static void setFollowerEnabled(RaftProperties properties, boolean enabled) {
+      setBoolean(properties::setBoolean, FOLLOWER_ENABLED_KEY, enabled);
+    }
+
+    /**
+     * The number of threads, shared by all the groups, for the followers to get the read indices from the leaders.
+     * A follower has at most one read index request in flight per group;
+     * the reads arriving meanwhile wait for the next request.
+     */
+    String FOLLOWER_READ_INDEX_THREADS_KEY = PREFIX + ".follower.read-index.threads";
+    int FOLLOWER_READ_INDEX_THREADS_DEFAULT = 4;
+    static int followerReadIndexThreads(RaftProperties properties) {
+      return getInt(properties::getInt, FOLLOWER_READ_INDEX_THREADS_KEY,
+          FOLLOWER_READ_INDEX_THREADS_DEFAULT, getDefaultLog(), requireMin(1));
+    }
+    static void setFollowerReadIndexThreads(RaftProperties properties, int threads) {
+      setInt(properties::setInt, FOLLOWER_READ_INDEX_THREADS_KEY, threads);
+    }
+  }
+
   /** server rpc timeout related */
   interface Rpc {
     String PREFIX = RaftServerConfigKeys.PREFIX + ".rpc";
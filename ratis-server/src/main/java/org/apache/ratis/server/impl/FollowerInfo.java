@@ -28,9 +28,11 @@ public class FollowerInfo {
   private final RaftPeer peer;
   private final AtomicReference<Timestamp> lastRpcResponseTime;
   private final AtomicReference<Timestamp> lastRpcSendTime;
+  private final AtomicReference<Timestamp> lastLeadershipAckTime;
   private long nextIndex;
   private final AtomicLong matchIndex;
   private final AtomicLong commitIndex = new AtomicLong(RaftServerConstants.INVALID_LOG_INDEX);
+  private final AtomicLong readRoundAck = new AtomicLong();
   private volatile boolean attendVote;
   private final int rpcSlownessTimeoutMs;
 
@@ -39,6 +41,7 @@ public class FollowerInfo {
     this.peer = peer;
     this.lastRpcResponseTime = new AtomicReference<>(lastRpcTime);
     this.lastRpcSendTime = new AtomicReference<>(lastRpcTime);
+    this.lastLeadershipAckTime = new AtomicReference<>(lastRpcTime);
     this.nextIndex = nextIndex;
     this.matchIndex = new AtomicLong(0);
     this.attendVote = attendVote;
@@ -65,6 +68,16 @@ public class FollowerInfo {
     return old != newCommitIndex;
   }
 
+  /** @return the latest read round acked by the follower. */
+  long getReadRoundAck() {
+    return readRoundAck.get();
+  }
+
+  /** @return true iff the acked read round is increased. */
+  boolean updateReadRoundAck(long round) {
+    return readRoundAck.getAndAccumulate(round, Math::max) < round;
+  }
+
   public synchronized long getNextIndex() {
     return nextIndex;
   }
@@ -113,6 +126,18 @@ public class FollowerInfo {
     lastRpcSendTime.set(new Timestamp());
   }
 
+  /**
+   * @return the send time of the latest request replied by the follower in the leader's term,
+   *         i.e. the follower has acked the leadership as of the returned time.
+   */
+  Timestamp getLastLeadershipAckTime() {
+    return lastLeadershipAckTime.get();
+  }
+
+  void updateLastLeadershipAckTime(Timestamp sendTime) {
+    lastLeadershipAckTime.accumulateAndGet(sendTime, Timestamp::latest);
+  }
+
   public Timestamp getLastRpcTime() {
     return Timestamp.latest(lastRpcResponseTime.get(), lastRpcSendTime.get());
   }
@@ -39,6 +39,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -169,7 +170,7 @@ public class LeaderState {
   private final RaftLog raftLog;
   private final long currentTerm;
   private volatile ConfigurationStagingState stagingState;
-  private List<List<FollowerInfo>> voterLists;
+  private volatile List<List<FollowerInfo>> voterLists;
 
   /**
    * The list of threads appending entries to followers.
@@ -180,17 +181,24 @@ public class LeaderState {
   private final EventProcessor processor;
   private final PendingRequests pendingRequests;
   private final WatchRequests watchRequests;
+  private final ReadRequests readRequests;
   private volatile boolean running = true;
 
   private final int stagingCatchupGap;
   private final TimeDuration syncInterval;
   private final long placeHolderIndex;
+  private final boolean leaderLeaseEnabled;
+  private final long leaderLeaseTimeoutMs;
 
   LeaderState(RaftServerImpl server, RaftProperties properties) {
     this.server = server;
 
     stagingCatchupGap = RaftServerConfigKeys.stagingCatchupGap(properties);
     syncInterval = RaftServerConfigKeys.Rpc.sleepTime(properties);
+    leaderLeaseEnabled = RaftServerConfigKeys.Read.leaderLeaseEnabled(properties);
+    // the followers withhold votes within the min timeout after a heartbeat, see RaftServerImpl.shouldWithholdVotes
+    leaderLeaseTimeoutMs = server.getMinTimeoutMs()
+        - RaftServerConfigKeys.Read.leaderLeaseClockDrift(properties).toLong(TimeUnit.MILLISECONDS);
 
     final ServerState state = server.getState();
     this.raftLog = state.getLog();
@@ -198,6 +206,7 @@ public class LeaderState {
     processor = new EventProcessor();
     this.pendingRequests = new PendingRequests(server.getId());
     this.watchRequests = new WatchRequests(server);
+    this.readRequests = new ReadRequests(server.getId(), this::readRoundStarted);
 
     final RaftConfiguration conf = server.getRaftConf();
     Collection<RaftPeer> others = conf.getOtherPeers(state.getSelfId());
@@ -243,6 +252,7 @@ public class LeaderState {
       final Collection<TransactionContext> transactions = pendingRequests.sendNotLeaderResponses(nle, commitInfos);
       server.getStateMachine().notifyNotLeader(transactions);
       watchRequests.failWatches(nle);
+      readRequests.failAll(nle);
     } catch (IOException e) {
       LOG.warn(server.getId() + ": Caught exception in sendNotLeaderResponses", e);
     }
@@ -303,6 +313,87 @@ public class LeaderState {
     return watchRequests.add(request.getType().getWatch());
   }
 
+  /**
+   * Record the commit index as the read index.
+   * If the leader lease is valid, the leadership is already confirmed.
+   * Otherwise, confirm the leadership with a heartbeat round.
+   * @return a future of the read index, which completes once the leadership is confirmed.
+   */
+  CompletableFuture<Long> addReadRequest() {
+    final long readIndex = raftLog.getLastCommittedIndex();
+    if (hasLease()) {
+      return CompletableFuture.completedFuture(readIndex);
+    }
+    return readRequests.add(readIndex);
+  }
+
+  /** @return true iff the leader lease is enabled and a majority has acked the leadership within the lease. */
+  boolean hasLease() {
+    if (!leaderLeaseEnabled) {
+      return false;
+    }
+    final RaftPeerId selfId = server.getId();
+    final RaftConfiguration conf = server.getRaftConf();
+    final List<List<FollowerInfo>> lists = voterLists;
+    if (!hasLease(lists.get(0), conf.containsInConf(selfId))) {
+      return false;
+    }
+    return !conf.isTransitional()
+        || (lists.size() > 1 && hasLease(lists.get(1), conf.containsInOldConf(selfId)));
+  }
+
+  private boolean hasLease(List<FollowerInfo> followers, boolean includeSelf) {
+    if (followers.isEmpty() && !includeSelf) {
+      return false;
+    }
+    final List<Timestamp> ackTimes = followers.stream()
+        .map(FollowerInfo::getLastLeadershipAckTime)
+        .collect(Collectors.toCollection(ArrayList::new));
+    if (includeSelf) {
+      ackTimes.add(new Timestamp());
+    }
+    Collections.sort(ackTimes);
+    // a majority has acked the leadership at or after the median
+    final Timestamp majority = ackTimes.get((ackTimes.size() - 1) / 2);
+    return majority.elapsedTimeMs() < leaderLeaseTimeoutMs;
+  }
+
+  /** @return the latest read round, which should be sent with the requests to the followers. */
+  long getReadRound() {
+    return readRequests.getRound();
+  }
+
+  private void readRoundStarted() {
+    notifySenders();
+    updateReadRound();
+  }
+
+  /** Complete the read requests if their round has been acked by a majority. */
+  void updateReadRound() {
+    final RaftPeerId selfId = server.getId();
+    final RaftConfiguration conf = server.getRaftConf();
+    final List<List<FollowerInfo>> lists = voterLists;
+
+    final List<FollowerInfo> followers = lists.get(0);
+    final boolean includeSelf = conf.containsInConf(selfId);
+    if (followers.isEmpty() && !includeSelf) {
+      return;
+    }
+    // the leader itself always acks the current round
+    long majority = getMajority(getSorted(followers, FollowerInfo::getReadRoundAck, includeSelf, Long.MAX_VALUE));
+
+    if (conf.isTransitional() && lists.size() > 1) {
+      final List<FollowerInfo> oldFollowers = lists.get(1);
+      final boolean includeSelfInOldConf = conf.containsInOldConf(selfId);
+      if (oldFollowers.isEmpty() && !includeSelfInOldConf) {
+        return;
+      }
+      majority = Math.min(majority, getMajority(
+          getSorted(oldFollowers, FollowerInfo::getReadRoundAck, includeSelfInOldConf, Long.MAX_VALUE)));
+    }
+    readRequests.update(majority);
+  }
+
   void commitIndexChanged() {
     final LongMinMax minMax = senders.stream()
         .map(LogAppender::getFollower)
@@ -609,6 +700,12 @@ public class LeaderState {
   }
 
   private long[] getSortedLogIndices(List<FollowerInfo> followers, boolean includeSelf) {
+    // note that we also need to wait for the local disk I/O
+    return getSorted(followers, FollowerInfo::getMatchIndex, includeSelf, raftLog.getLatestFlushedIndex());
+  }
+
+  private static long[] getSorted(List<FollowerInfo> followers, ToLongFunction<FollowerInfo> getter,
+      boolean includeSelf, long selfValue) {
     final int length = includeSelf ? followers.size() + 1 : followers.size();
     if (length == 0) {
       throw new IllegalArgumentException("followers.size() == "
@@ -616,11 +713,10 @@ public class LeaderState {
     }
     final long[] indices = new long[length];
     for (int i = 0; i < followers.size(); i++) {
-      indices[i] = followers.get(i).getMatchIndex();
+      indices[i] = getter.applyAsLong(followers.get(i));
     }
     if (includeSelf) {
-      // note that we also need to wait for the local disk I/O
-      indices[length - 1] = raftLog.getLatestFlushedIndex();
+      indices[length - 1] = selfValue;
     }
 
     Arrays.sort(indices);
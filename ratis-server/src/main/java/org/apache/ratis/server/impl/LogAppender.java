@@ -63,6 +63,9 @@ public class LogAppender {
   private final int snapshotChunkMaxSize;
   protected final long halfMinTimeoutMs;
 
+  /** The read round sent with the latest request; see {@link LeaderState#getReadRound()}. */
+  private volatile long readRoundSent;
+
   private final LifeCycle lifeCycle;
   private final Daemon daemon = new Daemon(this::runAppender);
 
@@ -235,8 +238,12 @@ public class LogAppender {
         }
 
         follower.updateLastRpcSendTime();
+        final LeadershipAck ack = newLeadershipAck();
         final AppendEntriesReplyProto r = server.getServerRpc().appendEntries(request);
         follower.updateLastRpcResponseTime();
+        if (r.getResult() != AppendEntriesReplyProto.AppendResult.NOT_LEADER) {
+          ackLeadership(ack);
+        }
 
         updateCommitIndex(r.getFollowerCommit());
         return r;
@@ -256,6 +263,35 @@ public class LogAppender {
     return null;
   }
 
+  /**
+   * The read round and the send time of a request.
+   * Once the follower replies the request in the leader's term,
+   * it acks the leadership in the read round as of the send time.
+   */
+  protected static class LeadershipAck {
+    private final long readRound;
+    private final Timestamp sendTime = new Timestamp();
+
+    LeadershipAck(long readRound) {
+      this.readRound = readRound;
+    }
+  }
+
+  /** @return the ack for the next request to be sent. */
+  protected LeadershipAck newLeadershipAck() {
+    final long round = leaderState.getReadRound();
+    readRoundSent = round;
+    return new LeadershipAck(round);
+  }
+
+  /** The follower has replied, in the leader's term, the request of the given ack. */
+  protected void ackLeadership(LeadershipAck ack) {
+    follower.updateLastLeadershipAckTime(ack.sendTime);
+    if (follower.updateReadRoundAck(ack.readRound)) {
+      leaderState.updateReadRound();
+    }
+  }
+
   protected void updateCommitIndex(long commitIndex) {
     if (follower.updateCommitIndex(commitIndex)) {
       server.commitIndexChanged();
@@ -525,6 +561,9 @@ public class LogAppender {
    * @return the time in milliseconds that the leader should send a heartbeat.
    */
   protected long getHeartbeatRemainingTime() {
+    if (leaderState.getReadRound() > readRoundSent) {
+      return 0L; // a new read round has started, send a heartbeat now
+    }
     return halfMinTimeoutMs - follower.getLastRpcTime().elapsedTimeMs();
   }
 
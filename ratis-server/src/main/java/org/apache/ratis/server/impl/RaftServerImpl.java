@@ -28,6 +28,7 @@ import org.apache.ratis.server.protocol.TermIndex;
 import org.apache.ratis.server.storage.FileInfo;
 import org.apache.ratis.server.storage.RaftLog;
 import org.apache.ratis.server.storage.RaftStorageDirectory;
+import org.apache.ratis.server.storage.SharedLogStore;
 import org.apache.ratis.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.ratis.proto.RaftProtos.*;
 import org.apache.ratis.statemachine.SnapshotInfo;
@@ -65,6 +66,15 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
   private final int minTimeoutMs;
   private final int maxTimeoutMs;
   private final int rpcSlownessTimeoutMs;
+  private final boolean leaderLeaseEnabled;
+  private final boolean followerReadEnabled;
+  private final TimeDuration readTimeout;
+  /** Guard the read index requests sent to the leader. */
+  private final Object readIndexLock = new Object();
+  /** The read index request in flight to the leader; null if there is none. */
+  private CompletableFuture<Long> readIndexInFlight;
+  /** The reads arriving while a request is in flight share the next request. */
+  private CompletableFuture<Long> readIndexNext;
 
   private final LifeCycle lifeCycle;
   private final ServerState state;
@@ -89,6 +99,9 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
     minTimeoutMs = RaftServerConfigKeys.Rpc.timeoutMin(properties).toInt(TimeUnit.MILLISECONDS);
     maxTimeoutMs = RaftServerConfigKeys.Rpc.timeoutMax(properties).toInt(TimeUnit.MILLISECONDS);
     rpcSlownessTimeoutMs = RaftServerConfigKeys.Rpc.slownessTimeout(properties).toInt(TimeUnit.MILLISECONDS);
+    leaderLeaseEnabled = RaftServerConfigKeys.Read.leaderLeaseEnabled(properties);
+    followerReadEnabled = RaftServerConfigKeys.Read.followerEnabled(properties);
+    readTimeout = RaftServerConfigKeys.Rpc.requestTimeout(properties);
     Preconditions.assertTrue(maxTimeoutMs > minTimeoutMs,
         "max timeout: %s, min timeout: %s", maxTimeoutMs, minTimeoutMs);
     this.proxy = proxy;
@@ -252,6 +265,11 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
         LOG.warn("Failed to close state for " + getId(), ignored);
       }
       if (deleteDirectory) {
+        final SharedLogStore sharedLogStore = proxy.getSharedLogStore();
+        if (sharedLogStore != null) {
+          // the entries of the group in the shared files are no longer needed
+          sharedLogStore.remove(groupId);
+        }
         final RaftStorageDirectory dir = state.getStorage().getStorageDir();
         try {
           FileUtils.deleteFully(dir.getRoot());
@@ -504,6 +522,9 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
     LOG.debug("{}: receive client request({})", getId(), request);
     if (request.is(RaftClientRequestProto.TypeCase.STALEREAD)) {
       return staleReadAsync(request);
+    } else if (request.is(RaftClientRequestProto.TypeCase.READ)
+        && followerReadEnabled && isFollower() && state.hasLeader()) {
+      return followerReadAsync(request);
     }
 
     // first check the server's leader state
@@ -515,9 +536,7 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
     // let the state machine handle read-only request from client
     final StateMachine stateMachine = getStateMachine();
     if (request.is(RaftClientRequestProto.TypeCase.READ)) {
-      // TODO: We might not be the leader anymore by the time this completes.
-      // See the RAFT paper section 8 (last part)
-      return processQueryFuture(stateMachine.query(request.getMessage()), request);
+      return readAsync(request);
     }
 
     if (request.is(RaftClientRequestProto.TypeCase.WATCH)) {
@@ -554,6 +573,131 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
             new RaftClientReply(request, generateNotLeaderException(), getCommitInfos())));
   }
 
+  /**
+   * Serve a linearizable read on the leader with the ReadIndex protocol (see the Raft paper section 8).
+   */
+  private CompletableFuture<RaftClientReply> readAsync(RaftClientRequest request) {
+    return readAsync(request, role.getLeaderState()
+        .map(LeaderState::addReadRequest)
+        .orElseGet(() -> JavaUtils.completeExceptionally(generateNotLeaderException())));
+  }
+
+  /**
+   * Serve a linearizable read on a follower with the read index provided by the leader.
+   */
+  private CompletableFuture<RaftClientReply> followerReadAsync(RaftClientRequest request) {
+    try {
+      assertGroup(request.getRequestorId(), request.getRaftGroupId());
+    } catch (GroupMismatchException e) {
+      return RetryCache.failWithException(e, null);
+    }
+    return readAsync(request, getReadIndexFromLeader());
+  }
+
+  /**
+   * A read must not use a read index requested before the read arrives.
+   * Therefore, the reads arriving while a request is in flight are combined into the next request.
+   *
+   * @return a future of the read index from the leader.
+   */
+  private CompletableFuture<Long> getReadIndexFromLeader() {
+    final CompletableFuture<Long> future;
+    synchronized (readIndexLock) {
+      if (readIndexInFlight != null) {
+        if (readIndexNext == null) {
+          readIndexNext = new CompletableFuture<>();
+        }
+        return readIndexNext;
+      }
+      future = readIndexInFlight = new CompletableFuture<>();
+    }
+    sendReadIndex(future);
+    return future;
+  }
+
+  private void sendReadIndex(CompletableFuture<Long> future) {
+    requestReadIndex().whenComplete((index, e) -> {
+      final CompletableFuture<Long> next;
+      synchronized (readIndexLock) {
+        next = readIndexInFlight = readIndexNext;
+        readIndexNext = null;
+      }
+      if (next != null) {
+        sendReadIndex(next);
+      }
+
+      if (e != null) {
+        future.completeExceptionally(e);
+      } else {
+        future.complete(index);
+      }
+    });
+  }
+
+  private CompletableFuture<Long> requestReadIndex() {
+    final RaftPeerId leaderId = state.getLeaderId();
+    if (!isFollower() || leaderId == null) {
+      return JavaUtils.completeExceptionally(generateNotLeaderException());
+    }
+    final ReadIndexRequestProto r = ServerProtoUtils.toReadIndexRequestProto(getId(), leaderId, groupId);
+    final CompletableFuture<ReadIndexReplyProto> reply;
+    try {
+      // the server rpc is blocking, call it from the dedicated executor
+      reply = CompletableFuture.supplyAsync(
+          () -> JavaUtils.callAsUnchecked(() -> getServerRpc().readIndex(r), CompletionException::new),
+          proxy.getReadIndexExecutor());
+    } catch (RejectedExecutionException e) {
+      return JavaUtils.completeExceptionally(e);
+    }
+    return reply.thenApply(replyProto -> {
+      if (!replyProto.getServerReply().getSuccess()) {
+        throw new CompletionException(generateNotLeaderException());
+      }
+      return replyProto.getReadIndex();
+    });
+  }
+
+  /**
+   * Once the read index is confirmed and applied, query the state machine.
+   */
+  private CompletableFuture<RaftClientReply> readAsync(RaftClientRequest request, CompletableFuture<Long> readIndex) {
+    return readIndex
+        .thenCompose(index -> withReadTimeout(state.waitForApplied(index), () -> "waitForApplied " + index))
+        .thenCompose(applied -> processQueryFuture(getStateMachine().query(request.getMessage()), request))
+        .exceptionally(e -> {
+          e = JavaUtils.unwrapCompletionException(e);
+          if (e instanceof NotLeaderException) {
+            return new RaftClientReply(request, (NotLeaderException)e, getCommitInfos());
+          }
+          throw new CompletionException(e);
+        });
+  }
+
+  /**
+   * @return a future completing with the given future,
+   *         or completing exceptionally if the given future is not done within the request timeout.
+   */
+  private <T> CompletableFuture<T> withReadTimeout(CompletableFuture<T> future, Supplier<String> name) {
+    if (future.isDone()) {
+      return future;
+    }
+    final CompletableFuture<T> timed = new CompletableFuture<>();
+    final ScheduledFuture<?> timeout = proxy.getReadTimeoutExecutor().schedule(
+        () -> timed.completeExceptionally(new TimeoutException(
+            getId() + ": " + name.get() + " timed out after " + readTimeout)),
+        readTimeout.getDuration(), readTimeout.getUnit());
+    future.whenComplete((value, e) -> {
+      // remove the timeout task from the queue, otherwise it holds the futures until it expires
+      timeout.cancel(false);
+      if (e != null) {
+        timed.completeExceptionally(e);
+      } else {
+        timed.complete(value);
+      }
+    });
+    return timed;
+  }
+
   private CompletableFuture<RaftClientReply> staleReadAsync(RaftClientRequest request) {
     final long minIndex = request.getType().getStaleRead().getMinIndex();
     final long commitIndex = state.getLog().getLastCommittedIndex();
@@ -670,12 +814,13 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
   }
 
   private boolean shouldWithholdVotes(long candidateTerm) {
-    if (state.getCurrentTerm() < candidateTerm) {
+    if (state.getCurrentTerm() < candidateTerm && !leaderLeaseEnabled) {
       return false;
     } else if (isLeader()) {
-      return true;
+      return state.getCurrentTerm() >= candidateTerm;
     } else {
-      // following a leader and not yet timeout
+      // following a leader and not yet timeout.
+      // The leader lease requires withholding votes whatever the candidate's term (leader stickiness).
       return isFollower() && state.hasLeader()
           && role.getFollowerState().map(FollowerState::shouldWithholdVotes).orElse(false);
     }
@@ -807,6 +952,31 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
         r.getCommitInfosList(), entries);
   }
 
+  @Override
+  public ReadIndexReplyProto readIndex(ReadIndexRequestProto r) throws IOException {
+    // for the synchronous transports; readIndexAsync is bounded by the request timeout
+    return IOUtils.getFromFuture(readIndexAsync(r), "readIndex");
+  }
+
+  @Override
+  public CompletableFuture<ReadIndexReplyProto> readIndexAsync(ReadIndexRequestProto r) throws IOException {
+    final RaftRpcRequestProto request = r.getServerRequest();
+    final RaftPeerId requestorId = RaftPeerId.valueOf(request.getRequestorId());
+    assertLifeCycleState(RUNNING);
+    assertGroup(requestorId, ProtoUtils.toRaftGroupId(request.getRaftGroupId()));
+
+    final LeaderState leaderState = role.getLeaderState().filter(LeaderState::isReady).orElse(null);
+    if (leaderState == null) {
+      LOG.debug("{}: not ready to reply readIndex from {}", getId(), requestorId);
+      return CompletableFuture.completedFuture(ServerProtoUtils.toReadIndexReplyProto(
+          requestorId, getId(), groupId, false, RaftServerConstants.INVALID_LOG_INDEX));
+    }
+    return withReadTimeout(leaderState.addReadRequest(), () -> "readIndex from " + requestorId)
+        .thenApply(index -> ServerProtoUtils.toReadIndexReplyProto(requestorId, getId(), groupId, true, index))
+        .exceptionally(e -> ServerProtoUtils.toReadIndexReplyProto(
+            requestorId, getId(), groupId, false, RaftServerConstants.INVALID_LOG_INDEX));
+  }
+
   static void logAppendEntries(boolean isHeartbeat, Supplier<String> message) {
     if (isHeartbeat) {
       if (LOG.isTraceEnabled()) {
@@ -1080,9 +1250,11 @@ public class RaftServerImpl implements RaftServerProtocol, RaftServerAsynchronou
       stateMachine.setRaftConfiguration(ServerProtoUtils.toRaftConfiguration(next));
     } else if (next.getLogEntryBodyCase() == SMLOGENTRY) {
       // check whether there is a TransactionContext because we are the leader.
+      // Otherwise, the entry is decompressed only now when it is applied.
       TransactionContext trx = role.getLeaderState()
           .map(leader -> leader.getTransactionContext(next.getIndex())).orElseGet(
-              () -> new TransactionContextImpl(role.getCurrentRole(), stateMachine, next));
+              () -> new TransactionContextImpl(role.getCurrentRole(), stateMachine,
+                  LogEntryCompression.decompress(next)));
 
       // Let the StateMachine inject logic for committed transactions in sequential order.
       trx = stateMachine.applyTransactionSerial(trx);
@@ -25,9 +25,14 @@ import org.apache.ratis.rpc.RpcType;
 import org.apache.ratis.server.RaftServer;
 import org.apache.ratis.server.RaftServerConfigKeys;
 import org.apache.ratis.server.RaftServerRpc;
+import org.apache.ratis.server.storage.LogEntryCache;
+import org.apache.ratis.server.storage.LogWorkerEngine;
+import org.apache.ratis.server.storage.SharedLogStore;
+import org.apache.ratis.server.storage.StorageDirPlacementPolicy;
 import org.apache.ratis.proto.RaftProtos.*;
 import org.apache.ratis.statemachine.StateMachine;
 import org.apache.ratis.util.CheckedFunction;
+import org.apache.ratis.util.Daemon;
 import org.apache.ratis.util.IOUtils;
 import org.apache.ratis.util.JavaUtils;
 import org.apache.ratis.util.LifeCycle;
@@ -52,6 +57,10 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -150,6 +159,20 @@ public class RaftServerProxy implements RaftServer {
   private final ServerFactory factory;
 
   private final ImplMap impls = new ImplMap();
+  /** The log entry cache shared by all the groups; null if it is disabled. */
+  private final LogEntryCache logEntryCache;
+  /** The log worker engine shared by all the groups; null if it is disabled. */
+  private final LogWorkerEngine logWorkerEngine;
+  /** The log files shared by all the groups; null if it is disabled. */
+  private final SharedLogStore sharedLogStore;
+  private final StorageDirPlacementPolicy storageDirPlacementPolicy;
+  /** For the blocking readIndex calls sent by the followers to the leaders. */
+  private final ExecutorService readIndexExecutor;
+  /** For timing out the reads; the completed reads remove their timeout tasks. */
+  private final ScheduledThreadPoolExecutor readTimeoutExecutor = newReadTimeoutExecutor();
+  /** For moving the cold segments of the groups; the thread is only started when it is used. */
+  private final ScheduledExecutorService coldSegmentExecutor =
+      Executors.newSingleThreadScheduledExecutor(Daemon::new);
 
   RaftServerProxy(RaftPeerId id, StateMachine.Registry stateMachineRegistry,
       RaftProperties properties, Parameters parameters) {
@@ -162,6 +185,12 @@ public class RaftServerProxy implements RaftServer {
     this.serverRpc = factory.newRaftServerRpc(this);
     this.id = id != null? id: RaftPeerId.valueOf(getIdStringFrom(serverRpc));
     this.lifeCycle = new LifeCycle(this.id);
+    this.logEntryCache = LogEntryCache.newInstance(properties);
+    this.logWorkerEngine = LogWorkerEngine.newInstance(properties);
+    this.storageDirPlacementPolicy = StorageDirPlacementPolicy.newInstance(properties);
+    this.sharedLogStore = SharedLogStore.newInstance(properties, storageDirPlacementPolicy);
+    this.readIndexExecutor = Executors.newFixedThreadPool(
+        RaftServerConfigKeys.Read.followerReadIndexThreads(properties), Daemon::new);
   }
 
   /** Check the storage dir and add groups*/
@@ -236,6 +265,41 @@ public class RaftServerProxy implements RaftServer {
     return properties;
   }
 
+  public LogEntryCache getLogEntryCache() {
+    return logEntryCache;
+  }
+
+  public LogWorkerEngine getLogWorkerEngine() {
+    return logWorkerEngine;
+  }
+
+  public SharedLogStore getSharedLogStore() {
+    return sharedLogStore;
+  }
+
+  /** @return the executor moving the cold segments of all the groups. */
+  public ScheduledExecutorService getColdSegmentExecutor() {
+    return coldSegmentExecutor;
+  }
+
+  StorageDirPlacementPolicy getStorageDirPlacementPolicy() {
+    return storageDirPlacementPolicy;
+  }
+
+  ExecutorService getReadIndexExecutor() {
+    return readIndexExecutor;
+  }
+
+  ScheduledExecutorService getReadTimeoutExecutor() {
+    return readTimeoutExecutor;
+  }
+
+  private static ScheduledThreadPoolExecutor newReadTimeoutExecutor() {
+    final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, Daemon::new);
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
   public RaftServerRpc getServerRpc() {
     return serverRpc;
   }
@@ -289,6 +353,15 @@ public class RaftServerProxy implements RaftServer {
     lifeCycle.checkStateAndClose(() -> {
       LOG.info("{}: close", getId());
       impls.close();
+      if (logWorkerEngine != null) {
+        logWorkerEngine.close();
+      }
+      if (sharedLogStore != null) {
+        sharedLogStore.close();
+      }
+      readIndexExecutor.shutdownNow();
+      readTimeoutExecutor.shutdownNow();
+      coldSegmentExecutor.shutdownNow();
 
       try {
         getServerRpc().close();
@@ -427,6 +500,17 @@ public class RaftServerProxy implements RaftServer {
     return getImpl(request.getServerRequest()).installSnapshot(request);
   }
 
+  @Override
+  public CompletableFuture<ReadIndexReplyProto> readIndexAsync(ReadIndexRequestProto request) {
+    final RaftGroupId groupId = ProtoUtils.toRaftGroupId(request.getServerRequest().getRaftGroupId());
+    return submitRequest(groupId, impl -> impl.readIndexAsync(request));
+  }
+
+  @Override
+  public ReadIndexReplyProto readIndex(ReadIndexRequestProto request) throws IOException {
+    return getImpl(request.getServerRequest()).readIndex(request);
+  }
+
   @Override
   public String toString() {
     return getId() + String.format(":%9s ", lifeCycle.getCurrentState()) + impls;
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The read requests waiting for the leader to confirm its leadership
+ * (the ReadIndex protocol in the Raft dissertation section 6.4).
+ *
+ * A read request records the commit index as its read index
+ * and then waits for a heartbeat round acked by a majority.
+ * The requests arriving while a round is in progress are batched to the next round,
+ * so that there is at most one round in progress.
+ */
+class ReadRequests {
+  public static final Logger LOG = LoggerFactory.getLogger(ReadRequests.class);
+
+  static class PendingRead {
+    private final long readIndex;
+    private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+    PendingRead(long readIndex) {
+      this.readIndex = readIndex;
+    }
+
+    CompletableFuture<Long> getFuture() {
+      return future;
+    }
+
+    void complete() {
+      future.complete(readIndex);
+    }
+
+    @Override
+    public String toString() {
+      return "read@" + readIndex;
+    }
+  }
+
+  private final String name;
+  /** Invoked, without holding the lock, when a new round is started. */
+  private final Runnable roundStarted;
+
+  /** The latest round started, i.e. the requests in this round are waiting for the acks. */
+  private volatile long round = 0;
+  /** The requests waiting for the acks of the current round; null if there is no round in progress. */
+  private List<PendingRead> current;
+  /** The requests waiting for the next round. */
+  private List<PendingRead> next = new ArrayList<>();
+  /** Once it is set, all the requests are failed with it. */
+  private Exception failure;
+
+  ReadRequests(Object name, Runnable roundStarted) {
+    this.name = name + "-" + getClass().getSimpleName();
+    this.roundStarted = roundStarted;
+  }
+
+  long getRound() {
+    return round;
+  }
+
+  CompletableFuture<Long> add(long readIndex) {
+    final PendingRead pending = new PendingRead(readIndex);
+    final boolean started;
+    synchronized (this) {
+      if (failure != null) {
+        pending.getFuture().completeExceptionally(failure);
+        return pending.getFuture();
+      }
+      next.add(pending);
+      started = startRoundIfIdle();
+    }
+    if (started) {
+      roundStarted.run();
+    }
+    return pending.getFuture();
+  }
+
+  /** Start a new round if there is no round in progress and there are requests waiting. */
+  private synchronized boolean startRoundIfIdle() {
+    if (current != null || next.isEmpty()) {
+      return false;
+    }
+    current = next;
+    next = new ArrayList<>();
+    round++;
+    LOG.debug("{}: start round {} for {} read(s)", name, round, current.size());
+    return true;
+  }
+
+  /** A majority has acked the given round. */
+  void update(long ackedRound) {
+    final List<PendingRead> completed;
+    final boolean started;
+    synchronized (this) {
+      if (current == null || ackedRound < round) {
+        return;
+      }
+      completed = current;
+      current = null;
+      started = startRoundIfIdle();
+    }
+    LOG.debug("{}: round {} acked, complete {} read(s)", name, ackedRound, completed.size());
+    completed.forEach(PendingRead::complete);
+    if (started) {
+      roundStarted.run();
+    }
+  }
+
+  void failAll(Exception e) {
+    final List<PendingRead> failed = new ArrayList<>();
+    synchronized (this) {
+      failure = e;
+      if (current != null) {
+        failed.addAll(current);
+        current = null;
+      }
+      failed.addAll(next);
+      next.clear();
+    }
+    failed.forEach(r -> r.getFuture().completeExceptionally(e));
+  }
+}
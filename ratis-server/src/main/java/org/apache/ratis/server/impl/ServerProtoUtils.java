@@ -147,6 +147,21 @@ public class ServerProtoUtils {
     return b.build();
   }
 
+  public static ReadIndexRequestProto toReadIndexRequestProto(
+      RaftPeerId requestorId, RaftPeerId replyId, RaftGroupId groupId) {
+    return ReadIndexRequestProto.newBuilder()
+        .setServerRequest(toRaftRpcRequestProtoBuilder(requestorId, replyId, groupId))
+        .build();
+  }
+
+  public static ReadIndexReplyProto toReadIndexReplyProto(
+      RaftPeerId requestorId, RaftPeerId replyId, RaftGroupId groupId, boolean success, long readIndex) {
+    return ReadIndexReplyProto.newBuilder()
+        .setServerReply(toRaftRpcReplyProtoBuilder(requestorId, replyId, groupId, success))
+        .setReadIndex(readIndex)
+        .build();
+  }
+
   public static InstallSnapshotReplyProto toInstallSnapshotReplyProto(
       RaftPeerId requestorId, RaftPeerId replyId, RaftGroupId groupId,
       long term, int requestIndex, InstallSnapshotResult result) {
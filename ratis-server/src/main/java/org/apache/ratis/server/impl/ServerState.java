@@ -35,12 +35,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -98,9 +98,16 @@ public class ServerState implements Closeable {
     LOG.info("{}: {}", id, configurationManager);
 
     // use full uuid string to create a subdirectory
+    final StorageDirPlacementPolicy placementPolicy = Optional.ofNullable(server)
+        .map(RaftServerImpl::getProxy)
+        .map(RaftServerProxy::getStorageDirPlacementPolicy)
+        .orElseGet(() -> StorageDirPlacementPolicy.newInstance(prop));
     final File dir = chooseStorageDir(RaftServerConfigKeys.storageDirs(prop),
-        group.getGroupId().getUuid().toString());
-    storage = new RaftStorage(dir, RaftServerConstants.StartupOption.REGULAR);
+        group.getGroupId().getUuid().toString(), placementPolicy);
+    final File coldDir = Optional.ofNullable(RaftServerConfigKeys.Log.coldStorageDir(prop))
+        .map(d -> new File(d, group.getGroupId().getUuid().toString()))
+        .orElse(null);
+    storage = new RaftStorage(dir, coldDir, RaftServerConstants.StartupOption.REGULAR);
     snapshotManager = new SnapshotManager(storage, id);
 
     long lastApplied = initStatemachine(stateMachine, group.getGroupId());
@@ -129,11 +136,18 @@ public class ServerState implements Closeable {
 
 
   static File chooseStorageDir(List<File> volumes, String targetSubDir) throws IOException {
-    final Map<File, Integer> numberOfStorageDirPerVolume = new HashMap<>();
+    return chooseStorageDir(volumes, targetSubDir, StorageDirPlacementPolicy.LEAST_GROUPS);
+  }
+
+  static File chooseStorageDir(List<File> volumes, String targetSubDir,
+      StorageDirPlacementPolicy policy) throws IOException {
+    final Map<File, Integer> numberOfStorageDirPerVolume = new LinkedHashMap<>();
     final File[] empty = {};
     final List<File> resultList = new ArrayList<>();
     volumes.stream().flatMap(volume -> {
-      final File[] dirs = Optional.ofNullable(volume.listFiles()).orElse(empty);
+      final File[] dirs = Arrays.stream(Optional.ofNullable(volume.listFiles()).orElse(empty))
+          .filter(dir -> !SharedLogStore.DIR_NAME.equals(dir.getName()))
+          .toArray(File[]::new);
       numberOfStorageDirPerVolume.put(volume, dirs.length);
       return Arrays.stream(dirs);
     }).filter(dir -> targetSubDir.equals(dir.getName()))
@@ -145,9 +159,7 @@ public class ServerState implements Closeable {
     if (resultList.size() == 1) {
       return resultList.get(0);
     }
-    return numberOfStorageDirPerVolume.entrySet().stream()
-        .min(Comparator.comparing(Map.Entry::getValue))
-        .map(Map.Entry::getKey)
+    return policy.chooseVolume(numberOfStorageDirPerVolume)
         .map(v -> new File(v, targetSubDir))
         .orElseThrow(() -> new IOException("No storage directory found."));
   }
@@ -186,6 +198,9 @@ public class ServerState implements Closeable {
       final int maxBufferSize =
           RaftServerConfigKeys.Log.Appender.bufferCapacity(prop).getSizeInt();
       log = new MemoryRaftLog(id, maxBufferSize);
+    } else if (RaftServerConfigKeys.Log.sharedFileEnabled(prop)) {
+      log = new SharedFileRaftLog(id, server.getGroupId(), server, this.storage,
+          server.getProxy().getSharedLogStore(), prop);
     } else {
       log = new SegmentedRaftLog(id, server, this.storage,
           lastIndexInSnapshot, prop);
@@ -410,4 +425,8 @@ public class ServerState implements Closeable {
   public long getLastAppliedIndex() {
     return stateMachineUpdater.getLastAppliedIndex();
   }
+
+  CompletableFuture<Long> waitForApplied(long index) {
+    return stateMachineUpdater.waitForApplied(index);
+  }
 }
@@ -31,7 +31,10 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * This class tracks the log entries that have been committed in a quorum and
@@ -55,10 +58,13 @@ class StateMachineUpdater implements Runnable {
   private final RaftLog raftLog;
 
   private volatile long lastAppliedIndex;
+  /** The futures waiting for {@link #lastAppliedIndex} to reach the keys. */
+  private final NavigableMap<Long, CompletableFuture<Long>> appliedIndexFutures = new ConcurrentSkipListMap<>();
 
   private final boolean autoSnapshotEnabled;
   private final long autoSnapshotThreshold;
   private long lastSnapshotIndex;
+  private final int purgeGap;
 
   private final Thread updater;
   private volatile State state = State.RUNNING;
@@ -75,6 +81,7 @@ class StateMachineUpdater implements Runnable {
 
     autoSnapshotEnabled = RaftServerConfigKeys.Snapshot.autoTriggerEnabled(properties);
     autoSnapshotThreshold = RaftServerConfigKeys.Snapshot.autoTriggerThreshold(properties);
+    purgeGap = RaftServerConfigKeys.Log.purgeGap(properties);
     updater = new Daemon(this);
   }
 
@@ -85,6 +92,9 @@ class StateMachineUpdater implements Runnable {
   void stop() {
     state = State.STOP;
     updater.interrupt();
+    final IOException e = new IOException(this + " is stopped");
+    appliedIndexFutures.values().forEach(f -> f.completeExceptionally(e));
+    appliedIndexFutures.clear();
     try {
       stateMachine.close();
     } catch (IOException ignored) {
@@ -133,6 +143,7 @@ class StateMachineUpdater implements Runnable {
           lastAppliedIndex = snapshot.getIndex();
           lastSnapshotIndex = snapshot.getIndex();
           state = State.RUNNING;
+          completeAppliedIndexFutures();
         }
 
         final MemoizedSupplier<List<CompletableFuture<Message>>> futures
@@ -156,15 +167,18 @@ class StateMachineUpdater implements Runnable {
             break;
           }
         }
+        completeAppliedIndexFutures();
 
         // check if need to trigger a snapshot
         if (shouldTakeSnapshot(lastAppliedIndex)) {
           if (futures.isInitialized()) {
             JavaUtils.allOf(futures.get()).get();
           }
-          stateMachine.takeSnapshot();
-          // TODO purge logs, including log cache. but should keep log for leader's RPCSenders
+          final long snapshotIndex = stateMachine.takeSnapshot();
           lastSnapshotIndex = lastAppliedIndex;
+          if (snapshotIndex != RaftServerConstants.INVALID_LOG_INDEX) {
+            purgeLog(snapshotIndex);
+          }
         }
       } catch (InterruptedException e) {
         if (!isRunning()) {
@@ -180,6 +194,24 @@ class StateMachineUpdater implements Runnable {
     }
   }
 
+  /**
+   * Purge the log covered by the snapshot, but keep the last purgeGap entries
+   * and the entries which are still needed by the followers.
+   */
+  private void purgeLog(long snapshotIndex) {
+    long purgeIndex = snapshotIndex - purgeGap;
+    final long[] followerNextIndices = server.getFollowerNextIndices();
+    if (followerNextIndices != null) {
+      for (long nextIndex : followerNextIndices) {
+        purgeIndex = Math.min(purgeIndex, nextIndex - 1);
+      }
+    }
+    if (purgeIndex >= 0) {
+      LOG.debug("{}: purge log up to index {}, snapshotIndex={}", this, purgeIndex, snapshotIndex);
+      raftLog.purge(purgeIndex);
+    }
+  }
+
   private boolean isRunning() {
     return state != State.STOP;
   }
@@ -192,4 +224,25 @@ class StateMachineUpdater implements Runnable {
   long getLastAppliedIndex() {
     return lastAppliedIndex;
   }
+
+  /** @return a future of the last applied index, which completes once it is at least the given index. */
+  CompletableFuture<Long> waitForApplied(long index) {
+    if (index <= lastAppliedIndex) {
+      return CompletableFuture.completedFuture(lastAppliedIndex);
+    }
+    final CompletableFuture<Long> future = appliedIndexFutures.computeIfAbsent(index, i -> new CompletableFuture<>());
+    // the index may be applied before the future is added
+    completeAppliedIndexFutures();
+    return future;
+  }
+
+  private void completeAppliedIndexFutures() {
+    final long applied = lastAppliedIndex;
+    for(Map.Entry<Long, CompletableFuture<Long>> e;
+        (e = appliedIndexFutures.firstEntry()) != null && e.getKey() <= applied; ) {
+      if (appliedIndexFutures.remove(e.getKey(), e.getValue())) {
+        e.getValue().complete(applied);
+      }
+    }
+  }
 }
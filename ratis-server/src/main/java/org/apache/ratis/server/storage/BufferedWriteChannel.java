@@ -17,6 +17,11 @@
  */
 package org.apache.ratis.server.storage;
 
+import org.apache.ratis.io.nativeio.NativeIO;
+import org.apache.ratis.util.CheckedConsumer;
+import org.apache.ratis.util.Preconditions;
+
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -34,13 +39,28 @@ public class BufferedWriteChannel extends BufferedChannelBase {
   private final ByteBuffer writeBuffer;
   // The absolute position of the next write operation.
   private volatile long position;
+  // The file descriptor for sync_file_range, or null if it is not used.
+  private final FileDescriptor syncRangeFd;
+  // The position up to which the write-back has been waited for.
+  private final AtomicLong syncedPosition = new AtomicLong(0);
 
   public BufferedWriteChannel(FileChannel fc, int writeCapacity)
       throws IOException {
+    this(fc, writeCapacity, null);
+  }
+
+  /**
+   * @param syncRangeFd if it is non-null, the write-back of the data written
+   *                    to the file is started by sync_file_range, when possible.
+   */
+  public BufferedWriteChannel(FileChannel fc, int writeCapacity,
+      FileDescriptor syncRangeFd) throws IOException {
     super(fc);
+    this.syncRangeFd = syncRangeFd;
     this.writeCapacity = writeCapacity;
     this.position = fc.position();
     this.writeBufferStartPosition.set(position);
+    this.syncedPosition.set(position);
     this.writeBuffer = ByteBuffer.allocateDirect(writeCapacity);
   }
 
@@ -96,6 +116,33 @@ public class BufferedWriteChannel extends BufferedChannelBase {
     position += b.length;
   }
 
+  /**
+   * Let the writer write exactly the given number of bytes directly into the
+   * write buffer, starting at the buffer's current position, so that the data
+   * is not copied from an intermediate buffer.
+   *
+   * @return false if the size exceeds the buffer capacity; in such case,
+   *         nothing is written and the caller should use the other write methods.
+   */
+  public boolean write(int size, CheckedConsumer<ByteBuffer, IOException> writer)
+      throws IOException {
+    if (size > writeCapacity) {
+      return false;
+    }
+    if (writeBuffer.remaining() < size) {
+      flushInternal();
+    }
+    final int expected = writeBuffer.position() + size;
+    writer.accept(writeBuffer);
+    Preconditions.assertTrue(writeBuffer.position() == expected,
+        () -> "Unexpected buffer position " + writeBuffer.position() + " != " + expected);
+    if (writeBuffer.remaining() == 0) {
+      flushInternal();
+    }
+    position += size;
+    return true;
+  }
+
   /**
    * Get the position where the next write operation will begin writing from.
    */
@@ -133,12 +180,19 @@ public class BufferedWriteChannel extends BufferedChannelBase {
    * @throws IOException if the write fails.
    */
   private void flushInternal() throws IOException {
+    final long start = writeBufferStartPosition.get();
     writeBuffer.flip();
     do {
       fileChannel.write(writeBuffer);
     } while (writeBuffer.hasRemaining());
     writeBuffer.clear();
-    writeBufferStartPosition.set(fileChannel.position());
+    final long end = fileChannel.position();
+    writeBufferStartPosition.set(end);
+    if (syncRangeFd != null && end > start) {
+      // start the write-back without waiting; it is waited for in forceWrite
+      NativeIO.POSIX.syncFileRangeIfPossible(syncRangeFd, start, end - start,
+          NativeIO.POSIX.SYNC_FILE_RANGE_WRITE);
+    }
   }
 
   public long forceWrite(boolean forceMetadata) throws IOException {
@@ -147,10 +201,37 @@ public class BufferedWriteChannel extends BufferedChannelBase {
     // the force write, any flush that happens after this may or may
     // not be flushed
     long positionForceWrite = writeBufferStartPosition.get();
+    if (syncRangeFd != null) {
+      final long from = syncedPosition.get();
+      if (positionForceWrite > from) {
+        NativeIO.POSIX.syncFileRangeIfPossible(syncRangeFd, from, positionForceWrite - from,
+            NativeIO.POSIX.SYNC_FILE_RANGE_WAIT_BEFORE
+                | NativeIO.POSIX.SYNC_FILE_RANGE_WRITE
+                | NativeIO.POSIX.SYNC_FILE_RANGE_WAIT_AFTER);
+      }
+    }
+    // the data is then mostly on the disk, but it is still needed to flush
+    // the disk cache and the metadata
     fileChannel.force(forceMetadata);
+    syncedPosition.accumulateAndGet(positionForceWrite, Math::max);
     return positionForceWrite;
   }
 
+  /**
+   * Discard the data from the given position, both in the buffer and in the
+   * file, so that the next write begins at the position.
+   */
+  public synchronized void truncate(long newPosition) throws IOException {
+    Preconditions.assertTrue(newPosition >= 0 && newPosition <= position,
+        () -> "Failed to truncate at " + newPosition + ", position=" + position);
+    flushInternal();
+    fileChannel.truncate(newPosition);
+    fileChannel.position(newPosition);
+    position = newPosition;
+    writeBufferStartPosition.set(newPosition);
+    syncedPosition.accumulateAndGet(newPosition, Math::min);
+  }
+
   @Override
   public void close() throws IOException {
     fileChannel.close();
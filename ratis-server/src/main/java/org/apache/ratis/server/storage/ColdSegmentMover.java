@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.server.storage.RaftStorageDirectory.LogPathAndIndex;
+import org.apache.ratis.util.CheckedRunnable;
+import org.apache.ratis.util.Daemon;
+import org.apache.ratis.util.FileUtils;
+import org.apache.ratis.util.PlatformUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Move the closed segments which have not been written for a while from the
+ * current directory to the cold directory of the {@link RaftStorageDirectory}.
+ * A moved segment is still read by {@link LogSegment} through
+ * {@link RaftStorageDirectory#findClosedLogFile(long, long)}.
+ *
+ * A segment is copied in the background and is then switched to the copy,
+ * while the truncation and the purge of the segment files are excluded by
+ * {@link #runExclusively(CheckedRunnable)}.
+ *
+ * The segments are checked when a segment is closed and also periodically,
+ * since the segments of an idle log get old without any new segment.
+ */
+class ColdSegmentMover {
+  static final Logger LOG = LoggerFactory.getLogger(ColdSegmentMover.class);
+
+  /** The min interval of the periodic checks. */
+  static final long CHECK_INTERVAL_MIN_MS = 1000;
+
+  private final String name;
+  private final RaftStorageDirectory dir;
+  private final long ageMinMs;
+  /** Called with the original file of a moved segment. */
+  private final Consumer<File> onMoved;
+  /** Null if there is no cold directory. */
+  private final ScheduledExecutorService executor;
+  /** Is the executor shared with the other logs? A shared executor is not shut down by {@link #close()}. */
+  private final boolean isSharedExecutor;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private volatile ScheduledFuture<?> periodicCheck;
+  private volatile boolean closed = false;
+
+  /** @param sharedExecutor the executor shared with the other logs, or null to use a dedicated thread. */
+  ColdSegmentMover(String name, RaftStorageDirectory dir, RaftProperties properties,
+      ScheduledExecutorService sharedExecutor, Consumer<File> onMoved) {
+    this.name = name + "-" + getClass().getSimpleName();
+    this.dir = dir;
+    this.ageMinMs = RaftServerConfigKeys.Log.coldSegmentAgeMin(properties)
+        .toLong(TimeUnit.MILLISECONDS);
+    this.onMoved = onMoved;
+    this.isSharedExecutor = sharedExecutor != null;
+    this.executor = dir.getColdDir() == null ? null
+        : sharedExecutor != null ? sharedExecutor : Executors.newSingleThreadScheduledExecutor(Daemon::new);
+  }
+
+  /** Check the closed segments now and then periodically. */
+  void start() {
+    if (executor != null) {
+      final long interval = Math.max(ageMinMs, CHECK_INTERVAL_MIN_MS);
+      periodicCheck = executor.scheduleWithFixedDelay(this::submit, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    submit();
+  }
+
+  /** Check the closed segments in the background and move the old ones. */
+  void submit() {
+    if (executor != null && !closed && scheduled.compareAndSet(false, true)) {
+      executor.execute(() -> {
+        scheduled.set(false);
+        if (!closed) {
+          moveOldSegments();
+        }
+      });
+    }
+  }
+
+  /** Run the given operation on the segment files while no segment is being switched. */
+  synchronized <THROWABLE extends Throwable> void runExclusively(CheckedRunnable<THROWABLE> op)
+      throws THROWABLE {
+    op.run();
+  }
+
+  private void moveOldSegments() {
+    final long threshold = System.currentTimeMillis() - ageMinMs;
+    try {
+      for (LogPathAndIndex p : dir.getHotClosedLogSegmentFiles()) {
+        final File file = p.path.toFile();
+        if (file.lastModified() <= threshold) {
+          move(file, dir.getClosedLogIndexFile(p.startIndex, p.endIndex));
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(name + ": failed to move the segments to " + dir.getColdDir(), e);
+    }
+  }
+
+  private void move(File segment, File index) throws IOException {
+    final File coldDir = dir.getColdDir();
+    FileUtils.createDirectories(coldDir);
+    final File segmentCopy = copy(segment, coldDir);
+    if (segmentCopy == null) {
+      return; // the segment has been purged or truncated
+    }
+    final File indexCopy = copy(index, coldDir);
+    final long size = segmentCopy.length();
+
+    final boolean moved;
+    synchronized (this) {
+      // the segment may be purged or truncated during the copy
+      moved = segment.exists() && segment.length() == size;
+      if (moved) {
+        FileUtils.move(segmentCopy, new File(coldDir, segment.getName()));
+        if (indexCopy != null) {
+          FileUtils.move(indexCopy, new File(coldDir, index.getName()));
+        }
+        // the renames must be durable before the originals are deleted
+        forceDirectory(coldDir);
+        if (indexCopy != null) {
+          FileUtils.deleteFile(index);
+        }
+        FileUtils.deleteFile(segment);
+        forceDirectory(segment.getParentFile());
+      }
+    }
+
+    if (moved) {
+      LOG.info("{}: moved {} to {}", name, segment, coldDir);
+      onMoved.accept(segment);
+    } else {
+      Files.deleteIfExists(segmentCopy.toPath());
+      if (indexCopy != null) {
+        Files.deleteIfExists(indexCopy.toPath());
+      }
+    }
+  }
+
+  /** @return the durable copy of the file in the given directory, or null if the file does not exist. */
+  private static File copy(File file, File dstDir) throws IOException {
+    final File copy = new File(dstDir, file.getName() + RaftStorageDirectory.COLD_COPY_SUFFIX);
+    try {
+      Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (NoSuchFileException e) {
+      Files.deleteIfExists(copy.toPath());
+      return null;
+    }
+    try (FileChannel fc = FileChannel.open(copy.toPath(), StandardOpenOption.WRITE)) {
+      fc.force(true);
+    }
+    return copy;
+  }
+
+  /** Force the entries of the given directory to the disk; it is unsupported on Windows. */
+  private static void forceDirectory(File directory) throws IOException {
+    if (!PlatformUtils.WINDOWS) {
+      try (FileChannel fc = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+        fc.force(true);
+      }
+    }
+  }
+
+  void close() {
+    closed = true;
+    final ScheduledFuture<?> check = periodicCheck;
+    if (check != null) {
+      check.cancel(false);
+    }
+    if (executor != null && !isSharedExecutor) {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(3, TimeUnit.SECONDS);
+      } catch (InterruptedException ignored) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.util.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A byte-bounded LRU cache of log entries, which may be shared by the logs of
+ * all the groups in a server. The entries are stored in their
+ * {@link LogSegment}s; this class only accounts their sizes and decides which
+ * entries to evict.
+ *
+ * The entries not yet flushed are never evicted since they cannot be reloaded;
+ * the flushed entries of the open segments are evicted as well as those of the
+ * closed segments, so that the cache is bounded by its max size plus the
+ * entries not yet flushed. The entries still to be read by the followers or
+ * the state machine are evicted only if evicting the other entries is not enough.
+ */
+public class LogEntryCache {
+  public static final Logger LOG = LoggerFactory.getLogger(LogEntryCache.class);
+
+  /** The index information of a log for deciding which of its entries to evict. */
+  interface IndexInfo {
+    /** @return the index of the last entry flushed to the local disk. */
+    long getFlushedIndex();
+
+    /** @return the min index still to be read by the followers or the state machine. */
+    long getMinIndexToRead();
+  }
+
+  /** @return a new cache if the max size is positive; otherwise, return null. */
+  public static LogEntryCache newInstance(RaftProperties properties) {
+    final long maxBytes = RaftServerConfigKeys.Log.entryCacheSizeMax(properties).getSize();
+    return maxBytes > 0 ? new LogEntryCache(maxBytes) : null;
+  }
+
+  /** The account of a log in this cache. */
+  class Account {
+    private final String name;
+    private final IndexInfo indexInfo;
+
+    private Account(String name, IndexInfo indexInfo) {
+      this.name = name;
+      this.indexInfo = indexInfo;
+    }
+
+    void put(LogSegment segment, long index, LogEntryProto entry) {
+      LogEntryCache.this.put(new Key(this, segment, index), entry.getSerializedSize());
+    }
+
+    void touch(LogSegment segment, long index) {
+      LogEntryCache.this.touch(new Key(this, segment, index));
+    }
+
+    void remove(LogSegment segment, long index) {
+      LogEntryCache.this.remove(new Key(this, segment, index));
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static class Key {
+    private final Account account;
+    private final LogSegment segment;
+    private final long index;
+
+    Key(Account account, LogSegment segment, long index) {
+      this.account = account;
+      this.segment = segment;
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key that = (Key) obj;
+      return this.segment == that.segment && this.index == that.index;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(segment) * 31 + Long.hashCode(index);
+    }
+  }
+
+  private final long maxBytes;
+  /** The entry sizes in access order. */
+  private final LinkedHashMap<Key, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+  private long cachedBytes = 0;
+
+  public LogEntryCache(long maxBytes) {
+    Preconditions.assertTrue(maxBytes > 0, () -> "maxBytes = " + maxBytes + " <= 0");
+    this.maxBytes = maxBytes;
+  }
+
+  Account newAccount(String name, IndexInfo indexInfo) {
+    return new Account(name, indexInfo);
+  }
+
+  private synchronized void put(Key key, long size) {
+    final Long previous = sizes.put(key, size);
+    cachedBytes += size - (previous == null ? 0 : previous);
+    if (cachedBytes > maxBytes) {
+      evict(false);
+    }
+    if (cachedBytes > maxBytes) {
+      evict(true);
+    }
+  }
+
+  private synchronized void touch(Key key) {
+    sizes.get(key);
+  }
+
+  private synchronized void remove(Key key) {
+    final Long size = sizes.remove(key);
+    if (size != null) {
+      cachedBytes -= size;
+    }
+  }
+
+  /**
+   * Evict the least recently used entries until the cache is within its max size.
+   * @param includeToRead should the entries still to be read be evicted?
+   */
+  private void evict(boolean includeToRead) {
+    final Map<Account, long[]> indices = new HashMap<>();
+    for (Iterator<Map.Entry<Key, Long>> i = sizes.entrySet().iterator();
+         i.hasNext() && cachedBytes > maxBytes; ) {
+      final Map.Entry<Key, Long> e = i.next();
+      final Key key = e.getKey();
+      final long[] flushedAndToRead = indices.computeIfAbsent(key.account, a -> new long[]{
+          a.indexInfo.getFlushedIndex(), a.indexInfo.getMinIndexToRead()});
+      final long index = key.index;
+      if (index > flushedAndToRead[0]) {
+        continue;
+      } else if (!includeToRead && index >= flushedAndToRead[1]) {
+        continue;
+      }
+
+      i.remove();
+      cachedBytes -= e.getValue();
+      key.segment.evictEntry(index);
+      LOG.trace("{}: evicted {} of {}, cachedBytes={}", key.account, index, key.segment, cachedBytes);
+    }
+  }
+
+  synchronized long getCachedBytes() {
+    return cachedBytes;
+  }
+
+  synchronized int getNumEntries() {
+    return sizes.size();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(max=" + maxBytes + ")";
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.server.RaftServerConfigKeys;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decide when the {@link RaftLogWorker} should flush the pending writes,
+ * i.e. the entries which have been written but not yet forced to the disk.
+ */
+public interface LogFlushPolicy {
+  enum Type {
+    /** Flush after a fixed number of entries, or when the queue is empty. */
+    COUNT,
+    /** Flush within a time or a byte bound, tuned by the observed fsync latency. */
+    ADAPTIVE
+  }
+
+  /**
+   * @param pendingNum the number of the pending entries.
+   * @param pendingBytes the total size of the pending entries.
+   * @param pendingNanos the time elapsed since the first pending entry was written.
+   * @param queueEmpty is the task queue of the log worker empty?
+   * @return true if the pending writes should be flushed now.
+   */
+  boolean shouldFlush(int pendingNum, long pendingBytes, long pendingNanos, boolean queueEmpty);
+
+  /**
+   * Called after a flush has completed.
+   * @param elapsedNanos the time spent on the flush.
+   */
+  default void onFlush(long elapsedNanos) {
+  }
+
+  static LogFlushPolicy newInstance(RaftProperties properties) {
+    final Type type = RaftServerConfigKeys.Log.flushPolicy(properties);
+    switch (type) {
+      case COUNT:
+        return new CountPolicy(RaftServerConfigKeys.Log.forceSyncNum(properties));
+      case ADAPTIVE:
+        return new AdaptivePolicy(
+            RaftServerConfigKeys.Log.flushDelayMax(properties).toLong(TimeUnit.NANOSECONDS),
+            RaftServerConfigKeys.Log.flushSizeMax(properties).getSize());
+      default:
+        throw new IllegalArgumentException("Unexpected flush policy " + type);
+    }
+  }
+
+  class CountPolicy implements LogFlushPolicy {
+    private final int forceSyncNum;
+
+    CountPolicy(int forceSyncNum) {
+      this.forceSyncNum = forceSyncNum;
+    }
+
+    @Override
+    public boolean shouldFlush(int pendingNum, long pendingBytes,
+        long pendingNanos, boolean queueEmpty) {
+      return pendingNum >= forceSyncNum || (pendingNum > 0 && queueEmpty);
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + ":" + forceSyncNum;
+    }
+  }
+
+  /**
+   * Flush when the queue becomes empty, or when the pending writes exceed
+   * either the byte bound or the time bound, whichever comes first.
+   *
+   * The time bound follows the moving average of the fsync latency (capped by
+   * the max delay) so that a slow disk gets larger batches and a fast disk
+   * gets lower latency.
+   */
+  class AdaptivePolicy implements LogFlushPolicy {
+    private final long maxDelayNanos;
+    private final long maxBytes;
+    /** exponential moving average of the fsync latency */
+    private volatile long avgFlushNanos;
+
+    AdaptivePolicy(long maxDelayNanos, long maxBytes) {
+      this.maxDelayNanos = maxDelayNanos;
+      this.maxBytes = maxBytes;
+      this.avgFlushNanos = maxDelayNanos;
+    }
+
+    long getDelayNanos() {
+      return Math.min(maxDelayNanos, avgFlushNanos);
+    }
+
+    @Override
+    public boolean shouldFlush(int pendingNum, long pendingBytes,
+        long pendingNanos, boolean queueEmpty) {
+      return pendingNum > 0 && (queueEmpty || pendingBytes >= maxBytes
+          || pendingNanos >= getDelayNanos());
+    }
+
+    @Override
+    public void onFlush(long elapsedNanos) {
+      // weight 1/8 for the new sample
+      avgFlushNanos = avgFlushNanos - (avgFlushNanos >> 3) + (elapsedNanos >> 3);
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + ": maxDelayNanos=" + maxDelayNanos
+          + ", maxBytes=" + maxBytes + ", avgFlushNanos=" + avgFlushNanos;
+    }
+  }
+}
@@ -17,26 +17,54 @@
  */
 package org.apache.ratis.server.storage;
 
+import org.apache.ratis.io.nativeio.NativeIO;
 import org.apache.ratis.server.impl.RaftServerConstants;
 import org.apache.ratis.thirdparty.com.google.protobuf.CodedOutputStream;
 import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.util.ChecksumProvider;
+import org.apache.ratis.util.ChecksumProvider.BufferChecksum;
 import org.apache.ratis.util.FileUtils;
 import org.apache.ratis.util.IOUtils;
-import org.apache.ratis.util.PureJavaCrc32C;
+import org.apache.ratis.util.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.zip.Checksum;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LogOutputStream implements Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(LogOutputStream.class);
 
+  /** How the written data is sent to the disk. */
+  public enum WriteMode {
+    /** Write to the page cache and force the file when flushing. */
+    BUFFERED,
+    /**
+     * Also start the write-back of each range written to the file with
+     * sync_file_range(2), so that little dirty data is left when the file is
+     * forced.  It requires the native code; see {@link #getEffectiveWriteMode}.
+     */
+    SYNC_FILE_RANGE
+  }
+
+  /** @return the given mode if it is supported; otherwise, {@link WriteMode#BUFFERED}. */
+  static WriteMode getEffectiveWriteMode(WriteMode mode) {
+    if (mode == WriteMode.SYNC_FILE_RANGE && !NativeIO.isAvailable()) {
+      LOG.warn("The native code is not loaded, fall back from {} to {}",
+          mode, WriteMode.BUFFERED);
+      return WriteMode.BUFFERED;
+    }
+    return mode;
+  }
+
   private static final ByteBuffer fill;
   private static final int BUFFER_SIZE = 1024 * 1024; // 1 MB
   static {
@@ -47,34 +75,80 @@ public class LogOutputStream implements Closeable {
     }
   }
 
+  private static final long PAGE_SIZE = 4096;
+
   private File file;
   private FileChannel fc; // channel of the file stream for sync
   private BufferedWriteChannel out; // buffered FileChannel for writing
-  private final Checksum checksum;
+  private FileDescriptor fd; // for the page cache advice
+  private final BufferChecksum checksum;
+  /** The position up to which the data has been forced. */
+  private final AtomicLong forcedPosition = new AtomicLong();
+  /** The position up to which the page cache has been dropped. */
+  private long droppedPosition = 0;
 
   private final long segmentMaxSize;
   private final long preallocatedSize;
   private long preallocatedPos;
 
+  /**
+   * Create a segment file containing only the header and the preallocated
+   * fill bytes, which can be opened later by {@link #openPreallocated}.
+   */
+  static void createPreallocatedFile(File file, long segmentMaxSize,
+      long preallocatedSize) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      writeFill(channel, 0, Math.min(segmentMaxSize, preallocatedSize));
+      IOUtils.writeFully(channel, ByteBuffer.wrap(SegmentedRaftLog.HEADER_BYTES), 0);
+      channel.force(true);
+    }
+  }
+
+  /** Open a file created by {@link #createPreallocatedFile} for writing after the header. */
+  static LogOutputStream openPreallocated(File file, long segmentMaxSize,
+      long preallocatedSize, int bufferSize, WriteMode writeMode) throws IOException {
+    return new LogOutputStream(file, SegmentedRaftLog.HEADER_BYTES.length,
+        segmentMaxSize, preallocatedSize, bufferSize, writeMode);
+  }
+
+  private LogOutputStream(File file, long position, long segmentMaxSize,
+      long preallocatedSize, int bufferSize, WriteMode writeMode) throws IOException {
+    this.file = file;
+    this.checksum = ChecksumProvider.newCrc32C();
+    this.segmentMaxSize = segmentMaxSize;
+    this.preallocatedSize = preallocatedSize;
+    final RandomAccessFile rp = new RandomAccessFile(file, "rw");
+    fc = rp.getChannel();
+    Preconditions.assertTrue(fc.size() >= position,
+        () -> "The size of " + file + " is smaller than " + position);
+    fc.position(position);
+    preallocatedPos = fc.size();
+    out = newWriteChannel(rp, bufferSize, writeMode);
+  }
+
   public LogOutputStream(File file, boolean append, long segmentMaxSize,
       long preallocatedSize, int bufferSize)
       throws IOException {
+    this(file, append, segmentMaxSize, preallocatedSize, bufferSize,
+        WriteMode.BUFFERED);
+  }
+
+  public LogOutputStream(File file, boolean append, long segmentMaxSize,
+      long preallocatedSize, int bufferSize, WriteMode writeMode)
+      throws IOException {
     this.file = file;
-    this.checksum = new PureJavaCrc32C();
+    this.checksum = ChecksumProvider.newCrc32C();
     this.segmentMaxSize = segmentMaxSize;
     this.preallocatedSize = preallocatedSize;
     RandomAccessFile rp = new RandomAccessFile(file, "rw");
-    fc = rp.getChannel();
-    fc.position(fc.size());
-    preallocatedPos = fc.size();
-    out = new BufferedWriteChannel(fc, bufferSize);
 
     try {
       fc = rp.getChannel();
       fc.position(fc.size());
       preallocatedPos = fc.size();
 
-      out = new BufferedWriteChannel(fc, bufferSize);
+      out = newWriteChannel(rp, bufferSize, writeMode);
       if (!append) {
         create();
       }
@@ -91,6 +165,13 @@ public class LogOutputStream implements Closeable {
     }
   }
 
+  private BufferedWriteChannel newWriteChannel(RandomAccessFile raf,
+      int bufferSize, WriteMode writeMode) throws IOException {
+    fd = raf.getFD();
+    return new BufferedWriteChannel(fc, bufferSize,
+        writeMode == WriteMode.SYNC_FILE_RANGE ? fd : null);
+  }
+
   /**
    * Format:
    * LogEntryProto's protobuf
@@ -102,6 +183,34 @@ public class LogOutputStream implements Closeable {
         + serialized;
 
     preallocateIfNecessary(bufferSize + 4);
+    write(entry, serialized, bufferSize);
+  }
+
+  /**
+   * Write a batch of entries, in the same format as {@link #write(LogEntryProto)},
+   * preallocating the space for the whole batch at once.
+   */
+  public void write(List<LogEntryProto> entries) throws IOException {
+    final int[] serialized = new int[entries.size()];
+    long total = 0;
+    for (int i = 0; i < serialized.length; i++) {
+      serialized[i] = entries.get(i).getSerializedSize();
+      total += CodedOutputStream.computeUInt32SizeNoTag(serialized[i]) + serialized[i] + 4;
+    }
+
+    preallocateIfNecessary(total);
+    for (int i = 0; i < serialized.length; i++) {
+      write(entries.get(i), serialized[i],
+          CodedOutputStream.computeUInt32SizeNoTag(serialized[i]) + serialized[i]);
+    }
+  }
+
+  private void write(LogEntryProto entry, int serialized, int bufferSize)
+      throws IOException {
+    // serialize the entry directly into the write buffer if it fits
+    if (out.write(bufferSize + 4, buffer -> encode(entry, serialized, buffer))) {
+      return;
+    }
 
     byte[] buf = new byte[bufferSize];
     CodedOutputStream cout = CodedOutputStream.newInstance(buf);
@@ -116,6 +225,19 @@ public class LogOutputStream implements Closeable {
     writeInt(sum);
   }
 
+  private void encode(LogEntryProto entry, int serialized, ByteBuffer buffer)
+      throws IOException {
+    final int start = buffer.position();
+    final CodedOutputStream cout = CodedOutputStream.newInstance(buffer);
+    cout.writeUInt32NoTag(serialized);
+    entry.writeTo(cout);
+    cout.flush(); // update the buffer position
+
+    checksum.reset();
+    checksum.update(buffer, start, buffer.position() - start);
+    buffer.putInt((int) checksum.getValue());
+  }
+
   private void writeInt(int v) throws IOException {
     out.write((v >>> 24) & 0xFF);
     out.write((v >>> 16) & 0xFF);
@@ -155,25 +277,95 @@ public class LogOutputStream implements Closeable {
     if (out == null) {
       throw new IOException("Trying to use aborted output stream");
     }
-    out.flush(true);
+    out.flush(false);
+    forcedPosition.accumulateAndGet(out.forceWrite(false), Math::max);
+  }
+
+  /**
+   * Write the buffered data to the file channel without forcing it to the
+   * persistent store. The data can be persisted later by {@link #sync()}.
+   */
+  public void flushBuffer() throws IOException {
+    if (out == null) {
+      throw new IOException("Trying to use aborted output stream");
+    }
+    out.flush(false);
+  }
+
+  /**
+   * Force the data which has been written to the file channel to the
+   * persistent store. This can be called concurrently with the writes.
+   */
+  public void sync() throws IOException {
+    final BufferedWriteChannel channel = out;
+    if (channel == null) {
+      throw new IOException("Trying to use aborted output stream");
+    }
+    forcedPosition.accumulateAndGet(channel.forceWrite(false), Math::max);
+  }
+
+  /**
+   * Truncate the file at the given position, which is the end of an entry,
+   * and continue writing from there. The truncation is forced so that the
+   * removed entries do not come back after a restart.
+   */
+  void truncate(long position) throws IOException {
+    if (out == null) {
+      throw new IOException("Trying to use aborted output stream");
+    }
+    out.truncate(position);
+    // the fill bytes are cut as well, so the space is preallocated again
+    preallocatedPos = position;
+    droppedPosition = Math.min(droppedPosition, position);
+    forcedPosition.set(out.forceWrite(false));
+  }
+
+  /**
+   * Advise the kernel to drop the pages which have been forced. They are not
+   * needed since the entries of the open segment are cached in memory.
+   * It must not be called concurrently.
+   */
+  void dropCacheBehind(PageCacheAdvisor advisor) {
+    if (!advisor.isEnabled() || fd == null) {
+      return;
+    }
+    // a partial page is not dropped, so start again from its beginning
+    final long from = droppedPosition & ~(PAGE_SIZE - 1);
+    final long forced = forcedPosition.get();
+    if (forced > from) {
+      advisor.dontNeed(file.getPath(), fd, from, forced - from);
+      droppedPosition = forced;
+    }
   }
 
   private void preallocate() throws IOException {
-    fill.position(0);
     long targetSize = Math.min(segmentMaxSize - fc.size(), preallocatedSize);
-    int allocated = 0;
-    while (allocated < targetSize) {
-      int size = (int) Math.min(BUFFER_SIZE, targetSize - allocated);
-      ByteBuffer buffer = fill.slice();
-      buffer.limit(size);
-      IOUtils.writeFully(fc, buffer, preallocatedPos);
-      preallocatedPos += size;
-      allocated += size;
-    }
+    final long allocated = writeFill(fc, preallocatedPos, targetSize);
+    preallocatedPos += allocated;
     LOG.debug("Pre-allocated {} bytes for the log segment", allocated);
   }
 
-  private void preallocateIfNecessary(int size) throws IOException {
+  /**
+   * Write the given number of fill bytes at the position. It may be called
+   * concurrently, so the shared fill buffer is only accessed by duplicates.
+   *
+   * @return the number of bytes written.
+   */
+  private static long writeFill(FileChannel channel, long position, long size)
+      throws IOException {
+    long allocated = 0;
+    while (allocated < size) {
+      final int n = (int) Math.min(BUFFER_SIZE, size - allocated);
+      final ByteBuffer buffer = fill.duplicate();
+      buffer.position(0);
+      buffer.limit(n);
+      IOUtils.writeFully(channel, buffer, position + allocated);
+      allocated += n;
+    }
+    return allocated;
+  }
+
+  private void preallocateIfNecessary(long size) throws IOException {
     if (out.position() + size > preallocatedPos) {
       preallocate();
     }
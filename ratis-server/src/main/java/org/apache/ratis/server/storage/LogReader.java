@@ -22,12 +22,20 @@ import org.apache.ratis.server.impl.RaftServerConstants;
 import org.apache.ratis.thirdparty.com.google.protobuf.CodedInputStream;
 import org.apache.ratis.thirdparty.com.google.protobuf.CodedOutputStream;
 import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.util.CheckedFunction;
+import org.apache.ratis.util.ChecksumProvider;
+import org.apache.ratis.util.ChecksumProvider.BufferChecksum;
 import org.apache.ratis.util.IOUtils;
 import org.apache.ratis.util.Preconditions;
-import org.apache.ratis.util.PureJavaCrc32C;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.zip.Checksum;
 
 public class LogReader implements Closeable {
@@ -121,16 +129,94 @@ public class LogReader implements Closeable {
 
   private static final int maxOpSize = 32 * 1024 * 1024;
 
+  /**
+   * Read the entries stored in the given byte range of the file by a
+   * positional read, i.e. without reading the file from the beginning.
+   *
+   * @param offset the offset of the first entry in the file
+   * @param length the total length of the entries to read
+   * @return the entries in the range
+   */
+  static List<LogEntryProto> readEntries(File file, long offset, int length)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      IOUtils.readFully(fc, buffer, offset);
+    }
+    buffer.flip();
+    final List<LogEntryProto> entries = new ArrayList<>();
+    decodeEntries(buffer, offset, entries::add);
+    return entries;
+  }
+
+  /**
+   * Decode and validate the entries from the position to the limit of the
+   * buffer, or until a terminate byte is found at an entry boundary. The
+   * buffer itself is not modified.
+   *
+   * @param offset the offset in the file corresponding to the buffer position
+   */
+  static void decodeEntries(ByteBuffer buffer, long offset,
+      Consumer<LogEntryProto> entryConsumer) throws IOException {
+    final BufferChecksum checksum = ChecksumProvider.newCrc32C();
+    final int start = buffer.position();
+    final int limit = buffer.limit();
+    for (int pos = start; pos < limit; ) {
+      if (buffer.get(pos) == RaftServerConstants.LOG_TERMINATE_BYTE) {
+        return; // the preallocated space
+      }
+      final ByteBuffer b = buffer.duplicate();
+      b.position(pos);
+      final int entryLength = CodedInputStream.newInstance(b).readRawVarint32();
+      if (entryLength > maxOpSize) {
+        throw new IOException("Entry has size " + entryLength
+            + ", but maxOpSize = " + maxOpSize);
+      }
+      final int varintLength = CodedOutputStream.computeUInt32SizeNoTag(entryLength);
+      final int totalLength = varintLength + entryLength;
+      if (pos + totalLength + 4 > limit) {
+        throw new IOException("Entry at offset " + (offset + pos - start) + " with length "
+            + totalLength + " exceeds the end offset " + (offset + limit - start));
+      }
+
+      checksum.reset();
+      checksum.update(buffer, pos, totalLength);
+      final int expectedChecksum = buffer.getInt(pos + totalLength);
+      final int calculatedChecksum = (int) checksum.getValue();
+      if (expectedChecksum != calculatedChecksum) {
+        throw new ChecksumException("LogEntry is corrupt. Calculated checksum is "
+            + calculatedChecksum + " but read checksum " + expectedChecksum,
+            offset + pos - start);
+      }
+
+      b.position(pos + varintLength);
+      b.limit(pos + totalLength);
+      entryConsumer.accept(LogEntryProto.parseFrom(CodedInputStream.newInstance(b)));
+      pos += totalLength + 4;
+    }
+  }
+
   private final LimitedInputStream limiter;
   private final DataInputStream in;
   private byte[] temp = new byte[4096];
   private final Checksum checksum;
+  /** Should the bytes after the terminator be verified? */
+  private final boolean verifyTerminator;
 
   LogReader(File file) throws FileNotFoundException {
+    this(file, true);
+  }
+
+  /**
+   * @param verifyTerminator if false, the reader stops at the terminator
+   *                         without reading the preallocated space after it.
+   */
+  LogReader(File file, boolean verifyTerminator) throws FileNotFoundException {
     this.limiter = new LimitedInputStream(
         new BufferedInputStream(new FileInputStream(file)));
     in = new DataInputStream(limiter);
-    checksum = new PureJavaCrc32C();
+    checksum = ChecksumProvider.newCrc32C();
+    this.verifyTerminator = verifyTerminator;
   }
 
   String readLogHeader() throws IOException {
@@ -151,8 +237,20 @@ public class LogReader implements Closeable {
    *         exception when skipBrokenEdits is false.
    */
   LogEntryProto readEntry() throws IOException {
+    return readFrame(LogEntryProto::parseFrom);
+  }
+
+  /**
+   * Read a frame, which is framed as a log entry but its body may be
+   * something else, e.g. a record of {@link SharedLogStore}.
+   *
+   * @param parser to parse the body of the frame.
+   * @return the parsed body, or null at the end of the file.
+   */
+  <T> T readFrame(CheckedFunction<CodedInputStream, T, IOException> parser) throws IOException {
     try {
-      return decodeEntry();
+      final CodedInputStream body = decodeFrame();
+      return body == null ? null : parser.apply(body);
     } catch (IOException e) {
       in.reset();
 
@@ -170,7 +268,8 @@ public class LogReader implements Closeable {
    * @return the index of the log entry
    */
   long scanEntry() throws IOException {
-    LogEntryProto entry = decodeEntry();
+    final CodedInputStream body = decodeFrame();
+    final LogEntryProto entry = body == null ? null : LogEntryProto.parseFrom(body);
     return entry != null ? entry.getIndex() : RaftServerConstants.INVALID_LOG_INDEX;
   }
 
@@ -206,15 +305,15 @@ public class LogReader implements Closeable {
   }
 
   /**
-   * Decode the log entry "frame". This includes reading the log entry, and
+   * Decode the log entry "frame". This includes reading the frame, and
    * validating the checksum.
    *
    * The input stream will be advanced to the end of the op at the end of this
    * function.
    *
-   * @return The log entry, or null if we hit EOF.
+   * @return The body of the frame, or null if we hit EOF.
    */
-  private LogEntryProto decodeEntry() throws IOException {
+  private CodedInputStream decodeFrame() throws IOException {
     limiter.setLimit(maxOpSize);
     in.mark(maxOpSize);
 
@@ -229,7 +328,9 @@ public class LogReader implements Closeable {
     // should not be 0. So if the terminate byte is 0, we should hit the end
     // of the segment.
     if (nextByte == RaftServerConstants.LOG_TERMINATE_BYTE) {
-      verifyTerminator();
+      if (verifyTerminator) {
+        verifyTerminator();
+      }
       return null;
     }
 
@@ -260,9 +361,7 @@ public class LogReader implements Closeable {
           limiter.markPos);
     }
 
-    // parse the buffer
-    return LogEntryProto.parseFrom(
-        CodedInputStream.newInstance(temp, varintLength, entryLength));
+    return CodedInputStream.newInstance(temp, varintLength, entryLength);
   }
 
   private void checkBufferSize(int entryLength) {
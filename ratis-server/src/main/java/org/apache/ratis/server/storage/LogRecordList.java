@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.server.protocol.TermIndex;
+import org.apache.ratis.server.storage.LogSegment.LogRecord;
+import org.apache.ratis.util.Preconditions;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A compact list of the records of a log segment. The offsets are stored in a
+ * long array, the terms are run-length encoded since they rarely change
+ * within a segment, and the configuration entries are flagged in a bit set.
+ * The {@link LogRecord}s are created on demand.
+ *
+ * This class is not thread-safe; it is protected by the lock of the log.
+ */
+class LogRecordList {
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final long startIndex;
+  private long[] offsets = new long[INITIAL_CAPACITY];
+  private int size = 0;
+
+  /** The i-th term run starts at position runStarts[i] with term runTerms[i]. */
+  private int[] runStarts = new int[1];
+  private long[] runTerms = new long[1];
+  private int numRuns = 0;
+
+  /** The positions of the configuration entries. */
+  private final BitSet configs = new BitSet();
+
+  LogRecordList(long startIndex) {
+    this.startIndex = startIndex;
+  }
+
+  long getStartIndex() {
+    return startIndex;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  void add(long offset, long term, boolean isConfig) {
+    if (size == offsets.length) {
+      offsets = Arrays.copyOf(offsets, size << 1);
+    }
+    if (numRuns == 0 || runTerms[numRuns - 1] != term) {
+      Preconditions.assertTrue(numRuns == 0 || runTerms[numRuns - 1] < term,
+          () -> "term " + term + " < the previous term " + runTerms[numRuns - 1]);
+      if (numRuns == runStarts.length) {
+        runStarts = Arrays.copyOf(runStarts, numRuns << 1);
+        runTerms = Arrays.copyOf(runTerms, numRuns << 1);
+      }
+      runStarts[numRuns] = size;
+      runTerms[numRuns] = term;
+      numRuns++;
+    }
+    if (isConfig) {
+      configs.set(size);
+    }
+    offsets[size++] = offset;
+  }
+
+  long getOffset(int i) {
+    checkPosition(i);
+    return offsets[i];
+  }
+
+  long getTerm(int i) {
+    checkPosition(i);
+    // the last run is the most common case
+    if (i >= runStarts[numRuns - 1]) {
+      return runTerms[numRuns - 1];
+    }
+    final int r = Arrays.binarySearch(runStarts, 0, numRuns, i);
+    return runTerms[r >= 0 ? r : -r - 2];
+  }
+
+  boolean isConfig(int i) {
+    checkPosition(i);
+    return configs.get(i);
+  }
+
+  TermIndex getTermIndex(int i) {
+    return TermIndex.newTermIndex(getTerm(i), startIndex + i);
+  }
+
+  LogRecord get(int i) {
+    return new LogRecord(getOffset(i), getTermIndex(i));
+  }
+
+  /** @return a copy of this list so that it can be read without the lock of the log. */
+  LogRecordList copy() {
+    final LogRecordList c = new LogRecordList(startIndex);
+    c.offsets = Arrays.copyOf(offsets, Math.max(size, 1));
+    c.size = size;
+    c.runStarts = Arrays.copyOf(runStarts, Math.max(numRuns, 1));
+    c.runTerms = Arrays.copyOf(runTerms, Math.max(numRuns, 1));
+    c.numRuns = numRuns;
+    c.configs.or(configs);
+    return c;
+  }
+
+  /** Remove the records starting from the given position (inclusive). */
+  void truncate(int from) {
+    Preconditions.assertTrue(from >= 0 && from <= size);
+    size = from;
+    if (configs.length() > size) {
+      configs.clear(size, configs.length());
+    }
+    while (numRuns > 0 && runStarts[numRuns - 1] >= size) {
+      numRuns--;
+    }
+  }
+
+  void clear() {
+    truncate(0);
+  }
+
+  private void checkPosition(int i) {
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("i = " + i + ", size = " + size);
+    }
+  }
+}
@@ -23,16 +23,25 @@ import org.apache.ratis.thirdparty.com.google.common.annotations.VisibleForTesti
 import org.apache.ratis.thirdparty.com.google.common.cache.CacheLoader;
 import org.apache.ratis.thirdparty.com.google.protobuf.CodedOutputStream;
 import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.util.CheckedFunction;
 import org.apache.ratis.util.FileUtils;
 import org.apache.ratis.util.Preconditions;
 import org.apache.ratis.util.ProtoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * In-memory cache for a log segment file. All the updates will be first written
@@ -41,6 +50,11 @@ import java.util.function.Consumer;
  * This class will be protected by the RaftServer's lock.
  */
 class LogSegment implements Comparable<Long> {
+  static final Logger LOG = LoggerFactory.getLogger(LogSegment.class);
+
+  /** The max number of bytes read ahead when loading a single entry. */
+  static final int LOAD_AHEAD_SIZE = 1 << 20; // 1 MB
+
   static long getEntrySize(LogEntryProto entry) {
     final int serialized =
         entry.getSerializedSize()
@@ -55,8 +69,12 @@ class LogSegment implements Comparable<Long> {
     private final TermIndex termIndex;
 
     LogRecord(long offset, LogEntryProto entry) {
+      this(offset, TermIndex.newTermIndex(entry.getTerm(), entry.getIndex()));
+    }
+
+    LogRecord(long offset, TermIndex termIndex) {
       this.offset = offset;
-      termIndex = TermIndex.newTermIndex(entry.getTerm(), entry.getIndex());
+      this.termIndex = termIndex;
     }
 
     TermIndex getTermIndex() {
@@ -68,6 +86,7 @@ class LogSegment implements Comparable<Long> {
     }
   }
 
+  /** The record is only created if the entry is not cached since it is needed for loading. */
   static class LogRecordWithEntry {
     private final LogRecord record;
     private final LogEntryProto entry;
@@ -91,15 +110,25 @@ class LogSegment implements Comparable<Long> {
   }
 
   static LogSegment newOpenSegment(RaftStorage storage, long start) {
+    return newOpenSegment(storage, null, null, PageCacheAdvisor.NOOP, start);
+  }
+
+  static LogSegment newOpenSegment(RaftStorage storage, MappedSegmentCache mappedSegments,
+      LogEntryCache.Account cacheAccount, PageCacheAdvisor advisor, long start) {
     Preconditions.assertTrue(start >= 0);
-    return new LogSegment(storage, true, start, start - 1);
+    return new LogSegment(storage, mappedSegments, cacheAccount, advisor, true, start, start - 1);
   }
 
   @VisibleForTesting
   static LogSegment newCloseSegment(RaftStorage storage,
       long start, long end) {
+    return newCloseSegment(storage, null, null, PageCacheAdvisor.NOOP, start, end);
+  }
+
+  private static LogSegment newCloseSegment(RaftStorage storage, MappedSegmentCache mappedSegments,
+      LogEntryCache.Account cacheAccount, PageCacheAdvisor advisor, long start, long end) {
     Preconditions.assertTrue(start >= 0 && end >= start);
-    return new LogSegment(storage, false, start, end);
+    return new LogSegment(storage, mappedSegments, cacheAccount, advisor, false, start, end);
   }
 
   private static void readSegmentFile(File file, long start, long end,
@@ -121,20 +150,179 @@ class LogSegment implements Comparable<Long> {
     }
   }
 
+  /**
+   * Create a closed segment whose records are loaded on first access. Only the
+   * file header is validated here. It is used for the segments already covered
+   * by the snapshot, which are unlikely to be read.
+   *
+   * The configuration entries are still passed to the given consumer, if there
+   * is any, using the offsets in the index file of the segment.
+   *
+   * @return the segment, or null if there is a consumer but the index file is
+   *         missing or invalid, so that the segment has to be parsed.
+   */
+  static LogSegment newLazySegment(RaftStorage storage, MappedSegmentCache mappedSegments,
+      LogEntryCache.Account cacheAccount, PageCacheAdvisor advisor, File file, long start, long end,
+      Consumer<LogEntryProto> logConsumer) throws IOException {
+    try (LogReader reader = new LogReader(file)) {
+      final String header = reader.readLogHeader();
+      if (!SegmentedRaftLog.HEADER_STR.equals(header)) {
+        throw new IOException("Corrupted log header in " + file + ": " + header);
+      }
+    }
+    if (logConsumer != null && !readConfigEntriesFromIndex(storage, file, start, end, logConsumer)) {
+      return null;
+    }
+    final LogSegment segment = newCloseSegment(storage, mappedSegments, cacheAccount, advisor,
+        start, end);
+    // the file size until the records are loaded
+    segment.totalSize = file.length();
+    segment.lazy = true;
+    return segment;
+  }
+
+  /**
+   * Read the configuration entries of a closed segment at the offsets in its
+   * index file and pass them to the consumer.
+   *
+   * @return false if the index file is missing or invalid.
+   */
+  private static boolean readConfigEntriesFromIndex(RaftStorage storage, File file,
+      long start, long end, Consumer<LogEntryProto> logConsumer) throws IOException {
+    final File indexFile = storage.getStorageDir().findClosedLogIndexFile(start, end);
+    final LogSegmentIndex index;
+    try {
+      index = LogSegmentIndex.read(indexFile, start, end);
+    } catch (IOException e) {
+      LOG.warn("Failed to read the index file " + indexFile + ", load " + file + " instead", e);
+      return false;
+    }
+    if (index == null || index.getFileSize() != file.length()) {
+      return false;
+    }
+
+    final List<LogEntryProto> confEntries = new ArrayList<>();
+    for (int i = 0; i < index.numOfEntries(); i++) {
+      if (index.isConfigEntry(i)) {
+        final long offset = index.getOffset(i);
+        final long next = i + 1 < index.numOfEntries() ? index.getOffset(i + 1) : index.getFileSize();
+        final List<LogEntryProto> entries = LogReader.readEntries(
+            file, offset, Math.toIntExact(next - offset));
+        final TermIndex expected = index.getTermIndex(i);
+        if (entries.size() != 1 || !ServerProtoUtils.toTermIndex(entries.get(0)).equals(expected)) {
+          LOG.warn("{} does not match the entry {} in {}, load the segment file instead",
+              index, expected, file);
+          return false;
+        }
+        confEntries.add(entries.get(0));
+      }
+    }
+    confEntries.forEach(logConsumer);
+    return true;
+  }
+
+  /**
+   * Read a closed segment file through its memory mapping.
+   *
+   * @return true if the file is read; false if it cannot be mapped.
+   */
+  private static boolean readMappedSegmentFile(MappedSegmentCache mappedSegments,
+      File file, long start, long end, Consumer<LogEntryProto> entryConsumer)
+      throws IOException {
+    return mappedSegments.read(file, buffer -> {
+      final byte[] header = new byte[SegmentedRaftLog.HEADER_BYTES.length];
+      if (buffer.remaining() < header.length) {
+        throw new IOException("EOF before reading a complete log header from " + file);
+      }
+      buffer.get(header);
+      if (!Arrays.equals(SegmentedRaftLog.HEADER_BYTES, header)) {
+        throw new IOException("Corrupted log header in " + file + ": "
+            + new String(header, StandardCharsets.UTF_8));
+      }
+      final LogEntryProto[] prev = {null};
+      LogReader.decodeEntries(buffer, header.length, next -> {
+        // the file may have not been truncated yet; ignore the entries beyond the end.
+        if (next.getIndex() > end) {
+          return;
+        }
+        if (prev[0] != null) {
+          Preconditions.assertTrue(next.getIndex() == prev[0].getIndex() + 1,
+              "gap between entry %s and entry %s", prev[0], next);
+        } else {
+          Preconditions.assertTrue(next.getIndex() == start,
+              "the first entry %s in %s does not match the start index %s", next, file, start);
+        }
+        entryConsumer.accept(next);
+        prev[0] = next;
+      });
+    });
+  }
+
   static LogSegment loadSegment(RaftStorage storage, File file,
       long start, long end, boolean isOpen,
       boolean keepEntryInCache, Consumer<LogEntryProto> logConsumer)
       throws IOException {
-    final LogSegment segment = isOpen ?
-        LogSegment.newOpenSegment(storage, start) :
-        LogSegment.newCloseSegment(storage, start, end);
+    return loadSegment(storage, null, null, PageCacheAdvisor.NOOP, file, start, end, isOpen,
+        keepEntryInCache, Long.MAX_VALUE, logConsumer);
+  }
 
-    readSegmentFile(file, start, end, isOpen, entry -> {
-      segment.append(keepEntryInCache | isOpen, entry);
+  /**
+   * Load a segment by streaming its file. Only the records are kept for all
+   * the entries; when the entries are kept in the cache, only the entries in
+   * the tail window are cached and the others are loaded on demand.
+   *
+   * @param tailCacheSize the max total size of the cached entries at the tail.
+   */
+  static LogSegment loadSegment(RaftStorage storage, MappedSegmentCache mappedSegments,
+      LogEntryCache.Account cacheAccount, PageCacheAdvisor advisor, File file, long start,
+      long end, boolean isOpen, boolean keepEntryInCache, long tailCacheSize,
+      Consumer<LogEntryProto> logConsumer) throws IOException {
+    if (!isOpen && !keepEntryInCache) {
+      final LogSegment segment = loadSegmentFromIndex(
+          storage, mappedSegments, cacheAccount, advisor, file, start, end, logConsumer);
+      if (segment != null) {
+        return segment;
+      }
+    }
+
+    final LogSegment segment = isOpen ?
+        LogSegment.newOpenSegment(storage, mappedSegments, cacheAccount, advisor, start) :
+        LogSegment.newCloseSegment(storage, mappedSegments, cacheAccount, advisor, start, end);
+
+    final boolean cacheTail = keepEntryInCache | isOpen;
+    final Deque<LogEntryProto> tail = new ArrayDeque<>();
+    final long[] tailSize = {0};
+    final Consumer<LogEntryProto> entryConsumer = entry -> {
+      segment.append(false, entry);
+      if (cacheTail) {
+        tail.addLast(entry);
+        tailSize[0] += getEntrySize(entry);
+        while (tailSize[0] > tailCacheSize) {
+          tailSize[0] -= getEntrySize(tail.removeFirst());
+        }
+      }
       if (logConsumer != null) {
         logConsumer.accept(entry);
       }
-    });
+    };
+    // the segments in the cold directory are not mapped
+    final boolean isHotClosedFile = !isOpen
+        && file.equals(storage.getStorageDir().getClosedLogFile(start, end));
+    if (isOpen && readCheckpointedSegmentFile(storage, segment, file, entryConsumer, logConsumer)) {
+      LOG.debug("Loaded {} from its last checkpoint", file);
+    } else if (!isHotClosedFile || mappedSegments == null
+        || !readMappedSegmentFile(mappedSegments, file, start, end, entryConsumer)) {
+      // the whole file is read once
+      advisor.willNeed(file, 0, 0);
+      readSegmentFile(file, start, end, isOpen, entryConsumer);
+    }
+    for (LogEntryProto entry : tail) {
+      segment.putEntryCache(ServerProtoUtils.toTermIndex(entry), entry);
+    }
+    if (!isOpen && !keepEntryInCache) {
+      // the entries are not cached and the file is unlikely to be read soon
+      advisor.dontNeed(file);
+    }
 
     // truncate padding if necessary
     if (file.length() > segment.getTotalSize()) {
@@ -143,7 +331,7 @@ class LogSegment implements Comparable<Long> {
 
     Preconditions.assertTrue(start == segment.getStartIndex());
     if (!segment.records.isEmpty()) {
-      Preconditions.assertTrue(start == segment.records.get(0).getTermIndex().getIndex());
+      Preconditions.assertTrue(start == segment.records.getTermIndex(0).getIndex());
     }
     if (!isOpen) {
       Preconditions.assertTrue(segment.getEndIndex() == end);
@@ -152,29 +340,231 @@ class LogSegment implements Comparable<Long> {
   }
 
   /**
-   * The current log entry loader simply loads the whole segment into the memory.
-   * In most of the cases this may be good enough considering the main use case
-   * for load log entries is for leader appending to followers.
+   * Read an open segment file from its last checkpoint. The records of the
+   * checkpointed entries are taken from the checkpoint file, and only the last
+   * checkpointed entry and the entries after it are read and validated.
+   * Only the configuration entries are read and passed to the log consumer
+   * for the checkpointed entries.
+   *
+   * @return true if the file is read; false if there is no valid checkpoint.
+   */
+  private static boolean readCheckpointedSegmentFile(RaftStorage storage, LogSegment segment,
+      File file, Consumer<LogEntryProto> entryConsumer, Consumer<LogEntryProto> logConsumer)
+      throws IOException {
+    final long start = segment.getStartIndex();
+    final File checkpointFile = storage.getStorageDir().getOpenLogCheckpointFile(start);
+    final LogSegmentCheckpoint checkpoint;
+    try {
+      checkpoint = LogSegmentCheckpoint.read(checkpointFile, start);
+    } catch (IOException e) {
+      LOG.warn("Failed to read the checkpoint file " + checkpointFile + ", read " + file
+          + " instead", e);
+      return false;
+    }
+    final LogSegmentCheckpoint.Mark mark = checkpoint == null ? null
+        : checkpoint.getLastMark(Long.MAX_VALUE);
+    if (mark == null) {
+      return false;
+    } else if (mark.getEndOffset() > file.length()) {
+      LOG.warn("The checkpoint {} is beyond the length {} of {}, read the whole file instead",
+          mark, file.length(), file);
+      return false;
+    }
+
+    // the last checkpointed entry must be in the segment file
+    final LogRecord lastRecord = checkpoint.getLogRecord(mark.getLastIndex());
+    final List<LogEntryProto> last;
+    try {
+      last = LogReader.readEntries(file, lastRecord.getOffset(),
+          Math.toIntExact(mark.getEndOffset() - lastRecord.getOffset()));
+    } catch (IOException e) {
+      LOG.warn("Failed to read the last checkpointed entry in " + file
+          + ", read the whole file instead", e);
+      return false;
+    }
+    if (last.size() != 1
+        || !ServerProtoUtils.toTermIndex(last.get(0)).equals(lastRecord.getTermIndex())) {
+      LOG.warn("The checkpoint {} does not match {}, read the whole file instead", mark, file);
+      return false;
+    }
+
+    final List<LogRecord> configRecords = new ArrayList<>();
+    for (long i = start; i <= mark.getLastIndex(); i++) {
+      final LogRecord r = checkpoint.getLogRecord(i);
+      final boolean isConfig = checkpoint.isConfigEntry(i);
+      segment.records.add(r.getOffset(), r.getTermIndex().getTerm(), isConfig);
+      if (isConfig) {
+        configRecords.add(r);
+      }
+    }
+    segment.totalSize = mark.getEndOffset();
+    segment.endIndex = mark.getLastIndex();
+    if (logConsumer != null) {
+      for (LogRecord record : configRecords) {
+        logConsumer.accept(segment.loadCache(record));
+      }
+      segment.clearEntryCache();
+    }
+
+    // validate only the entries after the checkpoint; stop at the preallocated space
+    try (LogReader reader = new LogReader(file, false)) {
+      final String header = reader.readLogHeader();
+      if (!SegmentedRaftLog.HEADER_STR.equals(header)) {
+        throw new IOException("Corrupted log header in " + file + ": " + header);
+      }
+      reader.skipFully(mark.getEndOffset() - SegmentedRaftLog.HEADER_BYTES.length);
+      for (LogEntryProto next; (next = reader.readEntry()) != null; ) {
+        entryConsumer.accept(next);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Load a closed segment using its index file so that the entries are not
+   * parsed. Only the configuration entries are read and passed to the consumer.
    *
-   * In the future we can make the cache loader configurable if necessary.
+   * @return the segment, or null if the index file is missing or invalid.
+   */
+  private static LogSegment loadSegmentFromIndex(RaftStorage storage,
+      MappedSegmentCache mappedSegments, LogEntryCache.Account cacheAccount,
+      PageCacheAdvisor advisor, File file, long start, long end, Consumer<LogEntryProto> logConsumer)
+      throws IOException {
+    final File indexFile = storage.getStorageDir().findClosedLogIndexFile(start, end);
+    final LogSegmentIndex index;
+    try {
+      index = LogSegmentIndex.read(indexFile, start, end);
+    } catch (IOException e) {
+      LOG.warn("Failed to read the index file " + indexFile + ", load " + file + " instead", e);
+      return null;
+    }
+    if (index == null) {
+      return null;
+    } else if (index.getFileSize() != file.length()) {
+      LOG.warn("{} does not match the size {} of {}, load the segment file instead",
+          index, file.length(), file);
+      return null;
+    }
+
+    final LogSegment segment = newCloseSegment(storage, mappedSegments, cacheAccount, advisor,
+        start, end);
+    final List<LogRecord> configRecords = new ArrayList<>();
+    for (int i = 0; i < index.numOfEntries(); i++) {
+      final boolean isConfig = index.isConfigEntry(i);
+      segment.records.add(index.getOffset(i), index.getTermIndex(i).getTerm(), isConfig);
+      if (isConfig) {
+        configRecords.add(segment.records.get(i));
+      }
+    }
+    segment.totalSize = index.getFileSize();
+
+    if (logConsumer != null) {
+      for (LogRecord record : configRecords) {
+        logConsumer.accept(segment.loadCache(record));
+      }
+      segment.evictCache();
+    }
+    return segment;
+  }
+
+  /**
+   * The log entry loader reads the requested entry, together with the entries
+   * following it up to {@link #LOAD_AHEAD_SIZE} bytes, by a positional read
+   * using the offsets in the records. The leader usually appends the
+   * following entries to the followers right after.
    */
   class LogEntryLoader extends CacheLoader<LogRecord, LogEntryProto> {
     @Override
     public LogEntryProto load(LogRecord key) throws IOException {
-      final File file = getSegmentFile();
+      return readSegmentFile(file -> load(key, file));
+    }
+
+    private LogEntryProto load(LogRecord key, File file) throws IOException {
       // note the loading should not exceed the endIndex: it is possible that
       // the on-disk log file should be truncated but has not been done yet.
-      readSegmentFile(file, startIndex, endIndex, isOpen,
-          entry -> entryCache.put(ServerProtoUtils.toTermIndex(entry), entry));
+      final long offset = key.getOffset();
+      long endOffset = offset;
+      for (long i = key.getTermIndex().getIndex(); i <= endIndex; i++) {
+        final long next = i == endIndex ? totalSize : records.getOffset(getPosition(i + 1));
+        if (endOffset > offset && (next - offset > LOAD_AHEAD_SIZE
+            // the cached entries of an open segment may not be flushed yet
+            || isOpen && entryCache.containsKey(i))) {
+          break;
+        }
+        endOffset = next;
+      }
+
+      final int length = Math.toIntExact(endOffset - offset);
+      final List<LogEntryProto> entries = new ArrayList<>();
+      final boolean isClosedFile = !isOpen
+          && file.equals(storage.getStorageDir().getClosedLogFile(startIndex, endIndex));
+      if (!isClosedFile || mappedSegments == null || !mappedSegments.read(file, buffer -> {
+        buffer.position(Math.toIntExact(offset));
+        buffer.limit(Math.toIntExact(offset + length));
+        LogReader.decodeEntries(buffer, offset, entries::add);
+      })) {
+        entries.addAll(LogReader.readEntries(file, offset, length));
+        if (!isOpen && endOffset < totalSize) {
+          // a lagging follower is likely to read the following entries next
+          advisor.willNeed(file, endOffset, LOAD_AHEAD_SIZE);
+        }
+      }
+
+      if (entries.isEmpty()) {
+        throw new IOException("Entry " + key.getTermIndex() + " is not found at offset "
+            + offset + " of " + file);
+      }
+      long expected = key.getTermIndex().getIndex();
+      for (LogEntryProto entry : entries) {
+        final long i = expected++;
+        if (i > endIndex || entry.getIndex() != i
+            || entry.getTerm() != records.getTerm(getPosition(i))) {
+          throw new IOException("Entry " + ServerProtoUtils.toTermIndex(entry) + " read from "
+              + file + " does not match " + getTermIndex(i));
+        }
+        putEntryCache(entry.getIndex(), entry);
+      }
       loadingTimes.incrementAndGet();
-      return Objects.requireNonNull(entryCache.get(key.getTermIndex()));
+      // return the entry directly since it may have been evicted from the cache
+      return entries.get(0);
     }
   }
 
+  /**
+   * Read the file of this segment, and read it again if the segment has just
+   * been moved to the cold directory.
+   */
+  private <T> T readSegmentFile(CheckedFunction<File, T, IOException> reader) throws IOException {
+    final File file = getSegmentFile();
+    try {
+      return reader.apply(file);
+    } catch (FileNotFoundException | NoSuchFileException e) {
+      final File moved = getSegmentFile();
+      if (moved.equals(file)) {
+        throw e;
+      }
+      LOG.debug("{} has been moved to {}", file, moved);
+      return reader.apply(moved);
+    }
+  }
+
+  /**
+   * @return the file of this segment. A closed segment may still be in its
+   *         open file if the finalization is pending in the background, or it
+   *         may have been moved to the cold directory.
+   */
   private File getSegmentFile() {
-    return isOpen ?
-        storage.getStorageDir().getOpenLogFile(startIndex) :
-        storage.getStorageDir().getClosedLogFile(startIndex, endIndex);
+    if (isOpen) {
+      return storage.getStorageDir().getOpenLogFile(startIndex);
+    }
+    final File closed = storage.getStorageDir().findClosedLogFile(startIndex, endIndex);
+    if (!closed.exists()) {
+      final File open = storage.getStorageDir().getOpenLogFile(startIndex);
+      if (open.exists()) {
+        return open;
+      }
+    }
+    return closed;
   }
 
   public String toDebugString() {
@@ -184,10 +574,10 @@ class LogSegment implements Comparable<Long> {
         .append(", numOfEntries=").append(numOfEntries())
         .append(", isOpen? ").append(isOpen)
         .append(", file=").append(getSegmentFile());
-    records.stream().map(LogRecord::getTermIndex).forEach(
-        ti -> b.append("  ").append(ti).append(", cache=")
-            .append(ServerProtoUtils.toLogEntryString(entryCache.get(ti)))
-    );
+    for (int i = 0; i < records.size(); i++) {
+      b.append("  ").append(records.getTermIndex(i)).append(", cache=")
+          .append(ServerProtoUtils.toLogEntryString(entryCache.get(startIndex + i)));
+    }
     return b.toString();
   }
 
@@ -196,26 +586,38 @@ class LogSegment implements Comparable<Long> {
   private final long startIndex;
   private volatile long endIndex;
   private final RaftStorage storage;
+  /** For reading the closed segment file through mmap; null if mmap is disabled. */
+  private final MappedSegmentCache mappedSegments;
+  /** For accounting the cached entries in a shared cache; null if the cache is per segment. */
+  private final LogEntryCache.Account cacheAccount;
+  private final PageCacheAdvisor advisor;
   private final CacheLoader<LogRecord, LogEntryProto> cacheLoader = new LogEntryLoader();
   /** later replace it with a metric */
   private final AtomicInteger loadingTimes = new AtomicInteger();
   private volatile boolean hasEntryCache;
+  /** Are the records not yet loaded? See {@link #newLazySegment}. */
+  private volatile boolean lazy = false;
 
   /**
    * the list of records is more like the index of a segment
    */
-  private final List<LogRecord> records = new ArrayList<>();
+  private final LogRecordList records;
   /**
-   * the entryCache caches the content of log entries.
+   * the entryCache caches the content of log entries, keyed by the index.
    */
-  private final Map<TermIndex, LogEntryProto> entryCache = new ConcurrentHashMap<>();
-  private final Set<TermIndex> configEntries = new HashSet<>();
+  private final Map<Long, LogEntryProto> entryCache = new ConcurrentHashMap<>();
 
-  private LogSegment(RaftStorage storage, boolean isOpen, long start, long end) {
+  private LogSegment(RaftStorage storage, MappedSegmentCache mappedSegments,
+      LogEntryCache.Account cacheAccount, PageCacheAdvisor advisor, boolean isOpen,
+      long start, long end) {
     this.storage = storage;
+    this.mappedSegments = mappedSegments;
+    this.cacheAccount = cacheAccount;
+    this.advisor = advisor;
     this.isOpen = isOpen;
     this.startIndex = start;
     this.endIndex = end;
+    this.records = new LogRecordList(start);
     totalSize = SegmentedRaftLog.HEADER_BYTES.length;
     hasEntryCache = isOpen;
   }
@@ -254,40 +656,117 @@ class LogSegment implements Comparable<Long> {
       // all these entries should be of the same term
       Preconditions.assertTrue(entry.getTerm() == term,
           "expected term:%s, term of the entry:%s", term, entry.getTerm());
-      final LogRecord currentLast = getLastRecord();
-      if (currentLast != null) {
-        Preconditions.assertTrue(
-            entry.getIndex() == currentLast.getTermIndex().getIndex() + 1,
-            "gap between entries %s and %s", entry.getIndex(),
-            currentLast.getTermIndex().getIndex());
+      if (!records.isEmpty()) {
+        final long lastIndex = startIndex + records.size() - 1;
+        Preconditions.assertTrue(entry.getIndex() == lastIndex + 1,
+            "gap between entries %s and %s", entry.getIndex(), lastIndex);
       }
 
-      final LogRecord record = new LogRecord(totalSize, entry);
-      records.add(record);
+      records.add(totalSize, entry.getTerm(), ProtoUtils.isConfigurationLogEntry(entry));
       if (keepEntryInCache) {
-        entryCache.put(record.getTermIndex(), entry);
-      }
-      if (ProtoUtils.isConfigurationLogEntry(entry)) {
-        configEntries.add(record.getTermIndex());
+        putEntryCache(entry.getIndex(), entry);
       }
       totalSize += getEntrySize(entry);
       endIndex = entry.getIndex();
     }
   }
 
+  boolean isLazy() {
+    return lazy;
+  }
+
+  /**
+   * Load the records of a lazy segment by parsing its file. The caller should
+   * not hold the lock of the log since it may take a long time.
+   */
+  synchronized void loadRecords() throws RaftLogIOException {
+    if (!lazy) {
+      return;
+    }
+    final File file;
+    totalSize = SegmentedRaftLog.HEADER_BYTES.length;
+    try {
+      // endIndex is already set; only fill in the records.
+      file = readSegmentFile(f -> {
+        readSegmentFile(f, startIndex, endIndex, false, entry -> {
+          records.add(totalSize, entry.getTerm(), ProtoUtils.isConfigurationLogEntry(entry));
+          totalSize += getEntrySize(entry);
+        });
+        return f;
+      });
+    } catch (IOException e) {
+      // the records may be partially loaded; load them again next time
+      records.clear();
+      totalSize = getSegmentFile().length();
+      throw new RaftLogIOException("Failed to load the records of " + this, e);
+    }
+    Preconditions.assertTrue(records.size() == numOfEntries(),
+        "%s: loaded %s records from %s", this, records.size(), file);
+    LOG.debug("Loaded the records of the lazy segment {}", this);
+    lazy = false;
+  }
+
+  /**
+   * The records of a lazy segment are usually loaded by {@link SegmentedRaftLog}
+   * before taking its lock; this is only the fallback for the other callers.
+   */
+  private void loadRecordsIfNecessary() {
+    if (lazy) {
+      try {
+        loadRecords();
+      } catch (RaftLogIOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
   LogRecordWithEntry getEntryWithoutLoading(long index) {
-    LogRecord record = getLogRecord(index);
-    if (record == null) {
+    if (!containsIndex(index)) {
       return null;
     }
-    return new LogRecordWithEntry(record, entryCache.get(record.getTermIndex()));
+    final LogEntryProto entry = entryCache.get(index);
+    if (entry == null) {
+      return new LogRecordWithEntry(getLogRecord(index), null);
+    }
+    if (cacheAccount != null) {
+      cacheAccount.touch(this, index);
+    }
+    return new LogRecordWithEntry(null, entry);
+  }
+
+  private void putEntryCache(long index, LogEntryProto entry) {
+    entryCache.put(index, entry);
+    if (cacheAccount != null) {
+      cacheAccount.put(this, index, entry);
+    }
+  }
+
+  private void removeEntryCache(long index) {
+    if (entryCache.remove(index) != null && cacheAccount != null) {
+      cacheAccount.remove(this, index);
+    }
+  }
+
+  private void clearEntryCache() {
+    if (cacheAccount != null) {
+      entryCache.keySet().forEach(i -> cacheAccount.remove(this, i));
+    }
+    entryCache.clear();
+  }
+
+  /** Evict a single entry; called by the shared {@link LogEntryCache}. */
+  void evictEntry(long index) {
+    entryCache.remove(index);
+    if (entryCache.isEmpty()) {
+      hasEntryCache = isOpen;
+    }
   }
 
   /**
    * Acquire LogSegment's monitor so that there is no concurrent loading.
    */
   synchronized LogEntryProto loadCache(LogRecord record) throws RaftLogIOException {
-    LogEntryProto entry = entryCache.get(record.getTermIndex());
+    LogEntryProto entry = entryCache.get(record.getTermIndex().getIndex());
     if (entry != null) {
       return entry;
     }
@@ -300,43 +779,79 @@ class LogSegment implements Comparable<Long> {
     }
   }
 
+  private int getPosition(long index) {
+    return Math.toIntExact(index - startIndex);
+  }
+
   LogRecord getLogRecord(long index) {
     if (index >= startIndex && index <= endIndex) {
-      return records.get(Math.toIntExact(index - startIndex));
+      loadRecordsIfNecessary();
+      return records.get(getPosition(index));
     }
     return null;
   }
 
-  private LogRecord getLastRecord() {
-    return records.isEmpty() ? null : records.get(records.size() - 1);
+  /** Same as {@link #getLogRecord(long)} but only the {@link TermIndex} is created. */
+  TermIndex getTermIndex(long index) {
+    if (index >= startIndex && index <= endIndex) {
+      loadRecordsIfNecessary();
+      return records.getTermIndex(getPosition(index));
+    }
+    return null;
   }
 
   TermIndex getLastTermIndex() {
-    LogRecord last = getLastRecord();
-    return last == null ? null : last.getTermIndex();
+    loadRecordsIfNecessary();
+    return records.isEmpty() ? null : records.getTermIndex(records.size() - 1);
   }
 
   boolean isConfigEntry(TermIndex ti) {
-    return configEntries.contains(ti);
+    final long index = ti.getIndex();
+    if (index < startIndex || index > endIndex) {
+      return false;
+    }
+    loadRecordsIfNecessary();
+    final int i = getPosition(index);
+    return records.getTerm(i) == ti.getTerm() && records.isConfig(i);
+  }
+
+  /**
+   * Take a snapshot of the records of this closed segment so that its index
+   * can be built later without holding the lock of the log.
+   */
+  Supplier<LogSegmentIndex> snapshotIndex() {
+    Preconditions.assertTrue(!isOpen() && !lazy, () -> this + " is open or lazy");
+    final LogRecordList copy = records.copy();
+    final long size = totalSize;
+    return () -> LogSegmentIndex.newInstance(copy, size);
   }
 
+  /** @return the size of the entries; for a lazy segment, the size of its file. */
   long getTotalSize() {
     return totalSize;
   }
 
   /**
-   * Remove records from the given index (inclusive)
+   * Remove records from the given index (inclusive). The records are cut at
+   * the position; only the removed entries in the cache are visited. An open
+   * segment stays open so that it can be appended again.
    */
   void truncate(long fromIndex) {
     Preconditions.assertTrue(fromIndex >= startIndex && fromIndex <= endIndex);
-    LogRecord record = records.get(Math.toIntExact(fromIndex - startIndex));
-    for (long index = endIndex; index >= fromIndex; index--) {
-      LogRecord removed = records.remove(Math.toIntExact(index - startIndex));
-      entryCache.remove(removed.getTermIndex());
-      configEntries.remove(removed.getTermIndex());
+    loadRecordsIfNecessary();
+    final int from = getPosition(fromIndex);
+    if (entryCache.size() < records.size() - from) {
+      entryCache.keySet().stream()
+          .filter(i -> i >= fromIndex)
+          .collect(Collectors.toList())
+          .forEach(this::removeEntryCache);
+    } else {
+      for (long i = startIndex + records.size() - 1; i >= fromIndex; i--) {
+        removeEntryCache(i);
+      }
     }
-    totalSize = record.offset;
-    isOpen = false;
+    totalSize = records.getOffset(from);
+    records.truncate(from);
     this.endIndex = fromIndex - 1;
   }
 
@@ -358,10 +873,10 @@ class LogSegment implements Comparable<Long> {
   }
 
   void clear() {
+    lazy = false;
     records.clear();
-    entryCache.clear();
+    clearEntryCache();
     hasEntryCache = false;
-    configEntries.clear();
     endIndex = startIndex - 1;
   }
 
@@ -371,7 +886,7 @@ class LogSegment implements Comparable<Long> {
 
   void evictCache() {
     hasEntryCache = false;
-    entryCache.clear();
+    clearEntryCache();
   }
 
   boolean hasCache() {
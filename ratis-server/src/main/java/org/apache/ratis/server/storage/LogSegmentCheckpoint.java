@@ -0,0 +1,392 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.server.protocol.TermIndex;
+import org.apache.ratis.server.storage.LogSegment.LogRecord;
+import org.apache.ratis.util.ChecksumProvider;
+import org.apache.ratis.util.FileUtils;
+import org.apache.ratis.util.IOUtils;
+import org.apache.ratis.util.Preconditions;
+import org.apache.ratis.util.ProtoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.Checksum;
+
+/**
+ * The checkpoints of an open log segment, which are appended to a side file
+ * at the flush points. After a restart, the segment is recovered from the
+ * last checkpoint so that only the entries written after it are validated,
+ * instead of parsing the whole segment.
+ *
+ * A checkpoint only covers the entries already forced to the segment file,
+ * so the checkpoint file itself is not forced: a lost checkpoint only means
+ * that more entries are validated in the recovery.
+ *
+ * Format:
+ * 8-byte header "RAFTCKP1", 8-byte start index of the segment
+ * for each checkpoint:
+ *   4-byte number of the new entries since the previous checkpoint
+ *   for each new entry: 8-byte offset, 8-byte term, 1-byte configuration flag
+ *   8-byte last index, 8-byte end offset of the last entry
+ *   4-byte running checksum of the previous checksum and all the above
+ */
+class LogSegmentCheckpoint {
+  static final Logger LOG = LoggerFactory.getLogger(LogSegmentCheckpoint.class);
+
+  static final String HEADER_STR = "RAFTCKP1";
+  static final byte[] HEADER_BYTES = HEADER_STR.getBytes(StandardCharsets.UTF_8);
+  private static final int HEADER_SIZE = HEADER_BYTES.length + 8;
+  private static final int RECORD_SIZE = 8 + 8 + 1;
+  private static final int TRAILER_SIZE = 8 + 8 + 4;
+
+  /** The position of a checkpoint in the checkpoint file. */
+  static final class Mark {
+    private final long lastIndex;
+    private final long endOffset;
+    private final long fileLength;
+    private final int checksum;
+
+    private Mark(long lastIndex, long endOffset, long fileLength, int checksum) {
+      this.lastIndex = lastIndex;
+      this.endOffset = endOffset;
+      this.fileLength = fileLength;
+      this.checksum = checksum;
+    }
+
+    long getLastIndex() {
+      return lastIndex;
+    }
+
+    /** @return the offset in the segment file right after the last entry. */
+    long getEndOffset() {
+      return endOffset;
+    }
+
+    @Override
+    public String toString() {
+      return "lastIndex=" + lastIndex + ", endOffset=" + endOffset;
+    }
+  }
+
+  private final long startIndex;
+  private final long[] offsets;
+  private final long[] terms;
+  private final boolean[] configs;
+  private final Mark[] marks;
+
+  private LogSegmentCheckpoint(long startIndex, long[] offsets, long[] terms,
+      boolean[] configs, Mark[] marks) {
+    this.startIndex = startIndex;
+    this.offsets = offsets;
+    this.terms = terms;
+    this.configs = configs;
+    this.marks = marks;
+  }
+
+  /** @return the last checkpoint with an index not larger than the given index, or null. */
+  Mark getLastMark(long maxIndex) {
+    for (int i = marks.length - 1; i >= 0; i--) {
+      if (marks[i].lastIndex <= maxIndex) {
+        return marks[i];
+      }
+    }
+    return null;
+  }
+
+  /** @return the record of the entry with the given index covered by the checkpoints. */
+  LogRecord getLogRecord(long index) {
+    final int i = Math.toIntExact(index - startIndex);
+    return new LogRecord(offsets[i], TermIndex.newTermIndex(terms[i], index));
+  }
+
+  boolean isConfigEntry(long index) {
+    return configs[Math.toIntExact(index - startIndex)];
+  }
+
+  /**
+   * Read the valid checkpoints of the segment with the given start index.
+   * A partially written checkpoint at the end of the file is ignored.
+   *
+   * @return the checkpoints, or null if the file does not exist.
+   * @throws IOException if the header is corrupted or does not match the segment.
+   */
+  static LogSegmentCheckpoint read(File file, long start) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    final ByteBuffer buffer;
+    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      buffer = ByteBuffer.allocate(Math.toIntExact(fc.size()));
+      IOUtils.readFully(fc, buffer, 0);
+    }
+    buffer.flip();
+    if (buffer.remaining() < HEADER_SIZE) {
+      throw new IOException("Checkpoint file " + file + " is truncated");
+    }
+    final byte[] header = new byte[HEADER_BYTES.length];
+    buffer.get(header);
+    if (!Arrays.equals(HEADER_BYTES, header)) {
+      throw new IOException("Corrupted checkpoint header in " + file + ": "
+          + new String(header, StandardCharsets.UTF_8));
+    }
+    final long startIndex = buffer.getLong();
+    if (startIndex != start) {
+      throw new IOException("Checkpoint start index mismatched: expected " + start
+          + " but read " + startIndex + " from " + file);
+    }
+
+    final int capacity = buffer.remaining() / RECORD_SIZE;
+    final long[] offsets = new long[capacity];
+    final long[] terms = new long[capacity];
+    final boolean[] configs = new boolean[capacity];
+    final Deque<Mark> marks = new ArrayDeque<>();
+    final Checksum checksum = ChecksumProvider.newCrc32C();
+    int previous = 0;
+    int n = 0;
+    while (buffer.remaining() >= 4) {
+      final int pos = buffer.position();
+      final int num = buffer.getInt();
+      if (num < 0 || (long) num * RECORD_SIZE + TRAILER_SIZE > buffer.remaining()) {
+        break; // partially written
+      }
+      for (int i = 0; i < num; i++) {
+        offsets[n + i] = buffer.getLong();
+        terms[n + i] = buffer.getLong();
+        configs[n + i] = buffer.get() != 0;
+      }
+      final long lastIndex = buffer.getLong();
+      final long endOffset = buffer.getLong();
+      final int calculated = computeChecksum(checksum, previous, buffer, pos);
+      final int expected = buffer.getInt();
+      if (calculated != expected || lastIndex != startIndex + n + num - 1) {
+        LOG.warn("Ignore the corrupted checkpoints in {} from position {}", file, pos);
+        break;
+      }
+      n += num;
+      previous = calculated;
+      marks.add(new Mark(lastIndex, endOffset, buffer.position(), calculated));
+    }
+    return new LogSegmentCheckpoint(startIndex, offsets, terms, configs,
+        marks.toArray(new Mark[0]));
+  }
+
+  /** @return the checksum of the previous checksum and the buffer from the offset to the position. */
+  private static int computeChecksum(Checksum checksum, int previous, ByteBuffer buffer, int offset) {
+    checksum.reset();
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      checksum.update(previous >>> shift);
+    }
+    checksum.update(buffer.array(), buffer.arrayOffset() + offset, buffer.position() - offset);
+    return (int) checksum.getValue();
+  }
+
+  /** A record of an entry written but not yet covered by a checkpoint. */
+  private static final class PendingRecord {
+    private final long index;
+    private final long offset;
+    private final long term;
+    private final boolean config;
+
+    private PendingRecord(long index, long offset, long term, boolean config) {
+      this.index = index;
+      this.offset = offset;
+      this.term = term;
+      this.config = config;
+    }
+  }
+
+  /**
+   * Append the checkpoints of the open segment. It is used only by the
+   * {@link RaftLogWorker} thread.
+   */
+  static class Writer implements Closeable {
+    private final File file;
+    private final long startIndex;
+    /** The min number of bytes of the entries between two checkpoints. */
+    private final long interval;
+
+    private final Deque<PendingRecord> pending = new ArrayDeque<>();
+    /** The end offset of the entries written to the segment. */
+    private long position;
+    private Mark last;
+    private FileChannel channel;
+
+    private Writer(File file, long startIndex, long interval) {
+      this.file = file;
+      this.startIndex = startIndex;
+      this.interval = interval;
+      reset();
+    }
+
+    /** Start over as if there were no checkpoints; the file is created with the first one. */
+    private void reset() {
+      position = SegmentedRaftLog.HEADER_BYTES.length;
+      last = new Mark(startIndex - 1, position, HEADER_SIZE, 0);
+    }
+
+    /** Start the checkpoints of a new open segment. */
+    static Writer newInstance(File file, long startIndex, long interval) throws IOException {
+      // a leftover of an earlier segment with the same start index
+      deleteFile(file);
+      return new Writer(file, startIndex, interval);
+    }
+
+    /** Continue the checkpoints of an open segment loaded after a restart. */
+    static Writer resume(File file, LogSegment segment, long interval) throws IOException {
+      final long start = segment.getStartIndex();
+      LogSegmentCheckpoint checkpoint = null;
+      try {
+        checkpoint = read(file, start);
+      } catch (IOException e) {
+        LOG.warn("Failed to read " + file + ", start new checkpoints", e);
+      }
+      final Mark mark = checkpoint == null ? null : checkpoint.getLastMark(segment.getEndIndex());
+      final Writer writer = new Writer(file, start, interval);
+      final long expectedEnd = mark == null ? -1 : mark.lastIndex == segment.getEndIndex() ?
+          segment.getTotalSize() : segment.getLogRecord(mark.lastIndex + 1).getOffset();
+      if (mark != null && mark.endOffset == expectedEnd) {
+        // keep the checkpoints in the file
+        FileUtils.truncateFile(file, mark.fileLength);
+        writer.last = mark;
+      } else {
+        deleteFile(file);
+      }
+      for (long i = writer.last.lastIndex + 1; i <= segment.getEndIndex(); i++) {
+        final LogRecord r = segment.getLogRecord(i);
+        writer.pending.add(new PendingRecord(i, r.getOffset(), r.getTermIndex().getTerm(),
+            segment.isConfigEntry(r.getTermIndex())));
+      }
+      writer.position = segment.getTotalSize();
+      return writer;
+    }
+
+    private static void deleteFile(File file) throws IOException {
+      if (file.exists()) {
+        FileUtils.deleteFile(file);
+      }
+    }
+
+    /** Add the record of an entry written to the segment. */
+    void add(LogEntryProto entry) {
+      pending.add(new PendingRecord(entry.getIndex(), position, entry.getTerm(),
+          ProtoUtils.isConfigurationLogEntry(entry)));
+      position += LogSegment.getEntrySize(entry);
+    }
+
+    /**
+     * Write a checkpoint covering the entries up to the flushed index,
+     * if enough entries are written since the previous checkpoint.
+     */
+    void checkpoint(long flushedIndex) throws IOException {
+      int num = 0;
+      long endOffset = last.endOffset;
+      for (PendingRecord r : pending) {
+        if (r.index > flushedIndex) {
+          endOffset = r.offset;
+          break;
+        }
+        num++;
+        endOffset = position;
+      }
+      if (num == 0 || endOffset - last.endOffset < interval) {
+        return;
+      }
+
+      // the file is created with the first checkpoint
+      final boolean newFile = last.fileLength == HEADER_SIZE;
+      final ByteBuffer buffer = ByteBuffer.allocate(
+          (newFile ? HEADER_SIZE : 0) + 4 + num * RECORD_SIZE + TRAILER_SIZE);
+      if (newFile) {
+        buffer.put(HEADER_BYTES).putLong(startIndex);
+      }
+      final int pos = buffer.position();
+      buffer.putInt(num);
+      long lastIndex = last.lastIndex;
+      for (int i = 0; i < num; i++) {
+        final PendingRecord r = pending.poll();
+        buffer.putLong(r.offset).putLong(r.term).put((byte) (r.config ? 1 : 0));
+        lastIndex = r.index;
+      }
+      buffer.putLong(lastIndex).putLong(endOffset);
+      final int sum = computeChecksum(ChecksumProvider.newCrc32C(), last.checksum, buffer, pos);
+      buffer.putInt(sum);
+      buffer.flip();
+
+      if (channel == null) {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+      }
+      final long fileLength = newFile ? 0 : last.fileLength;
+      for (long p = fileLength; buffer.hasRemaining(); ) {
+        p += channel.write(buffer, p);
+      }
+      last = new Mark(lastIndex, endOffset, fileLength + buffer.limit(), sum);
+      LOG.trace("{}: checkpoint {}", file, last);
+    }
+
+    /**
+     * The segment is truncated so that its last entry has the given index and
+     * ends at the given offset. The checkpoints after the index are removed.
+     */
+    void truncate(long newEndIndex, long newEndOffset) throws IOException {
+      pending.removeIf(r -> r.index > newEndIndex);
+      if (last.lastIndex <= newEndIndex) {
+        position = newEndOffset;
+        return;
+      }
+      IOUtils.cleanup(LOG, channel);
+      channel = null;
+      final LogSegmentCheckpoint checkpoint = read(file, startIndex);
+      Preconditions.assertTrue(checkpoint != null, () -> file + " does not exist");
+      final Mark mark = checkpoint.getLastMark(newEndIndex);
+      if (mark != null) {
+        FileUtils.truncateFile(file, mark.fileLength);
+        last = mark;
+      } else {
+        deleteFile(file);
+        reset();
+      }
+      // the entries between the kept checkpoint and the new end are pending again
+      for (long i = newEndIndex; i > last.lastIndex; i--) {
+        final LogRecord r = checkpoint.getLogRecord(i);
+        pending.addFirst(new PendingRecord(i, r.getOffset(), r.getTermIndex().getTerm(),
+            checkpoint.isConfigEntry(i)));
+      }
+      position = newEndOffset;
+    }
+
+    @Override
+    public void close() {
+      IOUtils.cleanup(LOG, channel);
+      channel = null;
+    }
+  }
+}
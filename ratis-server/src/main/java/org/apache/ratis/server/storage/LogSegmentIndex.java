@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.server.protocol.TermIndex;
+import org.apache.ratis.util.AtomicFileOutputStream;
+import org.apache.ratis.util.ChecksumProvider;
+import org.apache.ratis.util.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * The on-disk index of a closed log segment. It is written when the segment
+ * is finalized so that the segment can later be loaded without parsing all
+ * its entries, and a single entry can be read at its offset.
+ *
+ * Format:
+ * 8-byte header "RAFTIDX1"
+ * 8-byte start index, 8-byte end index, 8-byte size of the segment file
+ * for each entry: 8-byte offset, 8-byte term, 1-byte configuration flag
+ * 4-byte checksum of all the above
+ */
+class LogSegmentIndex {
+  static final String HEADER_STR = "RAFTIDX1";
+  static final byte[] HEADER_BYTES = HEADER_STR.getBytes(StandardCharsets.UTF_8);
+
+  private final long startIndex;
+  private final long endIndex;
+  private final long fileSize;
+  private final long[] offsets;
+  private final long[] terms;
+  private final boolean[] configs;
+
+  private LogSegmentIndex(long startIndex, long endIndex, long fileSize,
+      long[] offsets, long[] terms, boolean[] configs) {
+    this.startIndex = startIndex;
+    this.endIndex = endIndex;
+    this.fileSize = fileSize;
+    this.offsets = offsets;
+    this.terms = terms;
+    this.configs = configs;
+  }
+
+  /**
+   * Create the index from the records of a closed segment.
+   * The records must not be changed concurrently; see {@link LogSegment#snapshotIndex()}.
+   */
+  static LogSegmentIndex newInstance(LogRecordList records, long fileSize) {
+    final long start = records.getStartIndex();
+    final int n = records.size();
+    final long[] offsets = new long[n];
+    final long[] terms = new long[n];
+    final boolean[] configs = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      offsets[i] = records.getOffset(i);
+      terms[i] = records.getTerm(i);
+      configs[i] = records.isConfig(i);
+    }
+    return new LogSegmentIndex(start, start + n - 1, fileSize, offsets, terms, configs);
+  }
+
+  long getStartIndex() {
+    return startIndex;
+  }
+
+  long getEndIndex() {
+    return endIndex;
+  }
+
+  long getFileSize() {
+    return fileSize;
+  }
+
+  int numOfEntries() {
+    return offsets.length;
+  }
+
+  long getOffset(int i) {
+    return offsets[i];
+  }
+
+  TermIndex getTermIndex(int i) {
+    return TermIndex.newTermIndex(terms[i], startIndex + i);
+  }
+
+  boolean isConfigEntry(int i) {
+    return configs[i];
+  }
+
+  void write(File file) throws IOException {
+    final Checksum checksum = ChecksumProvider.newCrc32C();
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(new AtomicFileOutputStream(file)), checksum))) {
+      out.write(HEADER_BYTES);
+      out.writeLong(startIndex);
+      out.writeLong(endIndex);
+      out.writeLong(fileSize);
+      for (int i = 0; i < offsets.length; i++) {
+        out.writeLong(offsets[i]);
+        out.writeLong(terms[i]);
+        out.writeBoolean(configs[i]);
+      }
+      out.writeInt((int) checksum.getValue());
+    }
+  }
+
+  /**
+   * Read the index file of the segment with the given start and end index.
+   * @return the index, or null if the file does not exist.
+   * @throws IOException if the file is corrupted or does not match the segment.
+   */
+  static LogSegmentIndex read(File file, long start, long end) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    final Checksum checksum = ChecksumProvider.newCrc32C();
+    try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+        new BufferedInputStream(new FileInputStream(file)), checksum))) {
+      final byte[] header = new byte[HEADER_BYTES.length];
+      in.readFully(header);
+      final String headerStr = new String(header, StandardCharsets.UTF_8);
+      if (!HEADER_STR.equals(headerStr)) {
+        throw new IOException("Corrupted index header: " + headerStr + " in " + file);
+      }
+      final long startIndex = in.readLong();
+      final long endIndex = in.readLong();
+      if (startIndex != start || endIndex != end) {
+        throw new IOException("Index range mismatched: expected (" + start + ", " + end
+            + ") but read (" + startIndex + ", " + endIndex + ") from " + file);
+      }
+      final long fileSize = in.readLong();
+      final int n = Math.toIntExact(endIndex - startIndex + 1);
+      final long[] offsets = new long[n];
+      final long[] terms = new long[n];
+      final boolean[] configs = new boolean[n];
+      for (int i = 0; i < n; i++) {
+        offsets[i] = in.readLong();
+        terms[i] = in.readLong();
+        configs[i] = in.readBoolean();
+      }
+      final int calculated = (int) checksum.getValue();
+      final int expected = in.readInt();
+      if (calculated != expected) {
+        throw new IOException("Index is corrupt. Calculated checksum is " + calculated
+            + " but read checksum " + expected + " from " + file);
+      }
+      return new LogSegmentIndex(startIndex, endIndex, fileSize, offsets, terms, configs);
+    } catch (EOFException e) {
+      throw new IOException("Index file " + file + " is truncated", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(" + startIndex + ", " + endIndex
+        + "), fileSize=" + fileSize;
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.util.Daemon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of threads shared by the {@link RaftLogWorker}s of all the
+ * groups in a server, instead of a thread per log.
+ *
+ * Each thread takes a batch of the workers having queued tasks, executes the
+ * tasks of all of them and only then forces the files, so that the entries
+ * of many groups become durable in one round of fsyncs. The files of a batch
+ * are forced in parallel since the groups may be on different disks.
+ */
+public class LogWorkerEngine implements Closeable {
+  static final Logger LOG = LoggerFactory.getLogger(LogWorkerEngine.class);
+
+  /** The max number of workers processed in a batch. */
+  static final int BATCH_SIZE_MAX = 64;
+
+  /** @return a new engine, or null if the logs use their own threads. */
+  public static LogWorkerEngine newInstance(RaftProperties properties) {
+    final int threads = RaftServerConfigKeys.Log.workerSharedThreads(properties);
+    return threads > 0 ? new LogWorkerEngine(threads) : null;
+  }
+
+  /** The workers having queued tasks; a worker is in this queue at most once. */
+  private final BlockingQueue<RaftLogWorker> ready = new LinkedBlockingQueue<>();
+  private final ExecutorService executor;
+  /** For forcing the files of a batch in parallel. */
+  private final ExecutorService syncExecutor = Executors.newCachedThreadPool(Daemon::new);
+  /** For finalizing and preallocating the segment files of all the workers, if async roll is enabled. */
+  private final ExecutorService rollExecutor;
+  private volatile boolean running = true;
+
+  LogWorkerEngine(int threads) {
+    this.executor = Executors.newFixedThreadPool(threads, Daemon::new);
+    this.rollExecutor = Executors.newFixedThreadPool(threads, Daemon::new);
+    for (int i = 0; i < threads; i++) {
+      executor.execute(this::run);
+    }
+    LOG.info("new {} with {} threads", getClass().getSimpleName(), threads);
+  }
+
+  void schedule(RaftLogWorker worker) {
+    ready.offer(worker);
+  }
+
+  ExecutorService getRollExecutor() {
+    return rollExecutor;
+  }
+
+  boolean isRunning() {
+    return running;
+  }
+
+  private void run() {
+    final List<RaftLogWorker> batch = new ArrayList<>();
+    while (running) {
+      try {
+        final RaftLogWorker first = ready.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        ready.drainTo(batch, BATCH_SIZE_MAX - 1);
+        LOG.trace("process a batch of {} workers", batch.size());
+
+        // write the entries of all the workers before forcing any of the files
+        batch.forEach(RaftLogWorker::executeQueuedTasks);
+        syncAndReschedule(batch);
+      } catch (InterruptedException e) {
+        if (running) {
+          LOG.warn("{} got interrupted while still running",
+              Thread.currentThread().getName());
+        }
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Force the files of the workers in parallel. A worker is rescheduled as
+   * soon as its own files are forced, so that it does not wait for a slower disk.
+   */
+  private void syncAndReschedule(List<RaftLogWorker> batch) {
+    final List<CompletableFuture<Void>> syncs = new ArrayList<>(batch.size() - 1);
+    for (int i = 1; i < batch.size(); i++) {
+      final RaftLogWorker worker = batch.get(i);
+      syncs.add(CompletableFuture.runAsync(() -> syncAndReschedule(worker), syncExecutor));
+    }
+    syncAndReschedule(batch.get(0));
+    syncs.forEach(CompletableFuture::join);
+  }
+
+  private static void syncAndReschedule(RaftLogWorker worker) {
+    worker.syncQueuedWrites();
+    worker.reschedule();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    executor.shutdownNow();
+    syncExecutor.shutdownNow();
+    rollExecutor.shutdown();
+    try {
+      executor.awaitTermination(3, TimeUnit.SECONDS);
+      rollExecutor.awaitTermination(3, TimeUnit.SECONDS);
+    } catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+    }
+    LOG.info("{} close()", getClass().getSimpleName());
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.util.CheckedConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A bounded cache of the memory mapped files of the closed log segments.
+ * When the number of mappings exceeds the limit, the least recently used
+ * mapping is removed.
+ *
+ * The lock of this object only guards the map of the mappings; the files are
+ * mapped, read and unmapped outside the lock. Each mapping is reference
+ * counted so that it is unmapped only after it is removed from the cache and
+ * all its readers have finished.
+ */
+class MappedSegmentCache implements Closeable {
+  static final Logger LOG = LoggerFactory.getLogger(MappedSegmentCache.class);
+
+  private static final Consumer<MappedByteBuffer> UNMAPPER = newUnmapper();
+
+  /** @return a function to unmap a buffer explicitly, or null if it is unsupported. */
+  private static Consumer<MappedByteBuffer> newUnmapper() {
+    try {
+      // Java 9+
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      final Object unsafe = theUnsafe.get(null);
+      return buffer -> invoke(invokeCleaner, unsafe, buffer);
+    } catch (Exception e) {
+      LOG.trace("Unsafe.invokeCleaner is unavailable", e);
+    }
+    try {
+      // Java 8
+      final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      return buffer -> invoke(clean, invoke(cleaner, buffer));
+    } catch (Exception e) {
+      LOG.warn("Failed to find a method to unmap buffers; they are unmapped by GC", e);
+    }
+    return null;
+  }
+
+  private static Object invoke(Method method, Object obj, Object... args) {
+    try {
+      return method.invoke(obj, args);
+    } catch (Exception e) {
+      throw new IllegalStateException("Failed to invoke " + method, e);
+    }
+  }
+
+  /** A mapped file with a reference count. */
+  private class Mapping {
+    private final File file;
+    private final MappedByteBuffer buffer;
+    /** One reference for the cache and one for each reader; unmapped at zero. */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    Mapping(File file, MappedByteBuffer buffer) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+    /** @return true if a reference is acquired; false if it is already unmapped. */
+    boolean retain() {
+      for(int n; (n = references.get()) > 0; ) {
+        if (references.compareAndSet(n, n + 1)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        unmap(file, buffer);
+      }
+    }
+  }
+
+  private final String name;
+  private final int maxMappings;
+  /** The mappings in access order. */
+  private final LinkedHashMap<File, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+  /**
+   * Incremented for each explicit unmap so that a file mapped concurrently
+   * with a truncation or a purge is not put into the cache.
+   */
+  private long unmapCount = 0;
+
+  MappedSegmentCache(String name, int maxMappings) {
+    this.name = name + "-" + getClass().getSimpleName();
+    this.maxMappings = maxMappings;
+  }
+
+  /**
+   * Map the given file, if it is not yet mapped, and pass a read-only buffer
+   * of the whole file to the reader.
+   *
+   * @return true if the reader is invoked;
+   *         false if the file is too large to map.
+   */
+  boolean read(File file, CheckedConsumer<ByteBuffer, IOException> reader)
+      throws IOException {
+    final Mapping mapping = acquire(file);
+    if (mapping == null) {
+      return false;
+    }
+    try {
+      reader.accept(mapping.buffer.duplicate());
+    } finally {
+      mapping.release();
+    }
+    return true;
+  }
+
+  /** @return the mapping of the given file with a reference acquired for the caller. */
+  private Mapping acquire(File file) throws IOException {
+    final long count;
+    synchronized (this) {
+      final Mapping mapping = mappings.get(file);
+      if (mapping != null && mapping.retain()) {
+        return mapping;
+      }
+      count = unmapCount;
+    }
+
+    final MappedByteBuffer buffer = map(file);
+    if (buffer == null) {
+      return null;
+    }
+    final Mapping mapping = new Mapping(file, buffer);
+    final List<Mapping> removed = new ArrayList<>();
+    synchronized (this) {
+      if (count == unmapCount) {
+        // the cache keeps the initial reference and the caller takes another one
+        mapping.retain();
+        Optional.ofNullable(mappings.put(file, mapping)).ifPresent(removed::add);
+        for (Iterator<Mapping> i = mappings.values().iterator();
+             i.hasNext() && mappings.size() > maxMappings; ) {
+          removed.add(i.next());
+          i.remove();
+        }
+      }
+      // otherwise, the file may have been truncated or deleted; use it only once
+    }
+    removed.forEach(Mapping::release);
+    return mapping;
+  }
+
+  private MappedByteBuffer map(File file) throws IOException {
+    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final long size = fc.size();
+      if (size > Integer.MAX_VALUE) {
+        LOG.debug("{}: {} is too large to map, size={}", name, file, size);
+        return null;
+      }
+      LOG.trace("{}: map {}", name, file);
+      return fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+  }
+
+  /** Remove the given file from the cache; it is unmapped once its readers have finished. */
+  void unmap(File file) {
+    final Mapping mapping;
+    synchronized (this) {
+      unmapCount++;
+      mapping = mappings.remove(file);
+    }
+    if (mapping != null) {
+      mapping.release();
+    }
+  }
+
+  private void unmap(File file, MappedByteBuffer mapped) {
+    LOG.trace("{}: unmap {}", name, file);
+    if (UNMAPPER != null) {
+      try {
+        UNMAPPER.accept(mapped);
+      } catch (RuntimeException e) {
+        LOG.warn(name + ": Failed to unmap " + file, e);
+      }
+    }
+  }
+
+  synchronized int getNumMappings() {
+    return mappings.size();
+  }
+
+  @Override
+  public void close() {
+    final List<Mapping> removed;
+    synchronized (this) {
+      unmapCount++;
+      removed = new ArrayList<>(mappings.values());
+      mappings.clear();
+    }
+    removed.forEach(Mapping::release);
+  }
+}
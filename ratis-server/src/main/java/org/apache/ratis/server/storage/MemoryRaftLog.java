@@ -205,6 +205,12 @@ public class MemoryRaftLog extends RaftLog {
     // do nothing
   }
 
+  @Override
+  public CompletableFuture<Long> purge(long suggestedIndex) {
+    // do nothing
+    return CompletableFuture.completedFuture(RaftServerConstants.INVALID_LOG_INDEX);
+  }
+
   @Override
   public boolean isConfigEntry(TermIndex ti) {
     return ProtoUtils.isConfigurationLogEntry(get(ti.getIndex()));
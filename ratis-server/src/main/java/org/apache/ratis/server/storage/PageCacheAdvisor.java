@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.io.nativeio.NativeIO;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Advise the kernel, by posix_fadvise(2) through
+ * {@link NativeIO.POSIX.CacheManipulator}, about how the pages of the segment
+ * files are going to be used, so that the log does not compete with the
+ * state machine for the page cache.
+ *
+ * The advice is best effort: nothing is done without the native code and the
+ * failures are only logged.
+ */
+class PageCacheAdvisor {
+  static final Logger LOG = LoggerFactory.getLogger(PageCacheAdvisor.class);
+
+  static final PageCacheAdvisor NOOP = new PageCacheAdvisor(false);
+
+  static PageCacheAdvisor newInstance(RaftProperties properties) {
+    return RaftServerConfigKeys.Log.fadviseEnabled(properties) && NativeIO.isAvailable()?
+        new PageCacheAdvisor(true): NOOP;
+  }
+
+  private final boolean enabled;
+
+  private PageCacheAdvisor(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * The given range, which must have been forced, will not be read soon.
+   * A length of 0 means the end of the file.
+   */
+  void dontNeed(String id, FileDescriptor fd, long offset, long length) {
+    advise(id, fd, offset, length, NativeIO.POSIX.POSIX_FADV_DONTNEED);
+  }
+
+  /** Similar to {@link #dontNeed(String, FileDescriptor, long, long)} for the whole file. */
+  void dontNeed(File file) {
+    advise(file, 0, 0, NativeIO.POSIX.POSIX_FADV_DONTNEED);
+  }
+
+  /** Start reading ahead the given range of the file. */
+  void willNeed(File file, long offset, long length) {
+    advise(file, offset, length, NativeIO.POSIX.POSIX_FADV_WILLNEED);
+  }
+
+  private void advise(File file, long offset, long length, int flags) {
+    if (!enabled || flags == -1) {
+      return;
+    }
+    // the page cache of a file is shared by all its descriptors
+    try (FileInputStream in = new FileInputStream(file)) {
+      advise(file.getPath(), in.getFD(), offset, length, flags);
+    } catch (IOException e) {
+      LOG.debug("Failed to open {} for fadvise", file, e);
+    }
+  }
+
+  private void advise(String id, FileDescriptor fd, long offset, long length, int flags) {
+    if (!enabled || flags == -1) {
+      return;
+    }
+    try {
+      NativeIO.POSIX.getCacheManipulator().posixFadviseIfPossible(
+          id, fd, offset, length, flags);
+    } catch (IOException e) {
+      LOG.debug("Failed to fadvise {} with flags {} at offset {} length {}",
+          id, flags, offset, length, e);
+    }
+  }
+}
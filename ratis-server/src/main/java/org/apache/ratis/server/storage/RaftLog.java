@@ -17,19 +17,24 @@
  */
 package org.apache.ratis.server.storage;
 
+import org.apache.ratis.conf.RaftProperties;
 import org.apache.ratis.protocol.ClientId;
 import org.apache.ratis.protocol.RaftPeerId;
 import org.apache.ratis.protocol.StateMachineException;
+import org.apache.ratis.server.RaftServerConfigKeys;
 import org.apache.ratis.server.impl.LogAppender;
 import org.apache.ratis.server.impl.RaftConfiguration;
 import org.apache.ratis.server.impl.RaftServerConstants;
 import org.apache.ratis.server.impl.ServerProtoUtils;
 import org.apache.ratis.server.protocol.TermIndex;
+import org.apache.ratis.proto.RaftProtos.CompressionCodecProto;
 import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.proto.RaftProtos.SMLogEntryProto;
 import org.apache.ratis.statemachine.TransactionContext;
 import org.apache.ratis.thirdparty.com.google.protobuf.ByteString;
 import org.apache.ratis.util.AutoCloseableLock;
 import org.apache.ratis.util.JavaUtils;
+import org.apache.ratis.util.LogEntryCompression;
 import org.apache.ratis.util.Preconditions;
 import org.apache.ratis.util.ProtoUtils;
 import org.slf4j.Logger;
@@ -63,13 +68,28 @@ public abstract class RaftLog implements Closeable {
       new AtomicLong(RaftServerConstants.INVALID_LOG_INDEX);
   private final RaftPeerId selfId;
   private final int maxBufferSize;
+  private final CompressionCodecProto compressionCodec;
+  private final int compressionSizeMin;
 
   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
   private volatile boolean isOpen = false;
 
   public RaftLog(RaftPeerId selfId, int maxBufferSize) {
+    this(selfId, maxBufferSize, CompressionCodecProto.NONE, 0);
+  }
+
+  protected RaftLog(RaftPeerId selfId, RaftProperties properties) {
+    this(selfId, RaftServerConfigKeys.Log.Appender.bufferCapacity(properties).getSizeInt(),
+        RaftServerConfigKeys.Log.compressionCodec(properties),
+        RaftServerConfigKeys.Log.compressionSizeMin(properties).getSizeInt());
+  }
+
+  private RaftLog(RaftPeerId selfId, int maxBufferSize,
+      CompressionCodecProto compressionCodec, int compressionSizeMin) {
     this.selfId = selfId;
     this.maxBufferSize = maxBufferSize;
+    this.compressionCodec = compressionCodec;
+    this.compressionSizeMin = compressionSizeMin;
   }
 
   public long getLastCommittedIndex() {
@@ -141,6 +161,11 @@ public abstract class RaftLog implements Closeable {
   public long append(long term, TransactionContext operation,
       ClientId clientId, long callId) throws StateMachineException {
     checkLogState();
+    // compress before taking the lock; the log and the followers get the compressed
+    // entry, while the transaction keeps the uncompressed one for applying it locally
+    final SMLogEntryProto smLog = operation.getSMLogEntry();
+    final SMLogEntryProto smLogCompressed = smLog == null? null
+        : LogEntryCompression.compress(smLog, compressionCodec, compressionSizeMin);
     try(AutoCloseableLock writeLock = writeLock()) {
       final long nextIndex = getNextIndex();
 
@@ -153,16 +178,21 @@ public abstract class RaftLog implements Closeable {
       }
 
       // build the log entry after calling the StateMachine
+      final SMLogEntryProto appended = operation.getSMLogEntry();
       final LogEntryProto e = ProtoUtils.toLogEntryProto(
-          operation.getSMLogEntry(), term, nextIndex, clientId, callId);
+          appended, term, nextIndex, clientId, callId);
+      // compress again only if the StateMachine has replaced the entry
+      final LogEntryProto compressed = appended == smLog?
+          ProtoUtils.toLogEntryProto(smLogCompressed, term, nextIndex, clientId, callId)
+          : LogEntryCompression.compress(e, compressionCodec, compressionSizeMin);
 
-      int entrySize = e.getSerializedSize();
+      int entrySize = compressed.getSerializedSize();
       if (entrySize > maxBufferSize) {
         throw new StateMachineException(selfId, new RaftLogIOException(
             "Log entry size " + entrySize + " exceeds the max buffer limit of "
                 + maxBufferSize));
       }
-      appendEntry(e);
+      appendEntry(compressed);
       operation.setLogEntry(e);
       return nextIndex;
     }
@@ -184,6 +214,13 @@ public abstract class RaftLog implements Closeable {
     }
   }
 
+  /**
+   * Open the log and load its entries.
+   *
+   * @param lastIndexInSnapshot the last index in the latest snapshot.
+   * @param consumer to consume the configuration entries in the log, in index order.
+   *                 The other entries may or may not be passed to it.
+   */
   public void open(long lastIndexInSnapshot, Consumer<LogEntryProto> consumer)
       throws IOException {
     isOpen = true;
@@ -293,6 +330,16 @@ public abstract class RaftLog implements Closeable {
 
   public abstract void syncWithSnapshot(long lastSnapshotIndex);
 
+  /**
+   * Purge the log entries up to the given index (inclusive) in order to
+   * reclaim the storage, e.g. after the entries have been included in a
+   * snapshot. An implementation may purge fewer entries than suggested, for
+   * example, it only removes whole log segments.
+   *
+   * @return a future of the largest index that has been purged.
+   */
+  public abstract CompletableFuture<Long> purge(long suggestedIndex);
+
   public abstract boolean isConfigEntry(TermIndex ti);
 
   @Override
@@ -30,6 +30,7 @@ import org.apache.ratis.util.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.function.Consumer;
@@ -93,23 +94,56 @@ class RaftLogCache {
 
   private final int maxCachedSegments;
   private final CacheInvalidationPolicy evictionPolicy = new CacheInvalidationPolicyDefault();
+  /** The memory mapped closed segment files, or null if mmap is disabled. */
+  private final MappedSegmentCache mappedSegments;
+  /** The account in the shared entry cache, or null if the cache is evicted by segment. */
+  private final LogEntryCache.Account cacheAccount;
+  private final PageCacheAdvisor advisor;
+  private final long loadTailCacheSize;
+  /** The max end index of the lazy segments added; the segments after it are never lazy. */
+  private long lazyEndIndex = INVALID_LOG_INDEX;
 
   RaftLogCache(RaftPeerId selfId, RaftStorage storage, RaftProperties properties) {
+    this(selfId, storage, properties, null);
+  }
+
+  RaftLogCache(RaftPeerId selfId, RaftStorage storage, RaftProperties properties,
+      LogEntryCache.Account cacheAccount) {
     this.name = selfId + "-" + getClass().getSimpleName();
+    this.cacheAccount = cacheAccount;
     this.storage = storage;
     maxCachedSegments = RaftServerConfigKeys.Log.maxCachedSegmentNum(properties);
     closedSegments = new ArrayList<>();
+    mappedSegments = RaftServerConfigKeys.Log.mmapEnabled(properties) ?
+        new MappedSegmentCache(selfId.toString(),
+            RaftServerConfigKeys.Log.mmapMappingsMax(properties)) : null;
+    advisor = PageCacheAdvisor.newInstance(properties);
+    loadTailCacheSize = RaftServerConfigKeys.Log.loadTailCacheSize(properties).getSize();
   }
 
   int getMaxCachedSegments() {
     return maxCachedSegments;
   }
 
-  void loadSegment(LogPathAndIndex pi, boolean isOpen, boolean keepEntryInCache,
+  /**
+   * Load the segment from the given file. The segment is not yet added to
+   * this cache so that this method can be called concurrently.
+   */
+  LogSegment loadSegment(LogPathAndIndex pi, boolean isOpen, boolean keepEntryInCache,
       Consumer<LogEntryProto> logConsumer) throws IOException {
-    LogSegment logSegment = LogSegment.loadSegment(storage, pi.path.toFile(),
-        pi.startIndex, pi.endIndex, isOpen, keepEntryInCache, logConsumer);
-    addSegment(logSegment);
+    return LogSegment.loadSegment(storage, mappedSegments, cacheAccount, advisor,
+        pi.path.toFile(), pi.startIndex, pi.endIndex, isOpen, keepEntryInCache, loadTailCacheSize,
+        logConsumer);
+  }
+
+  /**
+   * Similar to {@link #loadSegment} except that the records are loaded lazily.
+   * @return null if the segment cannot be loaded lazily.
+   */
+  LogSegment newLazySegment(LogPathAndIndex pi, Consumer<LogEntryProto> logConsumer)
+      throws IOException {
+    return LogSegment.newLazySegment(storage, mappedSegments, cacheAccount, advisor,
+        pi.path.toFile(), pi.startIndex, pi.endIndex, logConsumer);
   }
 
   long getCachedSegmentNum() {
@@ -117,7 +151,8 @@ class RaftLogCache {
   }
 
   boolean shouldEvict() {
-    return getCachedSegmentNum() > maxCachedSegments;
+    // the shared entry cache evicts the entries by itself
+    return cacheAccount == null && getCachedSegmentNum() > maxCachedSegments;
   }
 
   void evictCache(long[] followerIndices, long flushedIndex,
@@ -148,11 +183,14 @@ class RaftLogCache {
       setOpenSegment(segment);
     } else {
       closedSegments.add(segment);
+      if (segment.isLazy()) {
+        lazyEndIndex = segment.getEndIndex();
+      }
     }
   }
 
   void addOpenSegment(long startIndex) {
-    setOpenSegment(LogSegment.newOpenSegment(storage, startIndex));
+    setOpenSegment(LogSegment.newOpenSegment(storage, mappedSegments, cacheAccount, advisor, startIndex));
   }
 
   private void setOpenSegment(LogSegment openSegment) {
@@ -195,11 +233,36 @@ class RaftLogCache {
     }
   }
 
+  /**
+   * @return the first segment between the given indices (inclusive) whose
+   *         records are not yet loaded, or null if there is none.
+   */
+  LogSegment getLazySegment(long startIndex, long endIndex) {
+    if (startIndex > lazyEndIndex) {
+      return null;
+    }
+    final int i = Collections.binarySearch(closedSegments, startIndex);
+    for (int j = i < 0 ? -i - 1 : i; j < closedSegments.size(); j++) {
+      final LogSegment s = closedSegments.get(j);
+      if (s.getStartIndex() > Math.min(endIndex, lazyEndIndex)) {
+        break;
+      } else if (s.isLazy()) {
+        return s;
+      }
+    }
+    return null;
+  }
+
   LogRecord getLogRecord(long index) {
     LogSegment segment = getSegment(index);
     return segment == null ? null : segment.getLogRecord(index);
   }
 
+  TermIndex getTermIndex(long index) {
+    LogSegment segment = getSegment(index);
+    return segment == null ? null : segment.getTermIndex(index);
+  }
+
   /**
    * @param startIndex inclusive
    * @param endIndex exclusive
@@ -247,8 +310,7 @@ class RaftLogCache {
     endIndex = Math.min(endIndex, startIndex + size - 1);
     int index = offset;
     for (long i = startIndex; i <= endIndex; i++) {
-      LogRecord r = segment.getLogRecord(i);
-      entries[index++] = r == null ? null : r.getTermIndex();
+      entries[index++] = segment.getTermIndex(i);
     }
   }
 
@@ -309,13 +371,12 @@ class RaftLogCache {
           return new TruncationSegments(null,
               Collections.singletonList(deleteOpenSegment()));
         } else {
+          // the open segment stays open and its file is reopened for append
           openSegment.truncate(index);
-          Preconditions.assertTrue(!openSegment.isOpen());
+          Preconditions.assertTrue(openSegment.isOpen());
           SegmentFileInfo info = new SegmentFileInfo(openSegment.getStartIndex(),
               oldEnd, true, openSegment.getTotalSize(),
               openSegment.getEndIndex());
-          closedSegments.add(openSegment);
-          clearOpenSegment();
           return new TruncationSegments(info, Collections.emptyList());
         }
       }
@@ -340,11 +401,71 @@ class RaftLogCache {
       SegmentFileInfo t = ts.numOfEntries() == 0 ? null :
           new SegmentFileInfo(ts.getStartIndex(), oldEnd, false,
               ts.getTotalSize(), ts.getEndIndex());
-      return new TruncationSegments(t, list);
+      return unmap(new TruncationSegments(t, list));
     }
     return null;
   }
 
+  /**
+   * Remove the closed segments whose entries are all within the given index
+   * (inclusive). The open segment is never purged.
+   *
+   * @return the segment files to be deleted, or null if there is nothing to purge.
+   */
+  TruncationSegments purge(long index) {
+    final int segmentIndex = Collections.binarySearch(closedSegments, index);
+    final int lastToPurge;
+    if (segmentIndex >= 0) {
+      // the index is in a closed segment. Purge the segment only if the index
+      // is its last entry.
+      lastToPurge = closedSegments.get(segmentIndex).getEndIndex() == index ?
+          segmentIndex : segmentIndex - 1;
+    } else {
+      // the index is not in any closed segment. All the closed segments
+      // before the insertion point can be purged.
+      lastToPurge = -segmentIndex - 2;
+    }
+    if (lastToPurge < 0) {
+      return null;
+    }
+
+    // list the segments in ascending order so that the files are deleted
+    // oldest first; an interrupted purge then leaves no gap in the log.
+    final List<LogSegment> purged = closedSegments.subList(0, lastToPurge + 1);
+    final List<SegmentFileInfo> list = new ArrayList<>();
+    for (LogSegment s : purged) {
+      final long endIndex = s.getEndIndex();
+      s.clear();
+      list.add(new SegmentFileInfo(s.getStartIndex(), endIndex, false, 0, endIndex));
+    }
+    purged.clear();
+    LOG.info("{}: purged {} segment(s) up to index {}", name, list.size(), index);
+    return unmap(new TruncationSegments(null, list));
+  }
+
+  /** Unmap the file of a closed segment which has been moved. */
+  void unmapSegmentFile(File file) {
+    if (mappedSegments != null) {
+      mappedSegments.unmap(file);
+    }
+  }
+
+  /** Unmap the closed segment files which are going to be truncated or deleted. */
+  private TruncationSegments unmap(TruncationSegments ts) {
+    if (mappedSegments != null) {
+      final RaftStorageDirectory dir = storage.getStorageDir();
+      if (ts.toTruncate != null && !ts.toTruncate.isOpen) {
+        mappedSegments.unmap(dir.getClosedLogFile(ts.toTruncate.startIndex, ts.toTruncate.endIndex));
+      }
+      for (SegmentFileInfo info : ts.toDelete) {
+        if (!info.isOpen) {
+          mappedSegments.unmap(dir.getClosedLogFile(info.startIndex, info.endIndex));
+        }
+      }
+    }
+    return ts;
+  }
+
   Iterator<TermIndex> iterator(long startIndex) {
     return new EntryIterator(startIndex);
   }
@@ -376,14 +497,14 @@ class RaftLogCache {
     @Override
     public boolean hasNext() {
       return currentSegment != null &&
-          currentSegment.getLogRecord(nextIndex) != null;
+          currentSegment.containsIndex(nextIndex);
     }
 
     @Override
     public TermIndex next() {
-      LogRecord record;
+      final TermIndex termIndex;
       if (currentSegment == null ||
-          (record = currentSegment.getLogRecord(nextIndex)) == null) {
+          (termIndex = currentSegment.getTermIndex(nextIndex)) == null) {
         throw new NoSuchElementException();
       }
       if (++nextIndex > currentSegment.getEndIndex()) {
@@ -393,7 +514,7 @@ class RaftLogCache {
               openSegment : closedSegments.get(segmentIndex);
         }
       }
-      return record.getTermIndex();
+      return termIndex;
     }
   }
 
@@ -412,5 +533,9 @@ class RaftLogCache {
     }
     closedSegments.forEach(LogSegment::clear);
     closedSegments.clear();
+    lazyEndIndex = INVALID_LOG_INDEX;
+    if (mappedSegments != null) {
+      mappedSegments.close();
+    }
   }
 }
@@ -37,11 +37,21 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
@@ -57,7 +67,12 @@ class RaftLogWorker implements Runnable {
    */
   private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(4096);
   private volatile boolean running = true;
+  /** The dedicated thread; null if the tasks are executed by the engine. */
   private final Thread workerThread;
+  /** The engine shared with the other logs; null if there is a dedicated thread. */
+  private final LogWorkerEngine engine;
+  /** Has this worker been scheduled to the engine? It is not scheduled before start. */
+  private final AtomicBoolean scheduled = new AtomicBoolean(true);
 
   private final RaftStorage storage;
   private volatile LogOutputStream out;
@@ -70,19 +85,57 @@ class RaftLogWorker implements Runnable {
    * has not been flushed.
    */
   private int pendingFlushNum = 0;
+  /** The total size of the entries which have not been flushed. */
+  private long pendingFlushBytes = 0;
+  /** The time when the first entry which has not been flushed was written. */
+  private long firstPendingNanos;
   /** the index of the last entry that has been written */
   private long lastWrittenIndex;
-  /** the largest index of the entry that has been flushed */
-  private volatile long flushedIndex;
+  /**
+   * The largest index of the entry that has been flushed.
+   * It is advanced by the worker, flush and roll threads, see {@link #advanceFlushedIndex(long)},
+   * and reset only by {@link #start}, {@link TruncateLog} and {@link #syncWithSnapshot(long)}.
+   */
+  private final AtomicLong flushedIndex = new AtomicLong();
 
-  private final int forceSyncNum;
+  private final LogFlushPolicy flushPolicy;
+
+  /**
+   * When async flush is enabled, the fsync is done by the flushExecutor so
+   * that the worker thread can keep writing the next batch to the page cache.
+   */
+  private final boolean asyncFlush;
+  private final ExecutorService flushExecutor;
+  /** the index of the last entry that has been written to the file channel */
+  private volatile long lastWrittenToChannelIndex;
+  /** the last flush submitted to the flushExecutor */
+  private volatile CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+
+  /**
+   * When async roll is enabled, the rollExecutor finalizes the closed segments
+   * and creates the next segment file in advance, off the write path.
+   * It is shared with the other logs if the engine is used.
+   */
+  private final ExecutorService rollExecutor;
+  /** the last finalization submitted to the rollExecutor */
+  private volatile CompletableFuture<Void> lastFinalize = CompletableFuture.completedFuture(null);
+  /** the creation of the preallocated file for the next segment */
+  private CompletableFuture<Void> preallocatedFile = CompletableFuture.completedFuture(null);
 
   private final long segmentMaxSize;
   private final long preallocatedSize;
   private final int bufferSize;
-
+  private final LogOutputStream.WriteMode writeMode;
+  private final PageCacheAdvisor advisor;
+  private final ColdSegmentMover coldMover;
+  /** The min size of the entries between two checkpoints; negative if the checkpoints are disabled. */
+  private final long checkpointInterval;
+  /** The checkpoints of the open segment, if enabled. */
+  private LogSegmentCheckpoint.Writer checkpoints;
+
+  /** @param unmapSegmentFile to unmap the file of a segment moved to the cold directory. */
   RaftLogWorker(RaftPeerId selfId, RaftServerImpl raftServer, RaftStorage storage,
-                RaftProperties properties) {
+                RaftProperties properties, LogWorkerEngine engine, Consumer<File> unmapSegmentFile) {
     this.name = selfId + "-" + getClass().getSimpleName();
     LOG.info("new {} for {}", name, storage);
 
@@ -96,34 +149,92 @@ class RaftLogWorker implements Runnable {
         RaftServerConfigKeys.Log.preallocatedSize(properties).getSize();
     this.bufferSize =
         RaftServerConfigKeys.Log.writeBufferSize(properties).getSizeInt();
-    this.forceSyncNum = RaftServerConfigKeys.Log.forceSyncNum(properties);
-    this.workerThread = new Thread(this, name);
+    this.writeMode = LogOutputStream.getEffectiveWriteMode(
+        RaftServerConfigKeys.Log.writeMode(properties));
+    this.advisor = PageCacheAdvisor.newInstance(properties);
+    // the logs of all the groups share the executor of the server
+    this.coldMover = new ColdSegmentMover(name, storage.getStorageDir(), properties,
+        raftServer != null ? raftServer.getProxy().getColdSegmentExecutor() : null,
+        unmapSegmentFile);
+    this.checkpointInterval = RaftServerConfigKeys.Log.checkpointEnabled(properties) ?
+        RaftServerConfigKeys.Log.checkpointInterval(properties).getSize() : -1;
+    this.flushPolicy = LogFlushPolicy.newInstance(properties);
+    this.engine = engine;
+    // the engine does its own batching of the flushes
+    this.asyncFlush = engine == null && RaftServerConfigKeys.Log.asyncFlushEnabled(properties);
+    this.flushExecutor = asyncFlush? Executors.newSingleThreadExecutor(Daemon::new): null;
+    this.workerThread = engine == null? new Thread(this, name): null;
+    this.rollExecutor = !RaftServerConfigKeys.Log.asyncRollEnabled(properties)? null
+        : engine != null? engine.getRollExecutor(): Executors.newSingleThreadExecutor(Daemon::new);
 
     // Server Id can be null in unit tests
     this.logFlushTimer = JavaUtils.memoize(() -> RatisMetricsRegistry.getRegistry()
         .timer(MetricRegistry.name(RaftLogWorker.class, selfId.toString(), "flush-time")));
   }
 
-  void start(long latestIndex, File openSegmentFile) throws IOException {
-    LOG.trace("{} start(latestIndex={}, openSegmentFile={})", name, latestIndex, openSegmentFile);
+  void start(long latestIndex, LogSegment openSegment) throws IOException {
+    LOG.trace("{} start(latestIndex={}, openSegment={})", name, latestIndex, openSegment);
     lastWrittenIndex = latestIndex;
-    flushedIndex = latestIndex;
-    if (openSegmentFile != null) {
+    lastWrittenToChannelIndex = latestIndex;
+    flushedIndex.set(latestIndex);
+    if (openSegment != null) {
+      final File openSegmentFile = storage.getStorageDir()
+          .getOpenLogFile(openSegment.getStartIndex());
       Preconditions.assertTrue(openSegmentFile.exists());
       out = new LogOutputStream(openSegmentFile, true, segmentMaxSize,
-          preallocatedSize, bufferSize);
+          preallocatedSize, bufferSize, writeMode);
+      if (checkpointInterval >= 0) {
+        checkpoints = LogSegmentCheckpoint.Writer.resume(storage.getStorageDir()
+            .getOpenLogCheckpointFile(openSegment.getStartIndex()), openSegment, checkpointInterval);
+      }
+    }
+    if (rollExecutor != null) {
+      // the file may be partially written before a restart
+      Files.deleteIfExists(storage.getStorageDir().getPreallocatedLogFile().toPath());
+      preparePreallocatedFile();
+    }
+    coldMover.start();
+    if (workerThread != null) {
+      workerThread.start();
+    } else {
+      reschedule();
     }
-    workerThread.start();
   }
 
   void close() {
     this.running = false;
-    workerThread.interrupt();
-    try {
-      workerThread.join(3000);
-    } catch (InterruptedException ignored) {
+    if (workerThread != null) {
+      workerThread.interrupt();
+      try {
+        workerThread.join(3000);
+      } catch (InterruptedException ignored) {
+      }
+    } else {
+      synchronized (this) {
+        // wait for the engine to finish the current batch of this worker
+      }
+    }
+    if (flushExecutor != null) {
+      flushExecutor.shutdown();
+      try {
+        flushExecutor.awaitTermination(3, TimeUnit.SECONDS);
+      } catch (InterruptedException ignored) {
+      }
     }
-    IOUtils.cleanup(LOG, out);
+    if (rollExecutor != null) {
+      try {
+        if (engine != null) {
+          // the executor is shared; only wait for the tasks of this log
+          CompletableFuture.allOf(lastFinalize, preallocatedFile).get(3, TimeUnit.SECONDS);
+        } else {
+          rollExecutor.shutdown();
+          rollExecutor.awaitTermination(3, TimeUnit.SECONDS);
+        }
+      } catch (InterruptedException | ExecutionException | TimeoutException ignored) {
+      }
+    }
+    coldMover.close();
+    IOUtils.cleanup(LOG, out, checkpoints);
     LOG.info("{} close()", name);
   }
 
@@ -134,8 +245,9 @@ class RaftLogWorker implements Runnable {
   void syncWithSnapshot(long lastSnapshotIndex) {
     queue.clear();
     lastWrittenIndex = lastSnapshotIndex;
-    flushedIndex = lastSnapshotIndex;
-    pendingFlushNum = 0;
+    lastWrittenToChannelIndex = lastSnapshotIndex;
+    flushedIndex.set(lastSnapshotIndex);
+    resetPendingFlush();
   }
 
   @Override
@@ -154,6 +266,9 @@ class RaftLogWorker implements Runnable {
             "the worker thread is not alive");
         queue.put(task);
       }
+      if (engine != null && scheduled.compareAndSet(false, true)) {
+        engine.schedule(this);
+      }
     } catch (Throwable t) {
       if (t instanceof InterruptedException && !running) {
         LOG.info("Got InterruptedException when adding task " + task
@@ -166,7 +281,7 @@ class RaftLogWorker implements Runnable {
   }
 
   boolean isAlive() {
-    return running && workerThread.isAlive();
+    return running && (workerThread != null? workerThread.isAlive(): engine.isRunning());
   }
 
   @Override
@@ -175,18 +290,7 @@ class RaftLogWorker implements Runnable {
       try {
         Task task = queue.poll(1, TimeUnit.SECONDS);
         if (task != null) {
-          try {
-            task.execute();
-          } catch (IOException e) {
-            if (task.getEndIndex() < lastWrittenIndex) {
-              LOG.info("Ignore IOException when handling task " + task
-                  + " which is smaller than the lastWrittenIndex."
-                  + " There should be a snapshot installed.", e);
-            } else {
-              throw e;
-            }
-          }
-          task.done();
+          executeTask(task);
         }
       } catch (InterruptedException e) {
         if (running) {
@@ -199,29 +303,94 @@ class RaftLogWorker implements Runnable {
         Thread.currentThread().interrupt();
         return;
       } catch (Throwable t) {
-        if (!running) {
-          LOG.info("{} got closed and hit exception",
-              Thread.currentThread().getName(), t);
-        } else {
-          // TODO avoid terminating the jvm, we should
-          // 1) support multiple log directories
-          // 2) only shutdown the raft server impl
-          ExitUtils.terminate(1, Thread.currentThread().getName() + " failed.",
-              t, LOG);
+        handleFailure(t);
+      }
+    }
+  }
+
+  private void executeTask(Task task) throws IOException {
+    try {
+      task.execute();
+    } catch (IOException e) {
+      if (task.getEndIndex() < lastWrittenIndex) {
+        LOG.info("Ignore IOException when handling task " + task
+            + " which is smaller than the lastWrittenIndex."
+            + " There should be a snapshot installed.", e);
+      } else {
+        throw e;
+      }
+    }
+    task.done();
+  }
+
+  private void handleFailure(Throwable t) {
+    if (!running) {
+      LOG.info("{} got closed and hit exception", name, t);
+    } else {
+      // TODO avoid terminating the jvm, we should only shutdown the raft server impl
+      // since the other groups may be placed in the other storage directories
+      ExitUtils.terminate(1, name + " failed.", t, LOG);
+    }
+  }
+
+  /**
+   * Run by the engine: execute the tasks currently in the queue and write
+   * the entries to the file channel without forcing them.
+   */
+  synchronized void executeQueuedTasks() {
+    try {
+      for (int n = queue.size(); n > 0 && running; n--) {
+        final Task task = queue.poll();
+        if (task == null) {
+          break;
         }
+        executeTask(task);
+      }
+      if (out != null && pendingFlushNum > 0) {
+        out.flushBuffer();
       }
+    } catch (Throwable t) {
+      handleFailure(t);
+    }
+  }
+
+  /** Run by the engine after {@link #executeQueuedTasks()}: force the written entries. */
+  synchronized void syncQueuedWrites() {
+    if (!running || pendingFlushNum == 0) {
+      return;
+    }
+    try {
+      flushWrites();
+    } catch (Throwable t) {
+      handleFailure(t);
+    }
+  }
+
+  /** Run by the engine after a batch: schedule this worker again if there are more tasks. */
+  void reschedule() {
+    scheduled.set(false);
+    if (running && !queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+      engine.schedule(this);
     }
   }
 
   private boolean shouldFlush() {
-    return pendingFlushNum >= forceSyncNum ||
-        (pendingFlushNum > 0 && queue.isEmpty());
+    return flushPolicy.shouldFlush(pendingFlushNum, pendingFlushBytes,
+        pendingFlushNum > 0? System.nanoTime() - firstPendingNanos: 0, queue.isEmpty());
+  }
+
+  private void resetPendingFlush() {
+    pendingFlushNum = 0;
+    pendingFlushBytes = 0;
   }
 
   private void flushWrites() throws IOException {
-    if (out != null) {
+    if (out != null && asyncFlush) {
+      flushWritesAsync();
+    } else if (out != null) {
       LOG.debug("flush data to " + out + ", reset pending_sync_number to 0");
       final Timer.Context timerContext = logFlushTimer.get().time();
+      final long startNanos = System.nanoTime();
       try {
         final CompletableFuture<Void> f = stateMachine != null ?
             stateMachine.flushStateMachineData(lastWrittenIndex) :
@@ -233,14 +402,147 @@ class RaftLogWorker implements Runnable {
       } finally {
         timerContext.stop();
       }
+      flushPolicy.onFlush(System.nanoTime() - startNanos);
+      out.dropCacheBehind(advisor);
+      // the entries of the previous segment must be flushed first
+      waitForPendingFinalize();
       updateFlushedIndex();
+      checkpoint();
+    }
+  }
+
+  /**
+   * Write the buffered data to the page cache and let the flush thread force
+   * it to the disk. Multiple submitted flushes are coalesced into one fsync
+   * if the flush thread is still busy with a previous one.
+   */
+  private void flushWritesAsync() throws IOException {
+    // the entries forced by the previous flushes
+    checkpoint();
+    out.flushBuffer();
+    lastWrittenToChannelIndex = lastWrittenIndex;
+    resetPendingFlush();
+    final LogOutputStream stream = out;
+    lastFlush = lastFlush.thenRunAsync(() -> syncToChannelIndex(stream), flushExecutor);
+  }
+
+  /** Run by the flush thread. */
+  private void syncToChannelIndex(LogOutputStream stream) {
+    final long index = lastWrittenToChannelIndex;
+    if (index <= flushedIndex.get()) {
+      return; // already covered by a previous fsync
+    }
+    LOG.debug("{}: sync data to {} up to index {}", name, stream, index);
+    final Timer.Context timerContext = logFlushTimer.get().time();
+    final long startNanos = System.nanoTime();
+    try {
+      final CompletableFuture<Void> f = stateMachine != null ?
+          stateMachine.flushStateMachineData(index) :
+          CompletableFuture.completedFuture(null);
+      stream.sync();
+      stream.dropCacheBehind(advisor);
+      f.get();
+      // the entries of the previous segment must be flushed first
+      lastFinalize.get();
+    } catch (Throwable t) {
+      if (!running) {
+        LOG.info("{} got closed and hit exception when syncing {}", name, stream, t);
+        return;
+      }
+      ExitUtils.terminate(1, name + " failed to sync " + stream, t, LOG);
+    } finally {
+      timerContext.stop();
+    }
+    flushPolicy.onFlush(System.nanoTime() - startNanos);
+    advanceFlushedIndex(index);
+  }
+
+  /**
+   * Wait for all the submitted flushes to complete. It must be called before
+   * the current output stream is closed or replaced.
+   */
+  private void waitForPendingFlush() throws IOException {
+    if (asyncFlush) {
+      try {
+        lastFlush.get();
+      } catch (InterruptedException | ExecutionException e) {
+        throw IOUtils.asIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Wait for the submitted finalizations to complete. It must be called
+   * before updating the flushed index or changing the closed segment files.
+   */
+  private void waitForPendingFinalize() throws IOException {
+    try {
+      lastFinalize.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw IOUtils.asIOException(e);
+    }
+  }
+
+  /** Create the file for the next segment in the background. */
+  private void preparePreallocatedFile() {
+    final File file = storage.getStorageDir().getPreallocatedLogFile();
+    preallocatedFile = CompletableFuture.runAsync(() -> {
+      if (file.exists()) {
+        return;
+      }
+      try {
+        LogOutputStream.createPreallocatedFile(file, segmentMaxSize, preallocatedSize);
+        LOG.debug("{} created {}", name, file);
+      } catch (IOException e) {
+        LOG.warn(name + ": Failed to create " + file, e);
+        try {
+          Files.deleteIfExists(file.toPath());
+        } catch (IOException ignored) {
+        }
+      }
+    }, rollExecutor);
+  }
+
+  /**
+   * Rename the preallocated file, if it is ready, to the given open segment
+   * file and then prepare the next one.
+   *
+   * @return the output stream of the file, or null if there is no file ready.
+   */
+  private LogOutputStream openPreallocatedFile(File openFile) throws IOException {
+    if (rollExecutor == null || !preallocatedFile.isDone()) {
+      return null;
+    }
+    final File file = storage.getStorageDir().getPreallocatedLogFile();
+    LogOutputStream stream = null;
+    if (file.exists()) {
+      FileUtils.move(file, openFile);
+      stream = LogOutputStream.openPreallocated(openFile, segmentMaxSize,
+          preallocatedSize, bufferSize, writeMode);
+    }
+    preparePreallocatedFile();
+    return stream;
+  }
+
+  /** Write a checkpoint of the open segment covering the flushed entries, if enabled. */
+  private void checkpoint() throws IOException {
+    if (checkpoints != null) {
+      checkpoints.checkpoint(flushedIndex.get());
     }
   }
 
   private void updateFlushedIndex() {
-    LOG.debug("{}: updateFlushedIndex {} -> {}", name, lastWrittenIndex, flushedIndex);
-    flushedIndex = lastWrittenIndex;
-    pendingFlushNum = 0;
+    lastWrittenToChannelIndex = lastWrittenIndex;
+    resetPendingFlush();
+    advanceFlushedIndex(lastWrittenIndex);
+  }
+
+  /** A late flush must not move the flushed index backwards, so only take the max. */
+  private void advanceFlushedIndex(long index) {
+    final long previous = flushedIndex.getAndAccumulate(index, Math::max);
+    if (index > previous) {
+      LOG.debug("{}: updateFlushedIndex {} -> {}", name, previous, index);
+    }
     submitUpdateCommitEvent.run();
   }
 
@@ -266,10 +568,19 @@ class RaftLogWorker implements Runnable {
     return addIOTask(new WriteLog(entry));
   }
 
+  /** Write a contiguous batch of entries, all in the current open segment, by a single task. */
+  Task writeLogEntries(List<LogEntryProto> entries) {
+    return addIOTask(new WriteLogBatch(entries));
+  }
+
   Task truncate(TruncationSegments ts) {
     return addIOTask(new TruncateLog(ts));
   }
 
+  Task purge(TruncationSegments ts) {
+    return addIOTask(new PurgeLog(ts));
+  }
+
   private class WriteLog extends Task {
     private final LogEntryProto entry;
     private final CompletableFuture<?> stateMachineFuture;
@@ -282,7 +593,8 @@ class RaftLogWorker implements Runnable {
       } else {
         try {
           // this.entry != entry iff the entry has state machine data
-          this.stateMachineFuture = stateMachine.writeStateMachineData(entry);
+          this.stateMachineFuture = stateMachine.writeStateMachineData(
+              LogEntryCompression.decompress(entry));
         } catch (Throwable e) {
           LOG.error(name + ": writeStateMachineData failed for index " + entry.getIndex()
               + ", entry=" + ServerProtoUtils.toLogEntryString(entry), e);
@@ -304,9 +616,16 @@ class RaftLogWorker implements Runnable {
       Preconditions.assertTrue(lastWrittenIndex + 1 == entry.getIndex(),
           "lastWrittenIndex == %s, entry == %s", lastWrittenIndex, entry);
       out.write(entry);
+      if (checkpoints != null) {
+        checkpoints.add(entry);
+      }
       lastWrittenIndex = entry.getIndex();
-      pendingFlushNum++;
-      if (shouldFlush()) {
+      if (pendingFlushNum++ == 0) {
+        firstPendingNanos = System.nanoTime();
+      }
+      pendingFlushBytes += LogSegment.getEntrySize(entry);
+      // with the engine, the writes are flushed at the end of the batch
+      if (engine == null && shouldFlush()) {
         flushWrites();
       }
     }
@@ -322,36 +641,150 @@ class RaftLogWorker implements Runnable {
     }
   }
 
+  private class WriteLogBatch extends Task {
+    private final List<LogEntryProto> entries;
+    private final CompletableFuture<Long> combined;
+
+    WriteLogBatch(List<LogEntryProto> batch) {
+      Preconditions.assertTrue(!batch.isEmpty(), "The batch is empty");
+      this.entries = new ArrayList<>(batch.size());
+      final List<CompletableFuture<?>> stateMachineFutures = new ArrayList<>();
+      for (LogEntryProto entry : batch) {
+        final LogEntryProto stripped = ProtoUtils.removeStateMachineData(entry);
+        if (stripped != entry && stateMachine != null) {
+          try {
+            stateMachineFutures.add(stateMachine.writeStateMachineData(
+                LogEntryCompression.decompress(entry)));
+          } catch (Throwable e) {
+            LOG.error(name + ": writeStateMachineData failed for index " + entry.getIndex()
+                + ", entry=" + ServerProtoUtils.toLogEntryString(entry), e);
+            throw e;
+          }
+        }
+        entries.add(stripped);
+      }
+      this.combined = stateMachineFutures.isEmpty()? super.getFuture()
+          : super.getFuture().thenCombine(CompletableFuture.allOf(
+              stateMachineFutures.toArray(new CompletableFuture<?>[0])), (index, v) -> index);
+    }
+
+    @Override
+    CompletableFuture<Long> getFuture() {
+      return combined;
+    }
+
+    @Override
+    public void execute() throws IOException {
+      Preconditions.assertTrue(out != null);
+      final LogEntryProto first = entries.get(0);
+      Preconditions.assertTrue(lastWrittenIndex + 1 == first.getIndex(),
+          "lastWrittenIndex == %s, first entry == %s", lastWrittenIndex, first);
+      out.write(entries);
+      if (checkpoints != null) {
+        entries.forEach(checkpoints::add);
+      }
+      lastWrittenIndex = getEndIndex();
+      if (pendingFlushNum == 0) {
+        firstPendingNanos = System.nanoTime();
+      }
+      pendingFlushNum += entries.size();
+      for (LogEntryProto entry : entries) {
+        pendingFlushBytes += LogSegment.getEntrySize(entry);
+      }
+      // with the engine, the writes are flushed at the end of the batch
+      if (engine == null && shouldFlush()) {
+        flushWrites();
+      }
+    }
+
+    @Override
+    long getEndIndex() {
+      return entries.get(entries.size() - 1).getIndex();
+    }
+
+    @Override
+    public String toString() {
+      return super.toString() + ": " + entries.size() + " entries from "
+          + ServerProtoUtils.toLogEntryString(entries.get(0));
+    }
+  }
+
   private class FinalizeLogSegment extends Task {
     private final LogSegment segmentToClose;
+    /**
+     * The records of the closed segment, captured before the segment can be changed.
+     * The index is built from them by the worker or the roll thread, not under the log lock.
+     */
+    private final Supplier<LogSegmentIndex> index;
 
     FinalizeLogSegment(LogSegment segmentToClose) {
       this.segmentToClose = segmentToClose;
+      this.index = !segmentToClose.isOpen() && segmentToClose.numOfEntries() > 0 ?
+          segmentToClose.snapshotIndex() : null;
     }
 
     @Override
     public void execute() throws IOException {
-      IOUtils.cleanup(LOG, out);
+      waitForPendingFlush();
+      final LogOutputStream closing = out;
       out = null;
       Preconditions.assertTrue(segmentToClose != null);
+      // the closed segment has an index file instead
+      final LogSegmentCheckpoint.Writer closingCheckpoints = checkpoints;
+      checkpoints = null;
+      IOUtils.cleanup(LOG, closingCheckpoints);
+
+      final long startIndex = segmentToClose.getStartIndex();
+      final long endIndex = segmentToClose.getEndIndex();
+      final boolean empty = segmentToClose.numOfEntries() == 0;
+      if (rollExecutor == null) {
+        IOUtils.cleanup(LOG, closing);
+        finalizeSegmentFile(startIndex, endIndex, empty);
+        updateFlushedIndex();
+        return;
+      }
+
+      // force, close and rename the file in the background so that the
+      // entries of the next segment can be written in the meantime
+      resetPendingFlush();
+      lastFinalize = lastFinalize.thenRunAsync(() -> {
+        try {
+          if (closing != null) {
+            closing.flush();
+            closing.close();
+          }
+          finalizeSegmentFile(startIndex, endIndex, empty);
+        } catch (Throwable t) {
+          handleFailure(t);
+          throw new CompletionException(t);
+        }
+        if (endIndex > flushedIndex.get()) {
+          advanceFlushedIndex(endIndex);
+        }
+      }, rollExecutor);
+    }
 
-      File openFile = storage.getStorageDir()
-          .getOpenLogFile(segmentToClose.getStartIndex());
+    private void finalizeSegmentFile(long startIndex, long endIndex, boolean empty)
+        throws IOException {
+      File openFile = storage.getStorageDir().getOpenLogFile(startIndex);
       LOG.debug("{} finalizing log segment {}", name, openFile);
       Preconditions.assertTrue(openFile.exists(),
           () -> name + ": File " + openFile + " does not exist, segmentToClose="
               + segmentToClose.toDebugString());
-      if (segmentToClose.numOfEntries() > 0) {
+      if (!empty) {
         // finalize the current open segment
-        File dstFile = storage.getStorageDir().getClosedLogFile(
-            segmentToClose.getStartIndex(), segmentToClose.getEndIndex());
+        File dstFile = storage.getStorageDir().getClosedLogFile(startIndex, endIndex);
         Preconditions.assertTrue(!dstFile.exists());
 
         FileUtils.move(openFile, dstFile);
+        writeLogIndexFile(index == null ? null : index.get());
+        // the closed segment is rarely read; its entries are cached if needed
+        advisor.dontNeed(dstFile);
+        coldMover.submit();
       } else { // delete the file of the empty segment
         FileUtils.deleteFile(openFile);
       }
-      updateFlushedIndex();
+      Files.deleteIfExists(storage.getStorageDir().getOpenLogCheckpointFile(startIndex).toPath());
     }
 
     @Override
@@ -379,10 +812,18 @@ class RaftLogWorker implements Runnable {
       Preconditions.assertTrue(!openFile.exists(), "open file %s exists for %s",
           openFile, name);
       Preconditions.assertTrue(out == null && pendingFlushNum == 0);
-      out = new LogOutputStream(openFile, false, segmentMaxSize,
-          preallocatedSize, bufferSize);
+      out = openPreallocatedFile(openFile);
+      if (out == null) {
+        out = new LogOutputStream(openFile, false, segmentMaxSize,
+            preallocatedSize, bufferSize, writeMode);
+      }
       Preconditions.assertTrue(openFile.exists(), "Failed to create file %s for %s",
           openFile.getAbsolutePath(), name);
+      if (checkpointInterval >= 0) {
+        checkpoints = LogSegmentCheckpoint.Writer.newInstance(
+            storage.getStorageDir().getOpenLogCheckpointFile(newStartIndex),
+            newStartIndex, checkpointInterval);
+      }
     }
 
     @Override
@@ -400,20 +841,49 @@ class RaftLogWorker implements Runnable {
 
     @Override
     void execute() throws IOException {
-      IOUtils.cleanup(null, out);
-      out = null;
+      waitForPendingFlush();
+      waitForPendingFinalize();
+      if (segments.toTruncate != null && segments.toTruncate.isOpen) {
+        truncateOpenSegment(segments.toTruncate);
+      } else {
+        IOUtils.cleanup(null, out, checkpoints);
+        out = null;
+        checkpoints = null;
+        coldMover.runExclusively(this::truncateFiles);
+      }
+      // the flushed entries after the truncation point are gone
+      flushedIndex.set(lastWrittenIndex);
+      updateFlushedIndex();
+    }
+
+    /** Truncate the open segment file in place and keep appending to it. */
+    private void truncateOpenSegment(SegmentFileInfo info) throws IOException {
+      if (out != null) {
+        out.truncate(info.targetLength);
+      } else {
+        final File openFile = storage.getStorageDir().getOpenLogFile(info.startIndex);
+        FileUtils.truncateFile(openFile, info.targetLength);
+        out = new LogOutputStream(openFile, true, segmentMaxSize,
+            preallocatedSize, bufferSize, writeMode);
+      }
+      if (checkpoints != null) {
+        checkpoints.truncate(info.newEndIndex, info.targetLength);
+      }
+      lastWrittenIndex = info.newEndIndex;
+    }
+
+    private void truncateFiles() throws IOException {
       if (segments.toTruncate != null) {
-        File fileToTruncate = segments.toTruncate.isOpen ?
-            storage.getStorageDir().getOpenLogFile(
-                segments.toTruncate.startIndex) :
-            storage.getStorageDir().getClosedLogFile(
-                segments.toTruncate.startIndex,
-                segments.toTruncate.endIndex);
+        // the open segment is truncated by truncateOpenSegment
+        File fileToTruncate = storage.getStorageDir().findClosedLogFile(
+            segments.toTruncate.startIndex, segments.toTruncate.endIndex);
         FileUtils.truncateFile(fileToTruncate, segments.toTruncate.targetLength);
+        deleteLogIndexFile(segments.toTruncate.startIndex, segments.toTruncate.endIndex);
 
-        // rename the file
-        File dstFile = storage.getStorageDir().getClosedLogFile(
-            segments.toTruncate.startIndex, segments.toTruncate.newEndIndex);
+        // rename the file, which stays in the cold directory if it has been moved
+        File dstFile = new File(fileToTruncate.getParentFile(),
+            RaftStorageDirectory.getClosedLogFileName(
+                segments.toTruncate.startIndex, segments.toTruncate.newEndIndex));
         Preconditions.assertTrue(!dstFile.exists());
         FileUtils.move(fileToTruncate, dstFile);
 
@@ -426,9 +896,12 @@ class RaftLogWorker implements Runnable {
           final File delFile;
           if (del.isOpen) {
             delFile = storage.getStorageDir().getOpenLogFile(del.startIndex);
+            Files.deleteIfExists(storage.getStorageDir()
+                .getOpenLogCheckpointFile(del.startIndex).toPath());
           } else {
             delFile = storage.getStorageDir()
-                .getClosedLogFile(del.startIndex, del.endIndex);
+                .findClosedLogFile(del.startIndex, del.endIndex);
+            deleteLogIndexFile(del.startIndex, del.endIndex);
           }
           FileUtils.deleteFile(delFile);
           minStart = Math.min(minStart, del.startIndex);
@@ -437,7 +910,6 @@ class RaftLogWorker implements Runnable {
           lastWrittenIndex = minStart - 1;
         }
       }
-      updateFlushedIndex();
     }
 
     @Override
@@ -456,7 +928,72 @@ class RaftLogWorker implements Runnable {
     }
   }
 
+  private class PurgeLog extends Task {
+    private final TruncationSegments segments;
+
+    PurgeLog(TruncationSegments segments) {
+      this.segments = segments;
+    }
+
+    @Override
+    void execute() throws IOException {
+      waitForPendingFinalize();
+      coldMover.runExclusively(() -> {
+        // delete the oldest segment first so that a crash leaves no gap
+        long previousEnd = RaftServerConstants.INVALID_LOG_INDEX;
+        for (SegmentFileInfo del : segments.toDelete) {
+          Preconditions.assertTrue(!del.isOpen, () -> "Cannot purge open segment " + del);
+          Preconditions.assertTrue(del.startIndex > previousEnd,
+              () -> "Segments to purge are not in ascending order: " + segments);
+          previousEnd = del.endIndex;
+          final File delFile = storage.getStorageDir()
+              .findClosedLogFile(del.startIndex, del.endIndex);
+          LOG.debug("{} purging log segment {}", name, delFile);
+          deleteLogIndexFile(del.startIndex, del.endIndex);
+          FileUtils.deleteFile(delFile);
+        }
+      });
+    }
+
+    @Override
+    long getEndIndex() {
+      long endIndex = RaftServerConstants.INVALID_LOG_INDEX;
+      for (SegmentFileInfo del : segments.toDelete) {
+        endIndex = Math.max(endIndex, del.endIndex);
+      }
+      return endIndex;
+    }
+
+    @Override
+    public String toString() {
+      return super.toString() + ": " + segments;
+    }
+  }
+
+  /** Write the index file of a closed segment; a failure is not fatal. */
+  private void writeLogIndexFile(LogSegmentIndex index) {
+    if (index == null) {
+      return;
+    }
+    final File indexFile = storage.getStorageDir().getClosedLogIndexFile(
+        index.getStartIndex(), index.getEndIndex());
+    try {
+      index.write(indexFile);
+    } catch (IOException e) {
+      LOG.warn(name + ": Failed to write the index file " + indexFile, e);
+    }
+  }
+
+  private void deleteLogIndexFile(long startIndex, long endIndex) {
+    final File indexFile = storage.getStorageDir().findClosedLogIndexFile(startIndex, endIndex);
+    try {
+      Files.deleteIfExists(indexFile.toPath());
+    } catch (IOException e) {
+      LOG.warn(name + ": Failed to delete the index file " + indexFile, e);
+    }
+  }
+
   long getFlushedIndex() {
-    return flushedIndex;
+    return flushedIndex.get();
   }
 }
@@ -41,7 +41,13 @@ public class RaftStorage implements Closeable {
 
   public RaftStorage(File dir, RaftServerConstants.StartupOption option)
       throws IOException {
-    storageDir = new RaftStorageDirectory(dir);
+    this(dir, null, option);
+  }
+
+  /** @param coldDir the directory to move the old closed segments to, or null */
+  public RaftStorage(File dir, File coldDir, RaftServerConstants.StartupOption option)
+      throws IOException {
+    storageDir = new RaftStorageDirectory(dir, coldDir);
     if (option == RaftServerConstants.StartupOption.FORMAT) {
       if (storageDir.analyzeStorage(false) == StorageState.NON_EXISTENT) {
         throw new IOException("Cannot format " + storageDir);
@@ -49,8 +49,13 @@ public class RaftStorageDirectory {
   static final String LOG_FILE_PREFIX = "log";
   static final String STATE_MACHINE = "sm"; // directory containing state machine snapshots
   static final String TEMP = "tmp";
+  static final String LOG_INDEX_SUFFIX = ".index";
+  static final String LOG_CHECKPOINT_PREFIX = LOG_FILE_PREFIX + "_checkpoint_";
+  static final String LOG_PREALLOCATED_FILE_NAME = LOG_FILE_PREFIX + "_preallocated";
   static final Pattern CLOSED_SEGMENT_REGEX = Pattern.compile("log_(\\d+)-(\\d+)");
   static final Pattern OPEN_SEGMENT_REGEX = Pattern.compile("log_inprogress_(\\d+)(?:\\..*)?");
+  /** The suffix of a segment file being copied to the cold storage directory. */
+  static final String COLD_COPY_SUFFIX = ".copying";
 
 
   enum StorageState {
@@ -77,14 +82,21 @@ public class RaftStorageDirectory {
   }
 
   private final File root; // root directory
+  private final File coldRoot; // root directory of the cold closed segments, or null
   private FileLock lock;   // storage lock
 
+  RaftStorageDirectory(File dir) {
+    this(dir, null);
+  }
+
   /**
    * Constructor
    * @param dir directory corresponding to the storage
+   * @param coldDir directory to move the old closed segments to, or null
    */
-  RaftStorageDirectory(File dir) {
+  RaftStorageDirectory(File dir, File coldDir) {
     this.root = dir;
+    this.coldRoot = coldDir;
     this.lock = null;
   }
 
@@ -110,6 +122,9 @@ public class RaftStorageDirectory {
   void clearDirectory() throws IOException {
     clearDirectory(getCurrentDir());
     clearDirectory(getStateMachineDir());
+    if (coldRoot != null) {
+      clearDirectory(getColdDir());
+    }
   }
 
   private static void clearDirectory(File dir) throws IOException {
@@ -130,6 +145,14 @@ public class RaftStorageDirectory {
     return new File(root, STORAGE_DIR_CURRENT);
   }
 
+  /**
+   * @return the directory of the closed segments moved to the cold storage,
+   *         or null if there is no cold storage.
+   */
+  File getColdDir() {
+    return coldRoot == null ? null : new File(coldRoot, STORAGE_DIR_CURRENT);
+  }
+
   File getMetaFile() {
     return new File(getCurrentDir(), META_FILE_NAME);
   }
@@ -147,6 +170,11 @@ public class RaftStorageDirectory {
     return LOG_FILE_PREFIX + "_" + LOG_FILE_INPROGRESS + "_" + startIndex;
   }
 
+  /** @return the checkpoint file of the open log segment. */
+  File getOpenLogCheckpointFile(long startIndex) {
+    return new File(getCurrentDir(), LOG_CHECKPOINT_PREFIX + startIndex);
+  }
+
   File getClosedLogFile(long startIndex, long endIndex) {
     return new File(getCurrentDir(), getClosedLogFileName(startIndex, endIndex));
   }
@@ -155,6 +183,38 @@ public class RaftStorageDirectory {
     return LOG_FILE_PREFIX + "_" + startIndex + "-" + endIndex;
   }
 
+  /** @return the index file of the closed log segment. */
+  File getClosedLogIndexFile(long startIndex, long endIndex) {
+    return new File(getCurrentDir(),
+        getClosedLogFileName(startIndex, endIndex) + LOG_INDEX_SUFFIX);
+  }
+
+  /**
+   * @return the closed log segment file, which is either in the current
+   *         directory or, if it has been moved, in the cold directory.
+   */
+  File findClosedLogFile(long startIndex, long endIndex) {
+    return find(getClosedLogFile(startIndex, endIndex));
+  }
+
+  /** @return the index file of the closed log segment, in the same directory as the segment. */
+  File findClosedLogIndexFile(long startIndex, long endIndex) {
+    return find(getClosedLogIndexFile(startIndex, endIndex));
+  }
+
+  private File find(File file) {
+    if (coldRoot == null || file.exists()) {
+      return file;
+    }
+    final File cold = new File(getColdDir(), file.getName());
+    return cold.exists() ? cold : file;
+  }
+
+  /** @return the spare segment file created in advance for the next open segment. */
+  File getPreallocatedLogFile() {
+    return new File(getCurrentDir(), LOG_PREALLOCATED_FILE_NAME);
+  }
+
   public File getStateMachineDir() {
     return new File(getRoot(), STATE_MACHINE);
   }
@@ -172,15 +232,53 @@ public class RaftStorageDirectory {
   }
 
   /**
-   * @return log segment files sorted based on their index.
+   * @return log segment files sorted based on their index, including the
+   *         closed segments in the cold directory.
    */
   public List<LogPathAndIndex> getLogSegmentFiles() throws IOException {
+    final List<LogPathAndIndex> list = getLogSegmentFiles(getCurrentDir(), false);
+    final File coldDir = getColdDir();
+    if (coldDir != null && coldDir.exists()) {
+      final Set<Long> hot = new HashSet<>();
+      list.forEach(p -> hot.add(p.startIndex));
+      for (LogPathAndIndex p : getLogSegmentFiles(coldDir, true)) {
+        if (hot.contains(p.startIndex)) {
+          // the copy was done but the original was not deleted before a restart
+          Files.delete(p.path);
+          LOG.info("Delete the duplicated cold segment file " + p.path);
+        } else {
+          list.add(p);
+        }
+      }
+    }
+    Collections.sort(list,
+        (o1, o2) -> o1.startIndex == o2.startIndex ?
+            0 : (o1.startIndex < o2.startIndex ? -1 : 1));
+    return list;
+  }
+
+  /** @return the closed log segment files in the current directory, which are not moved yet. */
+  List<LogPathAndIndex> getHotClosedLogSegmentFiles() throws IOException {
+    return getLogSegmentFiles(getCurrentDir(), true);
+  }
+
+  private static List<LogPathAndIndex> getLogSegmentFiles(File dir, boolean closedOnly)
+      throws IOException {
     List<LogPathAndIndex> list = new ArrayList<>();
     try (DirectoryStream<Path> stream =
-             Files.newDirectoryStream(getCurrentDir().toPath())) {
+             Files.newDirectoryStream(dir.toPath())) {
       for (Path path : stream) {
-        for (Pattern pattern : Arrays.asList(CLOSED_SEGMENT_REGEX, OPEN_SEGMENT_REGEX)) {
-          Matcher matcher = pattern.matcher(path.getFileName().toString());
+        final String name = path.getFileName().toString();
+        if (closedOnly && name.endsWith(COLD_COPY_SUFFIX)) {
+          // an incomplete copy to the cold directory
+          Files.delete(path);
+          LOG.info("Delete the incomplete copy " + path);
+          continue;
+        }
+        final List<Pattern> patterns = closedOnly ? Collections.singletonList(CLOSED_SEGMENT_REGEX)
+            : Arrays.asList(CLOSED_SEGMENT_REGEX, OPEN_SEGMENT_REGEX);
+        for (Pattern pattern : patterns) {
+          Matcher matcher = pattern.matcher(name);
           if (matcher.matches()) {
             if (pattern == OPEN_SEGMENT_REGEX && Files.size(path) == 0L) {
               Files.delete(path);
@@ -196,9 +294,6 @@ public class RaftStorageDirectory {
         }
       }
     }
-    Collections.sort(list,
-        (o1, o2) -> o1.startIndex == o2.startIndex ?
-            0 : (o1.startIndex < o2.startIndex ? -1 : 1));
     return list;
   }
 
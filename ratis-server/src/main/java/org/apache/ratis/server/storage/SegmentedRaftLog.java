@@ -22,26 +22,36 @@ import org.apache.ratis.protocol.RaftPeerId;
 import org.apache.ratis.server.RaftServerConfigKeys;
 import org.apache.ratis.server.impl.RaftServerConstants;
 import org.apache.ratis.server.impl.RaftServerImpl;
+import org.apache.ratis.server.impl.RaftServerProxy;
 import org.apache.ratis.server.impl.ServerProtoUtils;
+import org.apache.ratis.server.impl.ServerState;
 import org.apache.ratis.server.protocol.TermIndex;
-import org.apache.ratis.server.storage.LogSegment.LogRecord;
 import org.apache.ratis.server.storage.LogSegment.LogRecordWithEntry;
 import org.apache.ratis.server.storage.RaftStorageDirectory.LogPathAndIndex;
 import org.apache.ratis.proto.RaftProtos.LogEntryProto;
 import org.apache.ratis.util.AutoCloseableLock;
+import org.apache.ratis.util.Daemon;
+import org.apache.ratis.util.IOUtils;
 import org.apache.ratis.util.JavaUtils;
+import org.apache.ratis.util.LogEntryCompression;
 import org.apache.ratis.util.Preconditions;
 import org.apache.ratis.util.ProtoUtils;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * The RaftLog implementation that writes log entries into segmented files in
@@ -103,31 +113,66 @@ public class SegmentedRaftLog extends RaftLog {
   private final RaftLogCache cache;
   private final RaftLogWorker fileLogWorker;
   private final long segmentMaxSize;
+  private final int loadThreads;
 
   public SegmentedRaftLog(RaftPeerId selfId, RaftServerImpl server,
       RaftStorage storage, long lastIndexInSnapshot, RaftProperties properties) {
-    super(selfId, RaftServerConfigKeys.Log.Appender.bufferCapacity(properties)
-        .getSizeInt());
+    this(selfId, server, storage, lastIndexInSnapshot, properties,
+        Optional.ofNullable(server)
+            .map(RaftServerImpl::getProxy)
+            .map(RaftServerProxy::getLogWorkerEngine)
+            .orElse(null));
+  }
+
+  /** @param engine the shared log worker engine, or null to use a dedicated worker thread. */
+  SegmentedRaftLog(RaftPeerId selfId, RaftServerImpl server, RaftStorage storage,
+      long lastIndexInSnapshot, RaftProperties properties, LogWorkerEngine engine) {
+    super(selfId, properties);
     this.server = server;
     this.storage = storage;
     segmentMaxSize = RaftServerConfigKeys.Log.segmentSizeMax(properties).getSize();
-    cache = new RaftLogCache(selfId, storage, properties);
-    fileLogWorker = new RaftLogWorker(selfId, server, storage, properties);
+    loadThreads = RaftServerConfigKeys.Log.loadThreads(properties);
+    final LogEntryCache entryCache = Optional.ofNullable(server)
+        .map(RaftServerImpl::getProxy)
+        .map(RaftServerProxy::getLogEntryCache)
+        .orElseGet(() -> LogEntryCache.newInstance(properties));
+    cache = new RaftLogCache(selfId, storage, properties, entryCache == null ? null :
+        entryCache.newAccount(selfId + "-" + getClass().getSimpleName(), new EntryCacheIndexInfo()));
+    fileLogWorker = new RaftLogWorker(selfId, server, storage, properties, engine,
+        cache::unmapSegmentFile);
     lastCommitted.set(lastIndexInSnapshot);
   }
 
+  /** For the shared entry cache to decide which entries of this log to evict. */
+  private class EntryCacheIndexInfo implements LogEntryCache.IndexInfo {
+    @Override
+    public long getFlushedIndex() {
+      return fileLogWorker.getFlushedIndex();
+    }
+
+    @Override
+    public long getMinIndexToRead() {
+      final ServerState state = server == null ? null : server.getState();
+      if (state == null) {
+        return Long.MAX_VALUE;
+      }
+      long min = state.getLastAppliedIndex() + 1;
+      final long[] followerNextIndices = server.getFollowerNextIndices();
+      if (followerNextIndices != null) {
+        for (long nextIndex : followerNextIndices) {
+          min = Math.min(min, nextIndex);
+        }
+      }
+      return min;
+    }
+  }
+
   @Override
   public void open(long lastIndexInSnapshot, Consumer<LogEntryProto> consumer)
       throws IOException {
     loadLogSegments(lastIndexInSnapshot, consumer);
-    File openSegmentFile = null;
-    LogSegment openSegment = cache.getOpenSegment();
-    if (openSegment != null) {
-      openSegmentFile = storage.getStorageDir()
-          .getOpenLogFile(openSegment.getStartIndex());
-    }
     fileLogWorker.start(Math.max(cache.getEndIndex(), lastIndexInSnapshot),
-        openSegmentFile);
+        cache.getOpenSegment());
     super.open(lastIndexInSnapshot, consumer);
   }
 
@@ -140,18 +185,41 @@ public class SegmentedRaftLog extends RaftLog {
       Consumer<LogEntryProto> logConsumer) throws IOException {
     try(AutoCloseableLock writeLock = writeLock()) {
       List<LogPathAndIndex> paths = storage.getStorageDir().getLogSegmentFiles();
-      int i = 0;
-      for (LogPathAndIndex pi : paths) {
-        boolean isOpen = pi.endIndex == RaftServerConstants.INVALID_LOG_INDEX;
-        // During the initial loading, we can only confirm the committed
-        // index based on the snapshot. This means if a log segment is not kept
-        // in cache after the initial loading, later we have to load its content
-        // again for updating the state machine.
-        // TODO we should let raft peer persist its committed index periodically
-        // so that during the initial loading we can apply part of the log
-        // entries to the state machine
-        boolean keepEntryInCache = (paths.size() - i++) <= cache.getMaxCachedSegments();
-        cache.loadSegment(pi, isOpen, keepEntryInCache, logConsumer);
+      // load the segments in parallel but add them to the cache in order
+      final ExecutorService pool = loadThreads > 1 && paths.size() > 1 ?
+          Executors.newFixedThreadPool(Math.min(loadThreads, paths.size()), Daemon::new) : null;
+      final Executor executor = pool != null ? pool : Runnable::run;
+      try {
+        final List<CompletableFuture<Runnable>> futures = new ArrayList<>(paths.size());
+        int i = 0;
+        for (LogPathAndIndex pi : paths) {
+          // During the initial loading, we can only confirm the committed
+          // index based on the snapshot. This means if a log segment is not kept
+          // in cache after the initial loading, later we have to load its content
+          // again for updating the state machine.
+          // TODO we should let raft peer persist its committed index periodically
+          // so that during the initial loading we can apply part of the log
+          // entries to the state machine
+          final boolean keepEntryInCache = (paths.size() - i++) <= cache.getMaxCachedSegments();
+          futures.add(CompletableFuture.supplyAsync(() -> {
+            try {
+              return loadSegment(pi, keepEntryInCache, lastIndexInSnapshot, logConsumer);
+            } catch (IOException e) {
+              throw new CompletionException(e);
+            }
+          }, executor));
+        }
+        for (CompletableFuture<Runnable> f : futures) {
+          try {
+            f.join().run();
+          } catch (CompletionException e) {
+            throw IOUtils.asIOException(JavaUtils.unwrapCompletionException(e));
+          }
+        }
+      } finally {
+        if (pool != null) {
+          pool.shutdownNow();
+        }
       }
 
       // if the largest index is smaller than the last index in snapshot, we do
@@ -167,22 +235,62 @@ public class SegmentedRaftLog extends RaftLog {
     }
   }
 
+  /**
+   * Load the segment of the given path. The segments already covered by the
+   * snapshot are not parsed if they have an index file; their records are
+   * loaded lazily. Their configuration entries are still passed to the
+   * consumer since the configuration is not saved in the snapshot.
+   *
+   * @return a task to add the segment to the cache and then pass its
+   *         configuration entries to the consumer.
+   */
+  private Runnable loadSegment(LogPathAndIndex pi, boolean keepEntryInCache,
+      long lastIndexInSnapshot, Consumer<LogEntryProto> logConsumer) throws IOException {
+    final boolean isOpen = pi.endIndex == RaftServerConstants.INVALID_LOG_INDEX;
+    final List<LogEntryProto> confEntries = new ArrayList<>();
+    final Consumer<LogEntryProto> confConsumer = logConsumer == null ? null : entry -> {
+      if (ProtoUtils.isConfigurationLogEntry(entry)) {
+        confEntries.add(entry);
+      }
+    };
+
+    LogSegment lazy = null;
+    if (!isOpen && !keepEntryInCache && pi.endIndex <= lastIndexInSnapshot) {
+      lazy = cache.newLazySegment(pi, confConsumer);
+    }
+    final LogSegment segment = lazy != null ? lazy
+        : cache.loadSegment(pi, isOpen, keepEntryInCache, confConsumer);
+    return () -> {
+      cache.addSegment(segment);
+      if (logConsumer != null) {
+        confEntries.forEach(logConsumer);
+      }
+    };
+  }
+
   @Override
   public LogEntryProto get(long index) throws RaftLogIOException {
     checkLogState();
-    LogSegment segment;
-    LogRecordWithEntry recordAndEntry;
-    try (AutoCloseableLock readLock = readLock()) {
-      segment = cache.getSegment(index);
-      if (segment == null) {
-        return null;
+    LogSegment segment = null;
+    LogRecordWithEntry recordAndEntry = null;
+    while (recordAndEntry == null) {
+      try (AutoCloseableLock readLock = readLock()) {
+        segment = cache.getSegment(index);
+        if (segment == null) {
+          return null;
+        }
+        if (!segment.isLazy()) {
+          recordAndEntry = segment.getEntryWithoutLoading(index);
+          if (recordAndEntry == null) {
+            return null;
+          }
+          if (recordAndEntry.hasEntry()) {
+            return recordAndEntry.getEntry();
+          }
+        }
       }
-      recordAndEntry = segment.getEntryWithoutLoading(index);
       if (recordAndEntry == null) {
-        return null;
-      }
-      if (recordAndEntry.hasEntry()) {
-        return recordAndEntry.getEntry();
+        loadRecords(segment);
       }
     }
 
@@ -200,7 +308,9 @@ public class SegmentedRaftLog extends RaftLog {
     }
 
     try {
-      return new EntryWithData(entry, server.getStateMachine().readStateMachineData(entry));
+      // the state machine always gets the uncompressed entry
+      return new EntryWithData(entry, server.getStateMachine().readStateMachineData(
+          LogEntryCompression.decompress(entry)));
     } catch (Throwable e) {
       final String err = server.getId() + ": Failed readStateMachineData for " +
           ServerProtoUtils.toLogEntryString(entry);
@@ -220,21 +330,53 @@ public class SegmentedRaftLog extends RaftLog {
     }
   }
 
+  /**
+   * Read the cache under the read lock. If a segment between the given indices
+   * (inclusive) is lazy, its records are loaded without holding the lock and
+   * then the read is retried.
+   */
+  private <T> T readLoaded(long startIndex, long endIndex, Supplier<T> reader) {
+    for(;;) {
+      final LogSegment lazy;
+      try(AutoCloseableLock readLock = readLock()) {
+        lazy = cache.getLazySegment(startIndex, endIndex);
+        if (lazy == null) {
+          return reader.get();
+        }
+      }
+      try {
+        loadRecords(lazy);
+      } catch (RaftLogIOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /** Load the records of the given lazy segment; it is not an error if it has been purged. */
+  private void loadRecords(LogSegment lazy) throws RaftLogIOException {
+    try {
+      lazy.loadRecords();
+    } catch (RaftLogIOException e) {
+      try(AutoCloseableLock readLock = readLock()) {
+        if (cache.getSegment(lazy.getStartIndex()) != lazy) {
+          LOG.debug("{}: {} has been purged", getSelfId(), lazy, e);
+          return;
+        }
+      }
+      throw e;
+    }
+  }
+
   @Override
   public TermIndex getTermIndex(long index) {
     checkLogState();
-    try(AutoCloseableLock readLock = readLock()) {
-      LogRecord record = cache.getLogRecord(index);
-      return record != null ? record.getTermIndex() : null;
-    }
+    return readLoaded(index, index, () -> cache.getTermIndex(index));
   }
 
   @Override
   public TermIndex[] getEntries(long startIndex, long endIndex) {
     checkLogState();
-    try(AutoCloseableLock readLock = readLock()) {
-      return cache.getTermIndices(startIndex, endIndex);
-    }
+    return readLoaded(startIndex, endIndex - 1, () -> cache.getTermIndices(startIndex, endIndex));
   }
 
   @Override
@@ -262,6 +404,18 @@ public class SegmentedRaftLog extends RaftLog {
     return CompletableFuture.completedFuture(index);
   }
 
+  @Override
+  public CompletableFuture<Long> purge(long suggestedIndex) {
+    checkLogState();
+    try(AutoCloseableLock writeLock = writeLock()) {
+      final RaftLogCache.TruncationSegments ts = cache.purge(suggestedIndex);
+      if (ts != null) {
+        return fileLogWorker.purge(ts).getFuture();
+      }
+    }
+    return CompletableFuture.completedFuture(RaftServerConstants.INVALID_LOG_INDEX);
+  }
+
   @Override
   CompletableFuture<Long> appendEntry(LogEntryProto entry) {
 
@@ -272,25 +426,7 @@ public class SegmentedRaftLog extends RaftLog {
     }
     try(AutoCloseableLock writeLock = writeLock()) {
       validateLogEntry(entry);
-      final LogSegment currentOpenSegment = cache.getOpenSegment();
-      if (currentOpenSegment == null) {
-        cache.addOpenSegment(entry.getIndex());
-        fileLogWorker.startLogSegment(entry.getIndex());
-      } else if (isSegmentFull(currentOpenSegment, entry)) {
-        cache.rollOpenSegment(true);
-        fileLogWorker.rollLogSegment(currentOpenSegment);
-        checkAndEvictCache();
-      } else if (currentOpenSegment.numOfEntries() > 0 &&
-          currentOpenSegment.getLastTermIndex().getTerm() != entry.getTerm()) {
-        // the term changes
-        final long currentTerm = currentOpenSegment.getLastTermIndex().getTerm();
-        Preconditions.assertTrue(currentTerm < entry.getTerm(),
-            "open segment's term %s is larger than the new entry's term %s",
-            currentTerm, entry.getTerm());
-        cache.rollOpenSegment(true);
-        fileLogWorker.rollLogSegment(currentOpenSegment);
-        checkAndEvictCache();
-      }
+      prepareOpenSegment(entry);
 
       // If the entry has state machine data, then the entry should be inserted
       // to statemachine first and then to the cache. Not following the order
@@ -306,18 +442,85 @@ public class SegmentedRaftLog extends RaftLog {
     }
   }
 
-  private boolean isSegmentFull(LogSegment segment, LogEntryProto entry) {
-    if (segment.getTotalSize() >= segmentMaxSize) {
+  /** Start a new open segment or roll the current one if the entry cannot be appended to it. */
+  private void prepareOpenSegment(LogEntryProto entry) {
+    final LogSegment currentOpenSegment = cache.getOpenSegment();
+    if (currentOpenSegment == null) {
+      cache.addOpenSegment(entry.getIndex());
+      fileLogWorker.startLogSegment(entry.getIndex());
+    } else if (isSegmentFull(currentOpenSegment.getTotalSize(), entry)) {
+      cache.rollOpenSegment(true);
+      fileLogWorker.rollLogSegment(currentOpenSegment);
+      checkAndEvictCache();
+    } else if (currentOpenSegment.numOfEntries() > 0 &&
+        currentOpenSegment.getLastTermIndex().getTerm() != entry.getTerm()) {
+      // the term changes
+      final long currentTerm = currentOpenSegment.getLastTermIndex().getTerm();
+      Preconditions.assertTrue(currentTerm < entry.getTerm(),
+          "open segment's term %s is larger than the new entry's term %s",
+          currentTerm, entry.getTerm());
+      cache.rollOpenSegment(true);
+      fileLogWorker.rollLogSegment(currentOpenSegment);
+      checkAndEvictCache();
+    }
+  }
+
+  private boolean isSegmentFull(long segmentSize, LogEntryProto entry) {
+    if (segmentSize >= segmentMaxSize) {
       return true;
     } else {
       final long entrySize = LogSegment.getEntrySize(entry);
       // if entry size is greater than the max segment size, write it directly
       // into the current segment
       return entrySize <= segmentMaxSize &&
-          segment.getTotalSize() + entrySize > segmentMaxSize;
+          segmentSize + entrySize > segmentMaxSize;
+    }
+  }
+
+  /**
+   * Append the entries starting from the given offset. The entries going to
+   * the same segment are written by a single batch task, so the returned list
+   * has a future for each batch instead of each entry.
+   */
+  private void appendEntries(LogEntryProto[] entries, int offset,
+      List<CompletableFuture<Long>> futures) {
+    final List<LogEntryProto> batch = new ArrayList<>();
+    long batchSize = 0;
+    for (int i = offset; i < entries.length; i++) {
+      final LogEntryProto entry = entries[i];
+      if (!batch.isEmpty()) {
+        final LogEntryProto previous = batch.get(batch.size() - 1);
+        Preconditions.assertTrue(entry.getIndex() == previous.getIndex() + 1
+                && entry.getTerm() >= previous.getTerm(),
+            "The entries are not contiguous: previous=%s, entry=%s",
+            ServerProtoUtils.toTermIndex(previous), ServerProtoUtils.toTermIndex(entry));
+        final long segmentSize = cache.getOpenSegment().getTotalSize() + batchSize;
+        if (isSegmentFull(segmentSize, entry) || previous.getTerm() != entry.getTerm()) {
+          futures.add(appendBatch(batch));
+          batchSize = 0;
+        }
+      }
+      if (batch.isEmpty()) {
+        validateLogEntry(entry);
+        prepareOpenSegment(entry);
+      }
+      batch.add(entry);
+      batchSize += LogSegment.getEntrySize(entry);
+    }
+    if (!batch.isEmpty()) {
+      futures.add(appendBatch(batch));
     }
   }
 
+  private CompletableFuture<Long> appendBatch(List<LogEntryProto> batch) {
+    // as appendEntry, write the state machine data before adding to the cache
+    final CompletableFuture<Long> writeFuture =
+        fileLogWorker.writeLogEntries(batch).getFuture();
+    batch.forEach(cache::appendEntry);
+    batch.clear();
+    return writeFuture;
+  }
+
   @Override
   public List<CompletableFuture<Long>> append(LogEntryProto... entries) {
 
@@ -372,8 +575,12 @@ public class SegmentedRaftLog extends RaftLog {
       } else {
         futures = new ArrayList<>(entries.length - index);
       }
-      for (int i = index; i < entries.length; i++) {
-        futures.add(appendEntry(entries[i]));
+      try {
+        appendEntries(entries, index, futures);
+      } catch (Throwable throwable) {
+        LOG.error(getSelfId() + ": exception while appending entries from index "
+            + entries[index].getIndex(), throwable);
+        throw throwable;
       }
       return futures;
     }
@@ -405,7 +612,9 @@ public class SegmentedRaftLog extends RaftLog {
   @Override
   public void syncWithSnapshot(long lastSnapshotIndex) {
     fileLogWorker.syncWithSnapshot(lastSnapshotIndex);
-    // TODO purge log files and normal/tmp/corrupt snapshot files
+    // purge the closed segments which are covered by the snapshot
+    purge(lastSnapshotIndex);
+    // TODO purge normal/tmp/corrupt snapshot files
     // if the last index in snapshot is larger than the index of the last
     // log entry, we should delete all the log entries and their cache to avoid
     // gaps between log segments.
@@ -413,7 +622,8 @@ public class SegmentedRaftLog extends RaftLog {
 
   @Override
   public boolean isConfigEntry(TermIndex ti) {
-    return cache.isConfigEntry(ti);
+    final long index = ti.getIndex();
+    return readLoaded(index, index, () -> cache.isConfigEntry(ti));
   }
 
   @Override
@@ -0,0 +1,390 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.protocol.RaftGroupId;
+import org.apache.ratis.protocol.RaftPeerId;
+import org.apache.ratis.server.impl.RaftServerConstants;
+import org.apache.ratis.server.impl.RaftServerImpl;
+import org.apache.ratis.server.impl.ServerProtoUtils;
+import org.apache.ratis.server.protocol.TermIndex;
+import org.apache.ratis.server.storage.SharedLogStore.Record;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.statemachine.StateMachine;
+import org.apache.ratis.util.AutoCloseableLock;
+import org.apache.ratis.util.JavaUtils;
+import org.apache.ratis.util.LogEntryCompression;
+import org.apache.ratis.util.ProtoUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A {@link RaftLog} storing its entries in the {@link SharedLogStore} of the
+ * server, which interleaves the entries of all the groups into shared files.
+ * This log keeps the term-index and the location of each entry in memory.
+ * The metadata and the snapshots are still stored in its own {@link RaftStorage}.
+ */
+public class SharedFileRaftLog extends RaftLog {
+  private final RaftGroupId groupId;
+  private final RaftServerImpl server;
+  private final StateMachine stateMachine;
+  private final RaftStorage storage;
+  private final SharedLogStore store;
+
+  /** The records in index order, protected by the log's lock. */
+  private final List<Record> records = new ArrayList<>();
+  private final AtomicLong flushedIndex = new AtomicLong(RaftServerConstants.INVALID_LOG_INDEX);
+  /** Increased by truncation so that the older writes do not update the flushed index. */
+  private long truncationEpoch = 0;
+
+  public SharedFileRaftLog(RaftPeerId selfId, RaftGroupId groupId, RaftServerImpl server,
+      RaftStorage storage, SharedLogStore store, RaftProperties properties) {
+    super(selfId, properties);
+    this.groupId = groupId;
+    this.server = server;
+    this.stateMachine = server != null ? server.getStateMachine() : null;
+    this.storage = storage;
+    this.store = store;
+  }
+
+  @Override
+  public void open(long lastIndexInSnapshot, Consumer<LogEntryProto> consumer)
+      throws IOException {
+    try(AutoCloseableLock writeLock = writeLock()) {
+      records.addAll(store.open(groupId));
+      if (!records.isEmpty() && getLastRecord().getIndex() < lastIndexInSnapshot) {
+        // avoid holes between the log and the snapshot; see SegmentedRaftLog
+        LOG.warn("{}: End log index {} is smaller than last index in snapshot {}",
+            getSelfId(), getLastRecord().getIndex(), lastIndexInSnapshot);
+        records.clear();
+        store.purge(groupId, lastIndexInSnapshot + 1);
+      }
+      if (consumer != null) {
+        for (Record r : records) {
+          if (r.isConfig()) {
+            consumer.accept(store.read(r));
+          }
+        }
+      }
+      final long lastIndex = records.isEmpty() ?
+          RaftServerConstants.INVALID_LOG_INDEX : getLastRecord().getIndex();
+      flushedIndex.set(Math.max(lastIndex, lastIndexInSnapshot));
+    }
+    super.open(lastIndexInSnapshot, consumer);
+  }
+
+  private Record getLastRecord() {
+    return records.get(records.size() - 1);
+  }
+
+  private Record getRecord(long index) {
+    if (records.isEmpty()) {
+      return null;
+    }
+    final long i = index - records.get(0).getIndex();
+    return i >= 0 && i < records.size() ? records.get(Math.toIntExact(i)) : null;
+  }
+
+  @Override
+  public long getStartIndex() {
+    try(AutoCloseableLock readLock = readLock()) {
+      return records.isEmpty() ? RaftServerConstants.INVALID_LOG_INDEX : records.get(0).getIndex();
+    }
+  }
+
+  @Override
+  public LogEntryProto get(long index) throws RaftLogIOException {
+    checkLogState();
+    final Record record;
+    try(AutoCloseableLock readLock = readLock()) {
+      record = getRecord(index);
+    }
+    if (record == null) {
+      return null;
+    }
+    // read the file without holding the lock
+    try {
+      return store.read(record);
+    } catch (IOException e) {
+      throw new RaftLogIOException(getSelfId() + ": Failed to read entry " + record.getTermIndex(), e);
+    }
+  }
+
+  @Override
+  public EntryWithData getEntryWithData(long index) throws RaftLogIOException {
+    final LogEntryProto entry = get(index);
+    if (!ProtoUtils.shouldReadStateMachineData(entry)) {
+      return new EntryWithData(entry, null);
+    }
+
+    try {
+      // the state machine always gets the uncompressed entry
+      return new EntryWithData(entry, stateMachine.readStateMachineData(
+          LogEntryCompression.decompress(entry)));
+    } catch (Throwable e) {
+      final String err = getSelfId() + ": Failed readStateMachineData for " +
+          ServerProtoUtils.toLogEntryString(entry);
+      LOG.error(err, e);
+      throw new RaftLogIOException(err, JavaUtils.unwrapCompletionException(e));
+    }
+  }
+
+  @Override
+  public TermIndex getTermIndex(long index) {
+    checkLogState();
+    try(AutoCloseableLock readLock = readLock()) {
+      final Record record = getRecord(index);
+      return record != null ? record.getTermIndex() : null;
+    }
+  }
+
+  @Override
+  public TermIndex[] getEntries(long startIndex, long endIndex) {
+    checkLogState();
+    try(AutoCloseableLock readLock = readLock()) {
+      if (records.isEmpty()) {
+        return TermIndex.EMPTY_TERMINDEX_ARRAY;
+      }
+      final long first = records.get(0).getIndex();
+      if (startIndex < 0 || startIndex < first) {
+        throw new IndexOutOfBoundsException("startIndex = " + startIndex
+            + ", log starts from index " + first);
+      }
+      final long realEnd = Math.min(getLastRecord().getIndex() + 1, endIndex);
+      if (startIndex >= realEnd) {
+        return TermIndex.EMPTY_TERMINDEX_ARRAY;
+      }
+      final TermIndex[] entries = new TermIndex[Math.toIntExact(realEnd - startIndex)];
+      for (int i = 0; i < entries.length; i++) {
+        entries[i] = records.get(Math.toIntExact(startIndex - first) + i).getTermIndex();
+      }
+      return entries;
+    }
+  }
+
+  @Override
+  public TermIndex getLastEntryTermIndex() {
+    checkLogState();
+    try(AutoCloseableLock readLock = readLock()) {
+      return records.isEmpty() ? null : getLastRecord().getTermIndex();
+    }
+  }
+
+  @Override
+  CompletableFuture<Long> truncate(long index) {
+    checkLogState();
+    try(AutoCloseableLock writeLock = writeLock()) {
+      if (records.isEmpty() || index > getLastRecord().getIndex()) {
+        return CompletableFuture.completedFuture(index);
+      }
+      SharedLogStore.truncate(records, index);
+      synchronized (flushedIndex) {
+        truncationEpoch++;
+        flushedIndex.set(Math.min(flushedIndex.get(), index - 1));
+      }
+      return store.truncate(groupId, index);
+    }
+  }
+
+  @Override
+  public CompletableFuture<Long> purge(long suggestedIndex) {
+    checkLogState();
+    try(AutoCloseableLock writeLock = writeLock()) {
+      // as the open segment of SegmentedRaftLog, the last entry is never purged
+      final long purgeIndex = records.isEmpty() ? RaftServerConstants.INVALID_LOG_INDEX :
+          Math.min(suggestedIndex, getLastRecord().getIndex() - 1);
+      if (records.isEmpty() || purgeIndex < records.get(0).getIndex()) {
+        return CompletableFuture.completedFuture(RaftServerConstants.INVALID_LOG_INDEX);
+      }
+      SharedLogStore.purge(records, purgeIndex + 1);
+      LOG.info("{}: purged the log up to index {}", getSelfId(), purgeIndex);
+      return store.purge(groupId, purgeIndex + 1).thenApply(i -> purgeIndex);
+    }
+  }
+
+  @Override
+  CompletableFuture<Long> appendEntry(LogEntryProto entry) {
+    return appendEntries(Collections.singletonList(entry)).get(0);
+  }
+
+  /**
+   * Append the entries and then flush the state machine data once for all of them.
+   * @return a future for each entry, completed when the entry is persisted.
+   */
+  private List<CompletableFuture<Long>> appendEntries(List<LogEntryProto> entries) {
+    checkLogState();
+    try(AutoCloseableLock writeLock = writeLock()) {
+      final List<CompletableFuture<Long>> writeFutures = new ArrayList<>(entries.size());
+      final List<CompletableFuture<?>> stateMachineFutures = new ArrayList<>(entries.size());
+      for (LogEntryProto entry : entries) {
+        validateLogEntry(entry);
+        // as RaftLogWorker, write the state machine data before the entry
+        final LogEntryProto stripped = ProtoUtils.removeStateMachineData(entry);
+        stateMachineFutures.add(stripped == entry || stateMachine == null ?
+            null : stateMachine.writeStateMachineData(LogEntryCompression.decompress(entry)));
+
+        final Record record = new Record(stripped);
+        writeFutures.add(store.append(groupId, record));
+        records.add(record);
+      }
+
+      final long epoch;
+      synchronized (flushedIndex) {
+        epoch = truncationEpoch;
+      }
+      // the writes complete in order, so flush after the last one
+      final CompletableFuture<Long> lastWrite = writeFutures.get(writeFutures.size() - 1);
+      final CompletableFuture<?> batchFlushed = stateMachine == null ? lastWrite :
+          lastWrite.thenCompose(stateMachine::flushStateMachineData);
+
+      final List<CompletableFuture<Long>> futures = new ArrayList<>(entries.size());
+      for (int i = 0; i < entries.size(); i++) {
+        final CompletableFuture<Long> flushed = writeFutures.get(i)
+            .thenCombine(batchFlushed, (index, v) -> index)
+            .thenApply(index -> {
+              updateFlushedIndex(index, epoch);
+              return index;
+            });
+        final CompletableFuture<?> stateMachineFuture = stateMachineFutures.get(i);
+        futures.add(stateMachineFuture == null ? flushed
+            : flushed.thenCombine(stateMachineFuture, (index, stateMachineResult) -> index));
+      }
+      return futures;
+    } catch (Throwable throwable) {
+      LOG.error(getSelfId() + "exception while appending entries from index:" +
+          entries.get(0).getIndex(), throwable);
+      throw throwable;
+    }
+  }
+
+  private void updateFlushedIndex(long index, long epoch) {
+    synchronized (flushedIndex) {
+      if (epoch != truncationEpoch || index <= flushedIndex.get()) {
+        return;
+      }
+      flushedIndex.set(index);
+    }
+    if (server != null) {
+      server.submitUpdateCommitEvent();
+    }
+  }
+
+  @Override
+  public List<CompletableFuture<Long>> append(LogEntryProto... entries) {
+    checkLogState();
+    if (entries == null || entries.length == 0) {
+      return Collections.emptyList();
+    }
+
+    try(AutoCloseableLock writeLock = writeLock()) {
+      // see SegmentedRaftLog#append for why the duplicated entries are skipped
+      int index = 0;
+      long truncateIndex = -1;
+      for (; index < entries.length; index++) {
+        final Record stored = getRecord(entries[index].getIndex());
+        if (stored == null) {
+          break;
+        }
+        if (stored.getTermIndex().getTerm() != entries[index].getTerm()) {
+          truncateIndex = stored.getIndex();
+          if (server != null) {
+            for (long i = truncateIndex; i <= getLastRecord().getIndex(); i++) {
+              try {
+                server.failClientRequest(get(i));
+              } catch (RaftLogIOException e) {
+                LOG.error("Failed to read log " + getRecord(i).getTermIndex(), e);
+              }
+            }
+          }
+          break;
+        }
+      }
+
+      final List<CompletableFuture<Long>> futures;
+      if (truncateIndex != -1) {
+        futures = new ArrayList<>(entries.length - index + 1);
+        futures.add(truncate(truncateIndex));
+      } else {
+        futures = new ArrayList<>(entries.length - index);
+      }
+      if (index < entries.length) {
+        futures.addAll(appendEntries(Arrays.asList(entries).subList(index, entries.length)));
+      }
+      return futures;
+    }
+  }
+
+  @Override
+  public long getLatestFlushedIndex() {
+    return flushedIndex.get();
+  }
+
+  @Override
+  public void writeMetadata(long term, RaftPeerId votedFor) throws IOException {
+    storage.getMetaFile().set(term, votedFor != null ? votedFor.toString() : null);
+  }
+
+  @Override
+  public Metadata loadMetadata() throws IOException {
+    return new Metadata(
+        RaftPeerId.getRaftPeerId(storage.getMetaFile().getVotedFor()),
+        storage.getMetaFile().getTerm());
+  }
+
+  @Override
+  public void syncWithSnapshot(long lastSnapshotIndex) {
+    try(AutoCloseableLock writeLock = writeLock()) {
+      SharedLogStore.purge(records, lastSnapshotIndex + 1);
+      synchronized (flushedIndex) {
+        truncationEpoch++;
+        flushedIndex.set(lastSnapshotIndex);
+      }
+      store.purge(groupId, lastSnapshotIndex + 1);
+    }
+  }
+
+  @Override
+  public boolean isConfigEntry(TermIndex ti) {
+    try(AutoCloseableLock readLock = readLock()) {
+      final Record record = getRecord(ti.getIndex());
+      return record != null && record.getTermIndex().equals(ti) && record.isConfig();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try(AutoCloseableLock writeLock = writeLock()) {
+      super.close();
+      records.clear();
+    }
+    storage.close();
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + ", " + groupId;
+  }
+}
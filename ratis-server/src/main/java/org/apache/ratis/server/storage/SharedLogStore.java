@@ -0,0 +1,673 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.protocol.ChecksumException;
+import org.apache.ratis.protocol.RaftGroupId;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.server.impl.ServerProtoUtils;
+import org.apache.ratis.server.protocol.TermIndex;
+import org.apache.ratis.thirdparty.com.google.protobuf.CodedInputStream;
+import org.apache.ratis.thirdparty.com.google.protobuf.CodedOutputStream;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.util.ChecksumProvider;
+import org.apache.ratis.util.ChecksumProvider.BufferChecksum;
+import org.apache.ratis.util.Daemon;
+import org.apache.ratis.util.ExitUtils;
+import org.apache.ratis.util.FileUtils;
+import org.apache.ratis.util.IOUtils;
+import org.apache.ratis.util.Preconditions;
+import org.apache.ratis.util.ProtoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A write-ahead log shared by all the groups in a server.  The entries of
+ * the groups are interleaved into a sequence of append-only files so that
+ * the writes of many groups become sequential I/O with one fsync per batch.
+ *
+ * A file has the header "RAFTWAL1" followed by the records.  A record is
+ * framed as the entries of a log segment, i.e. a varint length, the body and
+ * a 4-byte CRC32C.  The body is the group id, a {@link RecordType} byte and
+ * the payload.
+ *
+ * A file is deleted once it is not the current file, all the older files
+ * have been deleted and all of its entries have been purged by their groups
+ * or their groups have been removed.
+ */
+public class SharedLogStore implements Runnable, Closeable {
+  static final Logger LOG = LoggerFactory.getLogger(SharedLogStore.class);
+
+  /** The name of the directory of the shared files under a storage directory. */
+  public static final String DIR_NAME = "shared-log";
+  static final String FILE_PREFIX = "wal_";
+  private static final Pattern FILE_REGEX = Pattern.compile(FILE_PREFIX + "(\\d+)");
+  static final String HEADER_STR = "RAFTWAL1";
+  static final byte[] HEADER_BYTES = HEADER_STR.getBytes(StandardCharsets.UTF_8);
+  /** The size of the group id and the record type in a record body. */
+  private static final int BODY_HEADER_SIZE = 17;
+
+  enum RecordType {
+    /** The payload is a {@link LogEntryProto}. */
+    ENTRY,
+    /** The payload is an index; the entries of the group from the index are truncated. */
+    TRUNCATE,
+    /** The payload is an index; the entries of the group before the index are purged. */
+    PURGE,
+    /** The payload is unused; the group is removed and all its entries are discarded. */
+    REMOVE
+  }
+
+  /**
+   * Create a store in the directory {@link #DIR_NAME} of a storage directory.
+   * Since the store holds the entries of all the groups, an existing directory
+   * on any volume is always reused; otherwise, the volume is chosen by the
+   * given policy as for a new group.
+   *
+   * @return a new store, or null if the shared file is disabled.
+   */
+  public static SharedLogStore newInstance(RaftProperties properties, StorageDirPlacementPolicy policy) {
+    if (!RaftServerConfigKeys.Log.sharedFileEnabled(properties)) {
+      return null;
+    }
+    final List<File> volumes = RaftServerConfigKeys.storageDirs(properties);
+    final List<File> existing = volumes.stream()
+        .map(v -> new File(v, DIR_NAME))
+        .filter(File::isDirectory)
+        .collect(Collectors.toList());
+    Preconditions.assertTrue(existing.size() <= 1,
+        () -> "More than one " + DIR_NAME + " directories found: " + existing);
+
+    final File dir;
+    if (!existing.isEmpty()) {
+      dir = existing.get(0);
+    } else {
+      final File[] empty = {};
+      final Map<File, Integer> numGroupsPerVolume = new LinkedHashMap<>();
+      volumes.forEach(v -> numGroupsPerVolume.put(v,
+          Optional.ofNullable(v.listFiles(File::isDirectory)).orElse(empty).length));
+      dir = policy.chooseVolume(numGroupsPerVolume)
+          .map(v -> new File(v, DIR_NAME))
+          .orElseThrow(() -> new IllegalStateException("No storage directory found."));
+    }
+    return new SharedLogStore(dir,
+        RaftServerConfigKeys.Log.sharedFileSizeMax(properties).getSize(),
+        RaftServerConfigKeys.Log.writeBufferSize(properties).getSizeInt());
+  }
+
+  /** The term-index and the location of an entry in the shared files. */
+  static class Record {
+    private final TermIndex termIndex;
+    private final boolean isConfig;
+    /** The location, which is set by the writer thread before the entry is released. */
+    private long fileId;
+    private long offset;
+    private int size;
+    /** The entry before it is written to the file; it becomes null afterward. */
+    private volatile LogEntryProto entry;
+
+    Record(LogEntryProto entry) {
+      this.termIndex = ServerProtoUtils.toTermIndex(entry);
+      this.isConfig = ProtoUtils.isConfigurationLogEntry(entry);
+      this.entry = entry;
+    }
+
+    private Record(LogEntryProto entry, long fileId, long offset, int size) {
+      this.termIndex = ServerProtoUtils.toTermIndex(entry);
+      this.isConfig = ProtoUtils.isConfigurationLogEntry(entry);
+      setLocation(fileId, offset, size);
+    }
+
+    TermIndex getTermIndex() {
+      return termIndex;
+    }
+
+    long getIndex() {
+      return termIndex.getIndex();
+    }
+
+    boolean isConfig() {
+      return isConfig;
+    }
+
+    private void setLocation(long fileId, long offset, int size) {
+      this.fileId = fileId;
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+  /** Remove the records from the given index. */
+  static void truncate(List<Record> records, long index) {
+    if (records.isEmpty()) {
+      return;
+    }
+    final long first = records.get(0).getIndex();
+    final int i = Math.toIntExact(Math.max(0, index - first));
+    if (i < records.size()) {
+      records.subList(i, records.size()).clear();
+    }
+  }
+
+  /** Remove the records before the given index. */
+  static void purge(List<Record> records, long index) {
+    if (records.isEmpty()) {
+      return;
+    }
+    final long first = records.get(0).getIndex();
+    final int i = Math.toIntExact(Math.min(records.size(), Math.max(0, index - first)));
+    records.subList(0, i).clear();
+  }
+
+  private static class Write {
+    private final RaftGroupId groupId;
+    private final RecordType type;
+    private final long index;
+    private final byte[] frame;
+    private final Record record;
+    private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+    Write(RaftGroupId groupId, RecordType type, long index, byte[] frame, Record record) {
+      this.groupId = groupId;
+      this.type = type;
+      this.index = index;
+      this.frame = frame;
+      this.record = record;
+    }
+
+    @Override
+    public String toString() {
+      return groupId + ":" + type + ":" + index;
+    }
+  }
+
+  private final String name;
+  private final File dir;
+  private final long fileSizeMax;
+  private final int bufferSize;
+  private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+  private volatile boolean running = true;
+  private Thread writerThread;
+
+  /** file id -> (group -> the max index of the entries of the group in the file) */
+  private final NavigableMap<Long, Map<RaftGroupId, Long>> files = new TreeMap<>();
+  /** group -> the start index of the group; the entries before it are purged. */
+  private final Map<RaftGroupId, Long> startIndices = new HashMap<>();
+  /** The loaded records of the groups which have not yet been opened. */
+  private final Map<RaftGroupId, List<Record>> loaded = new HashMap<>();
+  private boolean isLoaded = false;
+
+  /** file id -> the channel for reading the file, which is opened on the first read. */
+  private final Map<Long, FileChannel> readChannels = new ConcurrentHashMap<>();
+
+  /** The following fields are accessed only by the writer thread after loading. */
+  private long currentFileId;
+  private BufferedWriteChannel out;
+
+  SharedLogStore(File dir, long fileSizeMax, int bufferSize) {
+    this.name = getClass().getSimpleName() + "(" + dir + ")";
+    this.dir = dir;
+    this.fileSizeMax = fileSizeMax;
+    this.bufferSize = bufferSize;
+  }
+
+  File getFile(long fileId) {
+    return new File(dir, FILE_PREFIX + fileId);
+  }
+
+  /**
+   * Open the log of the given group.  The files are loaded when the first
+   * group is opened.
+   *
+   * @return the records of the group in index order.
+   */
+  synchronized List<Record> open(RaftGroupId groupId) throws IOException {
+    if (!running) {
+      throw new IOException(name + " is already closed");
+    }
+    if (!isLoaded) {
+      load();
+      isLoaded = true;
+      writerThread = new Daemon(this);
+      writerThread.start();
+    }
+    return Optional.ofNullable(loaded.remove(groupId)).orElseGet(ArrayList::new);
+  }
+
+  private void load() throws IOException {
+    FileUtils.createDirectories(dir);
+    final File[] all = Optional.ofNullable(dir.listFiles()).orElse(new File[0]);
+    final long[] ids = Arrays.stream(all).map(f -> FILE_REGEX.matcher(f.getName()))
+        .filter(Matcher::matches)
+        .mapToLong(m -> Long.parseLong(m.group(1)))
+        .sorted().toArray();
+
+    long validEnd = 0;
+    for (int i = 0; i < ids.length; i++) {
+      files.put(ids[i], new HashMap<>());
+      validEnd = loadFile(ids[i], i == ids.length - 1);
+    }
+    LOG.info("{}: loaded {} file(s) with the records of {} group(s)", name, ids.length, loaded.size());
+
+    if (ids.length == 0) {
+      createFile(0);
+    } else {
+      // continue writing the last file after its last valid record
+      currentFileId = ids[ids.length - 1];
+      final FileChannel fc = FileChannel.open(getFile(currentFileId).toPath(), StandardOpenOption.WRITE);
+      final boolean hasHeader = validEnd >= HEADER_BYTES.length;
+      fc.truncate(hasHeader ? validEnd : 0);
+      fc.position(hasHeader ? validEnd : 0);
+      out = new BufferedWriteChannel(fc, bufferSize);
+      if (!hasHeader) {
+        out.write(HEADER_BYTES);
+      }
+    }
+  }
+
+  /**
+   * Stream the records of the given file.
+   * @return the end offset of the last valid record.
+   */
+  private long loadFile(long fileId, boolean isLast) throws IOException {
+    final File file = getFile(fileId);
+    try (LogReader reader = new LogReader(file, false)) {
+      final String header;
+      try {
+        header = reader.readLogHeader();
+      } catch (EOFException e) {
+        if (isLast) {
+          return 0; // the header was not completely written
+        }
+        throw new IOException("Invalid header in " + file, e);
+      }
+      if (!HEADER_STR.equals(header)) {
+        throw new IOException("Invalid header " + header + " in " + file);
+      }
+
+      for (;;) {
+        final long offset = reader.getPos();
+        final CodedInputStream body;
+        try {
+          // the body is valid until the next read
+          body = reader.readFrame(in -> in);
+        } catch (IOException e) {
+          if (isLast) {
+            LOG.warn("{}: ignore the records of {} from offset {}", name, file, offset, e);
+            return offset;
+          }
+          throw new IOException("Failed to load " + file, e);
+        }
+        if (body == null) {
+          return offset;
+        }
+        loadRecord(fileId, offset, Math.toIntExact(reader.getPos() - offset), body);
+      }
+    }
+  }
+
+  private void loadRecord(long fileId, long offset, int frameLength, CodedInputStream in)
+      throws IOException {
+    final RaftGroupId groupId = RaftGroupId.valueOf(new UUID(in.readFixed64(), in.readFixed64()));
+    final RecordType type = toRecordType(in.readRawByte());
+    if (type == RecordType.REMOVE) {
+      remove(groupId);
+      return;
+    }
+    final List<Record> records = loaded.computeIfAbsent(groupId, k -> new ArrayList<>());
+    switch (type) {
+      case ENTRY:
+        final LogEntryProto entry = LogEntryProto.parseFrom(in);
+        // an entry overwriting the existing entries implies a truncation
+        truncate(records, entry.getIndex());
+        if (!records.isEmpty()) {
+          final long last = records.get(records.size() - 1).getIndex();
+          if (last + 1 != entry.getIndex()) {
+            throw new IOException("Unexpected gap in the log of " + groupId + ": the last index is "
+                + last + " but the next entry is " + ServerProtoUtils.toLogEntryString(entry));
+          }
+        }
+        records.add(new Record(entry, fileId, offset, frameLength));
+        files.get(fileId).merge(groupId, entry.getIndex(), Math::max);
+        break;
+      case TRUNCATE:
+        truncate(records, in.readFixed64());
+        break;
+      case PURGE:
+        final long startIndex = in.readFixed64();
+        purge(records, startIndex);
+        startIndices.merge(groupId, startIndex, Math::max);
+        break;
+      default:
+        throw new IllegalStateException("Unexpected record type " + type);
+    }
+  }
+
+  /** Forget the removed group so that its entries no longer hold any file. */
+  private synchronized void remove(RaftGroupId groupId) {
+    loaded.remove(groupId);
+    startIndices.remove(groupId);
+    files.values().forEach(maxIndices -> maxIndices.remove(groupId));
+  }
+
+  private static RecordType toRecordType(byte b) throws IOException {
+    final RecordType[] types = RecordType.values();
+    if (b < 0 || b >= types.length) {
+      throw new IOException("Unexpected record type " + b);
+    }
+    return types[b];
+  }
+
+  /**
+   * Validate the frame at the given position.
+   * @return the length of the frame.
+   */
+  private static int checkFrame(byte[] array, int pos, int limit) throws IOException {
+    final int bodyLength = CodedInputStream.newInstance(array, pos, limit - pos).readRawVarint32();
+    if (bodyLength < BODY_HEADER_SIZE) {
+      throw new IOException("Unexpected body length " + bodyLength + " at offset " + pos);
+    }
+    final int length = CodedOutputStream.computeUInt32SizeNoTag(bodyLength) + bodyLength;
+    if (pos + length + 4 > limit) {
+      throw new IOException("Record at offset " + pos + " with length " + length
+          + " exceeds the end offset " + limit);
+    }
+    final BufferChecksum checksum = ChecksumProvider.newCrc32C();
+    checksum.update(array, pos, length);
+    final int expected = ByteBuffer.wrap(array, pos + length, 4).getInt();
+    final int calculated = (int) checksum.getValue();
+    if (expected != calculated) {
+      throw new ChecksumException("Record is corrupt. Calculated checksum is "
+          + calculated + " but read checksum " + expected, pos);
+    }
+    return length + 4;
+  }
+
+  private static CodedInputStream bodyOf(byte[] array, int offset, int frameLength) throws IOException {
+    final CodedInputStream in = CodedInputStream.newInstance(array, offset, frameLength - 4);
+    in.readRawVarint32();
+    return in;
+  }
+
+  private static byte[] encode(RaftGroupId groupId, RecordType type, LogEntryProto entry, long index) {
+    final int payloadSize = entry != null ? entry.getSerializedSize() : 8;
+    final int bodyLength = BODY_HEADER_SIZE + payloadSize;
+    final int length = CodedOutputStream.computeUInt32SizeNoTag(bodyLength) + bodyLength;
+    final byte[] frame = new byte[length + 4];
+    try {
+      final CodedOutputStream cout = CodedOutputStream.newInstance(frame, 0, length);
+      cout.writeUInt32NoTag(bodyLength);
+      final UUID uuid = groupId.getUuid();
+      cout.writeFixed64NoTag(uuid.getMostSignificantBits());
+      cout.writeFixed64NoTag(uuid.getLeastSignificantBits());
+      cout.writeRawByte((byte) type.ordinal());
+      if (entry != null) {
+        entry.writeTo(cout);
+      } else {
+        cout.writeFixed64NoTag(index);
+      }
+      cout.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to encode " + type + " for " + groupId, e);
+    }
+    final BufferChecksum checksum = ChecksumProvider.newCrc32C();
+    checksum.update(frame, 0, length);
+    ByteBuffer.wrap(frame, length, 4).putInt((int) checksum.getValue());
+    return frame;
+  }
+
+  /**
+   * Append the entry of the record, which must not contain state machine data.
+   * @return a future completed when the entry is persisted.
+   */
+  CompletableFuture<Long> append(RaftGroupId groupId, Record record) {
+    final LogEntryProto entry = record.entry;
+    Preconditions.assertTrue(entry != null, () -> "The entry is already written: " + record.getTermIndex());
+    return submit(new Write(groupId, RecordType.ENTRY, entry.getIndex(),
+        encode(groupId, RecordType.ENTRY, entry, 0), record));
+  }
+
+  /** Truncate the entries of the group from the given index. */
+  CompletableFuture<Long> truncate(RaftGroupId groupId, long index) {
+    return submit(new Write(groupId, RecordType.TRUNCATE, index,
+        encode(groupId, RecordType.TRUNCATE, null, index), null));
+  }
+
+  /** Purge the entries of the group before the given index. */
+  CompletableFuture<Long> purge(RaftGroupId groupId, long index) {
+    return submit(new Write(groupId, RecordType.PURGE, index,
+        encode(groupId, RecordType.PURGE, null, index), null));
+  }
+
+  /**
+   * Remove the group, which is removed from the server together with its
+   * storage directory, so that its entries no longer hold any file.
+   */
+  public CompletableFuture<Long> remove(RaftGroupId groupId) {
+    return submit(new Write(groupId, RecordType.REMOVE, 0,
+        encode(groupId, RecordType.REMOVE, null, 0), null));
+  }
+
+  private CompletableFuture<Long> submit(Write w) {
+    if (!running) {
+      w.future.completeExceptionally(new IOException(name + " is already closed, failed to write " + w));
+    } else {
+      queue.offer(w);
+    }
+    return w.future;
+  }
+
+  /** Read the entry of the given record. */
+  LogEntryProto read(Record record) throws IOException {
+    final LogEntryProto entry = record.entry;
+    if (entry != null) {
+      return entry;
+    }
+    final ByteBuffer buffer = ByteBuffer.allocate(record.size);
+    // the positional reads of a channel can be concurrent
+    IOUtils.readFully(getReadChannel(record.fileId), buffer, record.offset);
+    final byte[] array = buffer.array();
+    checkFrame(array, 0, array.length);
+    final CodedInputStream in = bodyOf(array, 0, array.length);
+    in.skipRawBytes(BODY_HEADER_SIZE);
+    return LogEntryProto.parseFrom(in);
+  }
+
+  private FileChannel getReadChannel(long fileId) throws IOException {
+    final FileChannel fc = readChannels.get(fileId);
+    if (fc != null) {
+      return fc;
+    }
+    final FileChannel opened = FileChannel.open(getFile(fileId).toPath(), StandardOpenOption.READ);
+    final FileChannel previous = readChannels.putIfAbsent(fileId, opened);
+    if (previous != null) {
+      IOUtils.cleanup(LOG, opened);
+      return previous;
+    }
+    return opened;
+  }
+
+  private void closeReadChannel(long fileId) {
+    IOUtils.cleanup(LOG, readChannels.remove(fileId));
+  }
+
+  @Override
+  public void run() {
+    final List<Write> batch = new ArrayList<>();
+    while (running) {
+      try {
+        final Write first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch);
+        writeAndSync(batch);
+        boolean purged = false;
+        for (Write w : batch) {
+          if (w.record != null) {
+            w.record.entry = null;
+          }
+          purged |= w.type == RecordType.PURGE || w.type == RecordType.REMOVE;
+        }
+        // delete the files before completing the purges
+        if (purged) {
+          deleteUnusedFiles();
+        }
+        batch.forEach(w -> w.future.complete(w.index));
+      } catch (InterruptedException e) {
+        if (running) {
+          LOG.warn("{} got interrupted while still running", name);
+        }
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Throwable t) {
+        batch.forEach(w -> w.future.completeExceptionally(t));
+        if (!running) {
+          LOG.info("{} got closed and hit exception", name, t);
+        } else {
+          ExitUtils.terminate(1, name + " failed.", t, LOG);
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void writeAndSync(List<Write> batch) throws IOException {
+    for (Write w : batch) {
+      if (out.position() > HEADER_BYTES.length && out.position() + w.frame.length > fileSizeMax) {
+        out.flush(true);
+        IOUtils.cleanup(LOG, out);
+        createFile(currentFileId + 1);
+      }
+      if (w.record != null) {
+        w.record.setLocation(currentFileId, out.position(), w.frame.length);
+      }
+      out.write(w.frame);
+      synchronized (this) {
+        if (w.type == RecordType.ENTRY) {
+          files.get(currentFileId).merge(w.groupId, w.index, Math::max);
+        } else if (w.type == RecordType.PURGE) {
+          startIndices.merge(w.groupId, w.index, Math::max);
+        } else if (w.type == RecordType.REMOVE) {
+          remove(w.groupId);
+        }
+      }
+    }
+    out.flush(true);
+  }
+
+  private void createFile(long fileId) throws IOException {
+    final File file = getFile(fileId);
+    LOG.debug("{}: create {}", name, file);
+    final FileChannel fc = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    out = new BufferedWriteChannel(fc, bufferSize);
+    out.write(HEADER_BYTES);
+    synchronized (this) {
+      currentFileId = fileId;
+      files.put(fileId, new HashMap<>());
+    }
+  }
+
+  private synchronized void deleteUnusedFiles() {
+    for (Iterator<Map.Entry<Long, Map<RaftGroupId, Long>>> i = files.entrySet().iterator(); i.hasNext(); ) {
+      final Map.Entry<Long, Map<RaftGroupId, Long>> e = i.next();
+      if (e.getKey() == currentFileId || !isPurged(e.getValue())) {
+        return;
+      }
+      final File file = getFile(e.getKey());
+      LOG.info("{}: delete {}", name, file);
+      closeReadChannel(e.getKey());
+      try {
+        FileUtils.deleteFile(file);
+      } catch (IOException ioe) {
+        LOG.warn(name + ": Failed to delete " + file, ioe);
+        return;
+      }
+      i.remove();
+    }
+  }
+
+  private boolean isPurged(Map<RaftGroupId, Long> maxIndices) {
+    return maxIndices.entrySet().stream().allMatch(
+        e -> e.getValue() < startIndices.getOrDefault(e.getKey(), Long.MIN_VALUE));
+  }
+
+  synchronized int getNumFiles() {
+    return files.size();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    final Thread t;
+    synchronized (this) {
+      t = writerThread;
+    }
+    if (t != null) {
+      t.interrupt();
+      try {
+        t.join(3000);
+      } catch (InterruptedException ignored) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (Write w; (w = queue.poll()) != null; ) {
+      w.future.completeExceptionally(new IOException(name + " is closed, failed to write " + w));
+    }
+    IOUtils.cleanup(LOG, out);
+    new ArrayList<>(readChannels.keySet()).forEach(this::closeReadChannel);
+    LOG.info("{} close()", name);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.server.RaftServerConfigKeys;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decide which of the configured storage directories (volumes) a new group
+ * is placed on.  A group which already has a directory on one of the volumes
+ * always stays there, so a policy is only consulted for new groups.
+ */
+public interface StorageDirPlacementPolicy {
+  enum Type {
+    /** Choose the volume hosting the fewest groups. */
+    LEAST_GROUPS,
+    /** Choose the volume with the most usable space. */
+    MOST_USABLE_SPACE,
+    /** Cycle through the volumes. */
+    ROUND_ROBIN
+  }
+
+  /**
+   * @param numGroupsPerVolume the number of the groups on each volume,
+   *                           in the configured order of the volumes.
+   * @return the chosen volume, or empty if there is no volume.
+   */
+  Optional<File> chooseVolume(Map<File, Integer> numGroupsPerVolume);
+
+  StorageDirPlacementPolicy LEAST_GROUPS = numGroupsPerVolume
+      -> numGroupsPerVolume.entrySet().stream()
+      .min(Comparator.comparing(Map.Entry::getValue))
+      .map(Map.Entry::getKey);
+
+  StorageDirPlacementPolicy MOST_USABLE_SPACE = numGroupsPerVolume
+      -> numGroupsPerVolume.keySet().stream()
+      .max(Comparator.comparing(File::getUsableSpace));
+
+  static StorageDirPlacementPolicy newInstance(RaftProperties properties) {
+    final Type type = RaftServerConfigKeys.storageDirPlacementPolicy(properties);
+    switch (type) {
+      case LEAST_GROUPS:
+        return LEAST_GROUPS;
+      case MOST_USABLE_SPACE:
+        return MOST_USABLE_SPACE;
+      case ROUND_ROBIN:
+        return new RoundRobinPolicy();
+      default:
+        throw new IllegalArgumentException("Unexpected placement policy " + type);
+    }
+  }
+
+  class RoundRobinPolicy implements StorageDirPlacementPolicy {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public Optional<File> chooseVolume(Map<File, Integer> numGroupsPerVolume) {
+      if (numGroupsPerVolume.isEmpty()) {
+        return Optional.empty();
+      }
+      final List<File> volumes = new ArrayList<>(numGroupsPerVolume.keySet());
+      final int i = next.getAndIncrement() & Integer.MAX_VALUE;
+      return Optional.of(volumes.get(i % volumes.size()));
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + ":" + next;
+    }
+  }
+}
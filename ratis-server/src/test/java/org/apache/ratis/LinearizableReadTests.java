@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis;
+
+import org.apache.ratis.RaftTestUtil.SimpleMessage;
+import org.apache.ratis.client.RaftClient;
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.proto.RaftProtos.RequestVoteReplyProto;
+import org.apache.ratis.protocol.RaftClientReply;
+import org.apache.ratis.protocol.RaftPeerId;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.server.impl.RaftServerImpl;
+import org.apache.ratis.server.impl.RaftServerTestUtil;
+import org.apache.ratis.server.impl.ServerProtoUtils;
+import org.apache.ratis.statemachine.SimpleStateMachine4Testing;
+import org.apache.ratis.statemachine.StateMachine;
+import org.apache.ratis.util.JavaUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public abstract class LinearizableReadTests<CLUSTER extends MiniRaftCluster>
+    extends BaseTest
+    implements MiniRaftCluster.Factory.Get<CLUSTER> {
+  static final int NUM_SERVERS = 3;
+  static final int NUM_READS = 10;
+
+  @Before
+  public void setup() {
+    final RaftProperties p = getProperties();
+    p.setClass(MiniRaftCluster.STATEMACHINE_CLASS_KEY,
+        SimpleStateMachine4Testing.class, StateMachine.class);
+    RaftServerConfigKeys.Read.setLeaderLeaseEnabled(p, true);
+    RaftServerConfigKeys.Read.setFollowerEnabled(p, true);
+    RaftServerConfigKeys.Read.setFollowerReadIndexThreads(p, 1);
+  }
+
+  RaftServerImpl waitForLeaderLease(MiniRaftCluster cluster) throws Exception {
+    final RaftServerImpl leader = RaftTestUtil.waitForLeader(cluster);
+    JavaUtils.attempt(() -> RaftServerTestUtil.hasLeaderLease(leader),
+        10, cluster.getMaxTimeout(), "waitForLeaderLease", LOG);
+    return leader;
+  }
+
+  static void assertRead(RaftClient client, RaftPeerId server, long index, SimpleMessage expected)
+      throws Exception {
+    final RaftClientReply reply = client.sendReadOnly(new SimpleMessage(String.valueOf(index)), server);
+    Assert.assertTrue(reply.isSuccess());
+    Assert.assertEquals(server, reply.getServerId());
+    final LogEntryProto entry = LogEntryProto.parseFrom(reply.getMessage().getContent());
+    Assert.assertEquals(index, entry.getIndex());
+    Assert.assertEquals(expected.getContent(), entry.getSmLogEntry().getData());
+  }
+
+  @Test
+  public void testLeaderLeaseRead() throws Exception {
+    try(final CLUSTER cluster = newCluster(NUM_SERVERS)) {
+      cluster.start();
+      runTestLeaderLeaseRead(cluster);
+    }
+  }
+
+  void runTestLeaderLeaseRead(MiniRaftCluster cluster) throws Exception {
+    final RaftServerImpl leader = waitForLeaderLease(cluster);
+    try(final RaftClient client = cluster.createClient(leader.getId())) {
+      final SimpleMessage message = new SimpleMessage("lease");
+      final RaftClientReply reply = client.send(message);
+      Assert.assertTrue(reply.isSuccess());
+
+      // the lease is valid, so the leadership is confirmed without a heartbeat round
+      waitForLeaderLease(cluster);
+      final CompletableFuture<Long> readIndex = RaftServerTestUtil.addReadRequest(leader);
+      Assert.assertTrue(readIndex.isDone());
+      Assert.assertTrue(readIndex.get() >= reply.getLogIndex());
+
+      assertRead(client, leader.getId(), reply.getLogIndex(), message);
+    }
+  }
+
+  @Test
+  public void testLeaderLeaseExpired() throws Exception {
+    try(final CLUSTER cluster = newCluster(NUM_SERVERS)) {
+      cluster.start();
+      runTestLeaderLeaseExpired(cluster);
+    }
+  }
+
+  void runTestLeaderLeaseExpired(MiniRaftCluster cluster) throws Exception {
+    final RaftServerImpl leader = waitForLeaderLease(cluster);
+    final List<RaftServerImpl> followers = cluster.getFollowers();
+    followers.forEach(f -> cluster.killServer(f.getId()));
+
+    // no more acks from the followers, the lease expires after the min timeout
+    Thread.sleep(cluster.getMaxTimeout());
+    Assert.assertTrue(leader.isLeader());
+    Assert.assertFalse(RaftServerTestUtil.hasLeaderLease(leader));
+
+    // fall back to ReadIndex, which cannot confirm the leadership without a majority
+    final CompletableFuture<Long> readIndex = RaftServerTestUtil.addReadRequest(leader);
+    Thread.sleep(cluster.getMaxTimeout());
+    Assert.assertFalse(readIndex.isDone());
+  }
+
+  @Test
+  public void testFollowerRead() throws Exception {
+    try(final CLUSTER cluster = newCluster(NUM_SERVERS)) {
+      cluster.start();
+      runTestFollowerRead(cluster);
+    }
+  }
+
+  void runTestFollowerRead(MiniRaftCluster cluster) throws Exception {
+    final RaftServerImpl leader = RaftTestUtil.waitForLeader(cluster);
+    try(final RaftClient client = cluster.createClient(leader.getId())) {
+      final SimpleMessage message = new SimpleMessage("follower");
+      final RaftClientReply reply = client.send(message);
+      Assert.assertTrue(reply.isSuccess());
+
+      // the followers may not have applied the entry yet; they wait for the read index from the leader
+      for (RaftServerImpl follower : cluster.getFollowers()) {
+        assertRead(client, follower.getId(), reply.getLogIndex(), message);
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentFollowerReads() throws Exception {
+    try(final CLUSTER cluster = newCluster(NUM_SERVERS)) {
+      cluster.start();
+      runTestConcurrentFollowerReads(cluster);
+    }
+  }
+
+  void runTestConcurrentFollowerReads(MiniRaftCluster cluster) throws Exception {
+    final RaftServerImpl leader = RaftTestUtil.waitForLeader(cluster);
+    final RaftPeerId followerId = cluster.getFollowers().get(0).getId();
+    final ExecutorService executor = Executors.newFixedThreadPool(NUM_READS);
+    try(final RaftClient client = cluster.createClient(leader.getId())) {
+      final SimpleMessage message = new SimpleMessage("concurrent");
+      final RaftClientReply reply = client.send(message);
+      Assert.assertTrue(reply.isSuccess());
+
+      // the reads share the read index requests, which are sent by a single thread
+      final List<Future<?>> reads = new ArrayList<>();
+      for (int i = 0; i < NUM_READS; i++) {
+        reads.add(executor.submit(() -> {
+          assertRead(client, followerId, reply.getLogIndex(), message);
+          return null;
+        }));
+      }
+      for (Future<?> read : reads) {
+        read.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFollowerWithholdVotesWithinLease() throws Exception {
+    try(final CLUSTER cluster = newCluster(NUM_SERVERS)) {
+      cluster.start();
+      runTestFollowerWithholdVotesWithinLease(cluster);
+    }
+  }
+
+  void runTestFollowerWithholdVotesWithinLease(MiniRaftCluster cluster) throws Exception {
+    final RaftServerImpl leader = waitForLeaderLease(cluster);
+    final List<RaftServerImpl> followers = cluster.getFollowers();
+    final RaftServerImpl follower = followers.get(0);
+    final RaftPeerId candidateId = followers.get(1).getId();
+    final long term = follower.getState().getCurrentTerm();
+
+    // a candidate with a higher term must not get the vote while the follower hears from the leader
+    final RequestVoteReplyProto reply = follower.requestVote(ServerProtoUtils.toRequestVoteRequestProto(
+        candidateId, follower.getId(), cluster.getGroupId(), term + 1,
+        follower.getState().getLog().getLastEntryTermIndex()));
+    Assert.assertFalse(reply.getServerReply().getSuccess());
+    Assert.assertEquals(term, follower.getState().getCurrentTerm());
+    Assert.assertTrue(follower.isFollower());
+    Assert.assertTrue(leader.isLeader());
+  }
+}
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 public class RaftServerTestUtil {
@@ -86,6 +87,14 @@ public class RaftServerTestUtil {
     return server.getRole().getLeaderState().map(LeaderState::getLogAppenders).orElse(null);
   }
 
+  public static boolean hasLeaderLease(RaftServerImpl server) {
+    return server.getRole().getLeaderState().map(LeaderState::hasLease).orElse(false);
+  }
+
+  public static CompletableFuture<Long> addReadRequest(RaftServerImpl server) {
+    return server.getRole().getLeaderState().map(LeaderState::addReadRequest).orElse(null);
+  }
+
   public static Logger getStateMachineUpdaterLog() {
     return StateMachineUpdater.LOG;
   }
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ratis.server.impl;
+
+import org.apache.ratis.BaseTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test the batching of the read requests in {@link ReadRequests}.
+ */
+public class TestReadRequests extends BaseTest {
+  @Test
+  public void testBatchReadsInRounds() throws Exception {
+    final AtomicInteger started = new AtomicInteger();
+    final ReadRequests reads = new ReadRequests("s0", started::incrementAndGet);
+
+    // the first read starts round 1
+    final CompletableFuture<Long> r1 = reads.add(10);
+    Assert.assertEquals(1, reads.getRound());
+    Assert.assertEquals(1, started.get());
+
+    // the reads arriving during round 1 wait for round 2
+    final CompletableFuture<Long> r2 = reads.add(11);
+    final CompletableFuture<Long> r3 = reads.add(12);
+    Assert.assertEquals(1, reads.getRound());
+    Assert.assertEquals(1, started.get());
+
+    reads.update(0);
+    Assert.assertFalse(r1.isDone());
+
+    // acking round 1 completes r1 and starts round 2 for both r2 and r3
+    reads.update(1);
+    Assert.assertEquals(10L, r1.get().longValue());
+    Assert.assertFalse(r2.isDone());
+    Assert.assertEquals(2, reads.getRound());
+    Assert.assertEquals(2, started.get());
+
+    reads.update(2);
+    Assert.assertEquals(11L, r2.get().longValue());
+    Assert.assertEquals(12L, r3.get().longValue());
+    // no more reads, no new round
+    Assert.assertEquals(2, reads.getRound());
+    Assert.assertEquals(2, started.get());
+  }
+
+  @Test
+  public void testFailAll() throws Exception {
+    final ReadRequests reads = new ReadRequests("s0", () -> {});
+    final CompletableFuture<Long> r1 = reads.add(1);
+    final CompletableFuture<Long> r2 = reads.add(2);
+
+    final Exception e = new Exception("testFailAll");
+    reads.failAll(e);
+    assertFailed(e, r1);
+    assertFailed(e, r2);
+    assertFailed(e, reads.add(3));
+  }
+
+  static void assertFailed(Exception expected, CompletableFuture<Long> future) throws InterruptedException {
+    try {
+      future.get();
+      Assert.fail("Expected to fail with " + expected);
+    } catch (ExecutionException e) {
+      Assert.assertSame(expected, e.getCause());
+    }
+  }
+}
@@ -19,6 +19,7 @@
 package org.apache.ratis.server.impl;
 
 import org.apache.ratis.BaseTest;
+import org.apache.ratis.server.storage.StorageDirPlacementPolicy;
 import org.apache.ratis.util.FileUtils;
 import org.apache.ratis.util.JavaUtils;
 import org.junit.AfterClass;
@@ -124,4 +125,36 @@ public class TestServerState {
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Tests choosing of storage directory with the round-robin policy.
+   *
+   * @throws IOException in case of exception.
+   */
+  @Test
+  public void testChooseStorageDirRoundRobin() throws IOException {
+    File testDir = new File(rootTestDir.get(), UUID.randomUUID().toString());
+    List<File> directories = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      File dir = new File(testDir, Integer.toString(i));
+      FileUtils.createDirectories(dir);
+      directories.add(dir);
+    }
+    // volume 0 already has more groups than the others
+    FileUtils.createDirectories(new File(directories.get(0), UUID.randomUUID().toString()));
+
+    final StorageDirPlacementPolicy policy = new StorageDirPlacementPolicy.RoundRobinPolicy();
+    for (int i = 0; i < 6; i++) {
+      String subDir = UUID.randomUUID().toString();
+      File storageDir = ServerState.chooseStorageDir(directories, subDir, policy);
+      File expected = new File(directories.get(i % directories.size()), subDir);
+      Assert.assertEquals(expected.getCanonicalPath(), storageDir.getCanonicalPath());
+    }
+
+    // an existing group stays on its volume
+    String subDir = UUID.randomUUID().toString();
+    File existing = new File(directories.get(2), subDir);
+    FileUtils.createDirectories(existing);
+    Assert.assertEquals(existing.getCanonicalPath(),
+        ServerState.chooseStorageDir(directories, subDir, policy).getCanonicalPath());
+  }
+}
@@ -188,6 +188,76 @@ public class TestCacheEviction extends BaseTest {
         raftLog.getRaftLogCache().getCachedSegmentNum());
   }
 
+  @Test
+  public void testLogEntryCache() throws Exception {
+    final long[] flushedAndToRead = {-1, Long.MAX_VALUE};
+    final LogEntryCache.IndexInfo indexInfo = new LogEntryCache.IndexInfo() {
+      @Override
+      public long getFlushedIndex() {
+        return flushedAndToRead[0];
+      }
+
+      @Override
+      public long getMinIndexToRead() {
+        return flushedAndToRead[1];
+      }
+    };
+    final LogEntryProto[] entries = new LogEntryProto[13];
+    for (int i = 0; i < entries.length; i++) {
+      SimpleOperation m = new SimpleOperation(String.format("m%02d", i));
+      entries[i] = ProtoUtils.toLogEntryProto(m.getLogEntryContent(), 0, i, clientId, callId);
+    }
+    final long entrySize = entries[0].getSerializedSize();
+    final LogEntryCache entryCache = new LogEntryCache(5 * entrySize);
+    final RaftLogCache cache = new RaftLogCache(null, null, new RaftProperties(),
+        entryCache.newAccount("test", indexInfo));
+
+    // the entries not yet flushed are never evicted
+    cache.addOpenSegment(0);
+    for (int i = 0; i < 10; i++) {
+      cache.appendEntry(entries[i]);
+    }
+    Assert.assertEquals(10 * entrySize, entryCache.getCachedBytes());
+    cache.rollOpenSegment(true);
+    final LogSegment closed = cache.getSegment(0);
+    flushedAndToRead[0] = 9;
+
+    // make 0, 1 and 2 recently used so that 3 to 8 are evicted
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(closed.getEntryWithoutLoading(i).hasEntry());
+    }
+    cache.appendEntry(entries[10]);
+    Assert.assertEquals(5 * entrySize, entryCache.getCachedBytes());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(i < 3 || i == 9, closed.getEntryWithoutLoading(i).hasEntry());
+    }
+
+    // the entries still to be read are evicted only if there is no other choice
+    flushedAndToRead[1] = 1;
+    cache.appendEntry(entries[11]);
+    Assert.assertEquals(5 * entrySize, entryCache.getCachedBytes());
+    Assert.assertFalse(closed.getEntryWithoutLoading(0).hasEntry());
+    Assert.assertTrue(closed.getEntryWithoutLoading(1).hasEntry());
+    Assert.assertTrue(closed.getEntryWithoutLoading(2).hasEntry());
+    Assert.assertTrue(closed.getEntryWithoutLoading(9).hasEntry());
+
+    // the flushed entries in the open segment are evicted as well
+    final LogSegment open = cache.getOpenSegment();
+    flushedAndToRead[0] = 11;
+    flushedAndToRead[1] = 13;
+    cache.appendEntry(entries[12]);
+    Assert.assertEquals(5 * entrySize, entryCache.getCachedBytes());
+    Assert.assertFalse(open.getEntryWithoutLoading(10).hasEntry());
+    Assert.assertTrue(open.getEntryWithoutLoading(11).hasEntry());
+    Assert.assertTrue(open.getEntryWithoutLoading(12).hasEntry());
+    Assert.assertTrue(closed.getEntryWithoutLoading(1).hasEntry());
+
+    // clearing the log releases its entries
+    cache.clear();
+    Assert.assertEquals(0, entryCache.getCachedBytes());
+    Assert.assertEquals(0, entryCache.getNumEntries());
+  }
+
   private LogEntryProto[] generateEntries(List<SegmentRange> slist) {
     List<LogEntryProto> eList = new ArrayList<>();
     for (SegmentRange range : slist) {
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.BaseTest;
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.util.SizeInBytes;
+import org.apache.ratis.util.TimeDuration;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestLogFlushPolicy extends BaseTest {
+  @Test
+  public void testCountPolicy() {
+    final RaftProperties properties = new RaftProperties();
+    RaftServerConfigKeys.Log.setForceSyncNum(properties, 10);
+    final LogFlushPolicy policy = LogFlushPolicy.newInstance(properties);
+    Assert.assertTrue(policy instanceof LogFlushPolicy.CountPolicy);
+
+    Assert.assertFalse(policy.shouldFlush(0, 0, 0, true));
+    Assert.assertFalse(policy.shouldFlush(9, 0, 0, false));
+    Assert.assertTrue(policy.shouldFlush(9, 0, 0, true));
+    Assert.assertTrue(policy.shouldFlush(10, 0, 0, false));
+  }
+
+  @Test
+  public void testAdaptivePolicy() {
+    final RaftProperties properties = new RaftProperties();
+    RaftServerConfigKeys.Log.setFlushPolicy(properties, LogFlushPolicy.Type.ADAPTIVE);
+    RaftServerConfigKeys.Log.setFlushDelayMax(properties, TimeDuration.valueOf(10, TimeUnit.MILLISECONDS));
+    RaftServerConfigKeys.Log.setFlushSizeMax(properties, SizeInBytes.valueOf("1MB"));
+    final LogFlushPolicy policy = LogFlushPolicy.newInstance(properties);
+    Assert.assertTrue(policy instanceof LogFlushPolicy.AdaptivePolicy);
+    final LogFlushPolicy.AdaptivePolicy adaptive = (LogFlushPolicy.AdaptivePolicy) policy;
+    final long maxDelay = TimeUnit.MILLISECONDS.toNanos(10);
+
+    Assert.assertFalse(policy.shouldFlush(0, 0, 0, true));
+    Assert.assertTrue(policy.shouldFlush(1, 100, 0, true));
+    // neither the byte bound nor the time bound is reached
+    Assert.assertFalse(policy.shouldFlush(1000, 100_000, maxDelay - 1, false));
+    // the byte bound is reached
+    Assert.assertTrue(policy.shouldFlush(1000, 1 << 20, 0, false));
+    // the time bound is reached
+    Assert.assertTrue(policy.shouldFlush(1000, 100_000, maxDelay, false));
+
+    // fast fsyncs reduce the time bound
+    final long fsync = TimeUnit.MICROSECONDS.toNanos(100);
+    for (int i = 0; i < 100; i++) {
+      policy.onFlush(fsync);
+    }
+    Assert.assertTrue(adaptive.getDelayNanos() < maxDelay / 2);
+    Assert.assertTrue(policy.shouldFlush(1000, 100_000, maxDelay / 2, false));
+
+    // slow fsyncs increase the time bound, which is capped by the max delay
+    for (int i = 0; i < 100; i++) {
+      policy.onFlush(10 * maxDelay);
+    }
+    Assert.assertEquals(maxDelay, adaptive.getDelayNanos());
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.BaseTest;
+import org.apache.ratis.server.protocol.TermIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLogRecordList extends BaseTest {
+  @Test
+  public void testAddAndGet() {
+    final long start = 100;
+    final LogRecordList records = new LogRecordList(start);
+    Assert.assertTrue(records.isEmpty());
+
+    // 3 terms with 100 records each so that the arrays grow
+    for (int i = 0; i < 300; i++) {
+      records.add(10L * i, 1 + i / 100, i % 50 == 0);
+    }
+    Assert.assertEquals(300, records.size());
+    for (int i = 0; i < 300; i++) {
+      Assert.assertEquals(10L * i, records.getOffset(i));
+      Assert.assertEquals(1 + i / 100, records.getTerm(i));
+      Assert.assertEquals(i % 50 == 0, records.isConfig(i));
+      Assert.assertEquals(TermIndex.newTermIndex(1 + i / 100, start + i),
+          records.get(i).getTermIndex());
+    }
+
+    testFailureCase("terms cannot decrease", () -> records.add(3000, 1, false),
+        IllegalStateException.class);
+    testFailureCase("out of range", () -> records.getOffset(300),
+        IndexOutOfBoundsException.class);
+  }
+
+  @Test
+  public void testTruncate() {
+    final LogRecordList records = new LogRecordList(0);
+    for (int i = 0; i < 30; i++) {
+      records.add(i, i / 10, i == 12 || i == 27);
+    }
+
+    // truncate in the middle of the last term
+    records.truncate(25);
+    Assert.assertEquals(25, records.size());
+    Assert.assertEquals(2, records.getTerm(24));
+    Assert.assertTrue(records.isConfig(12));
+
+    // truncate at a term boundary and then append a new term
+    records.truncate(10);
+    Assert.assertEquals(0, records.getTerm(9));
+    records.add(10, 5, false);
+    records.add(11, 5, false);
+    records.add(12, 5, false);
+    Assert.assertEquals(5, records.getTerm(10));
+    // the configuration flags of the truncated records are cleared
+    Assert.assertFalse(records.isConfig(12));
+    Assert.assertEquals(0, records.getTerm(9));
+
+    records.clear();
+    Assert.assertTrue(records.isEmpty());
+    records.add(0, 1, true);
+    Assert.assertEquals(1, records.getTerm(0));
+    Assert.assertTrue(records.isConfig(0));
+  }
+}
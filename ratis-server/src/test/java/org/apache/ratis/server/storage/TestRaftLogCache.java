@@ -215,7 +215,8 @@ public class TestRaftLogCache {
     cache.addSegment(newOpen);
     ts = cache.truncate(220);
     checkCache(0, 219, 100);
-    Assert.assertNull(cache.getOpenSegment());
+    Assert.assertSame(newOpen, cache.getOpenSegment());
+    Assert.assertTrue(newOpen.isOpen());
     Assert.assertEquals(0, ts.toDelete.length);
     Assert.assertTrue(ts.toTruncate.isOpen);
     Assert.assertEquals(219, ts.toTruncate.newEndIndex);
@@ -240,6 +241,51 @@ public class TestRaftLogCache {
     }
   }
 
+  @Test
+  public void testPurge() throws Exception {
+    long start = 0;
+    for (int i = 0; i < 5; i++) { // 5 closed segments
+      LogSegment s = prepareLogSegment(start, start + 99, false);
+      cache.addSegment(s);
+      start += 100;
+    }
+    // add another open segment
+    LogSegment s = prepareLogSegment(start, start + 99, true);
+    cache.addSegment(s);
+
+    // nothing to purge before the first segment ends
+    Assert.assertNull(cache.purge(-1));
+    Assert.assertNull(cache.purge(50));
+    Assert.assertEquals(6, cache.getNumOfSegments());
+
+    // purge the first segment when the index is its last entry
+    TruncationSegments ts = cache.purge(99);
+    Assert.assertNull(ts.toTruncate);
+    Assert.assertEquals(1, ts.toDelete.length);
+    Assert.assertEquals(0, ts.toDelete[0].startIndex);
+    Assert.assertEquals(99, ts.toDelete[0].endIndex);
+    Assert.assertEquals(100, cache.getStartIndex());
+    Assert.assertEquals(5, cache.getNumOfSegments());
+
+    // purge the segments before the one containing the index
+    ts = cache.purge(350);
+    Assert.assertEquals(2, ts.toDelete.length);
+    // the files are deleted in ascending order
+    Assert.assertEquals(100, ts.toDelete[0].startIndex);
+    Assert.assertEquals(200, ts.toDelete[1].startIndex);
+    Assert.assertEquals(300, cache.getStartIndex());
+    Assert.assertEquals(3, cache.getNumOfSegments());
+
+    // the open segment is never purged
+    ts = cache.purge(550);
+    Assert.assertEquals(2, ts.toDelete.length);
+    Assert.assertEquals(500, cache.getStartIndex());
+    Assert.assertEquals(1, cache.getNumOfSegments());
+    Assert.assertNotNull(cache.getOpenSegment());
+    Assert.assertNull(cache.purge(599));
+    checkCache(500, 599, 100);
+  }
+
   @Test
   public void testIterator() throws Exception {
     long start = 0;
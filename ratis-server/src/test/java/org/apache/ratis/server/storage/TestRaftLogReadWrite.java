@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -127,6 +128,32 @@ public class TestRaftLogReadWrite extends BaseTest {
     Assert.assertArrayEquals(entries, readEntries);
   }
 
+  /**
+   * The sync_file_range mode writes the same data. Without the native code,
+   * the range syncs are no-ops and only the file channel is forced.
+   */
+  @Test
+  public void testReadWriteLogWithSyncFileRange() throws IOException {
+    final RaftStorage storage = new RaftStorage(storageDir, StartupOption.REGULAR);
+    File openSegment = storage.getStorageDir().getOpenLogFile(0);
+    long size = SegmentedRaftLog.HEADER_BYTES.length;
+
+    final LogEntryProto[] entries = new LogEntryProto[100];
+    try (LogOutputStream out =
+             new LogOutputStream(openSegment, false, segmentMaxSize,
+                 preallocatedSize, 1024, LogOutputStream.WriteMode.SYNC_FILE_RANGE)) {
+      size += writeMessages(entries, out);
+      out.flush();
+    } finally {
+      storage.close();
+    }
+
+    Assert.assertEquals(size, openSegment.length());
+    LogEntryProto[] readEntries = readLog(openSegment, 0,
+        RaftServerConstants.INVALID_LOG_INDEX, true);
+    Assert.assertArrayEquals(entries, readEntries);
+  }
+
   @Test
   public void testAppendLog() throws IOException {
     final RaftStorage storage = new RaftStorage(storageDir, StartupOption.REGULAR);
@@ -161,6 +188,41 @@ public class TestRaftLogReadWrite extends BaseTest {
     storage.close();
   }
 
+  /**
+   * Write entries both smaller and larger than the write buffer, so that
+   * the entries are either encoded directly into the buffer or copied.
+   */
+  @Test
+  public void testReadWriteWithSmallBuffer() throws IOException {
+    final RaftStorage storage = new RaftStorage(storageDir, StartupOption.REGULAR);
+    File openSegment = storage.getStorageDir().getOpenLogFile(0);
+    long size = SegmentedRaftLog.HEADER_BYTES.length;
+
+    final LogEntryProto[] entries = new LogEntryProto[100];
+    try (LogOutputStream out =
+             new LogOutputStream(openSegment, false, segmentMaxSize,
+                 preallocatedSize, 1024)) {
+      for (int i = 0; i < entries.length; i++) {
+        final char[] content = new char[(i * 37) % 3000];
+        Arrays.fill(content, 'x');
+        SimpleOperation m = new SimpleOperation(new String(content));
+        entries[i] = ProtoUtils.toLogEntryProto(m.getLogEntryContent(), 0, i,
+            clientId, callId);
+        final int s = entries[i].getSerializedSize();
+        size += CodedOutputStream.computeUInt32SizeNoTag(s) + s + 4;
+        out.write(entries[i]);
+      }
+    } finally {
+      storage.close();
+    }
+
+    Assert.assertEquals(size, openSegment.length());
+
+    LogEntryProto[] readEntries = readLog(openSegment, 0,
+        RaftServerConstants.INVALID_LOG_INDEX, true);
+    Assert.assertArrayEquals(entries, readEntries);
+  }
+
   /**
    * Simulate the scenario that the peer is shutdown without truncating
    * log segment file padding. Make sure the reader can correctly handle this.
@@ -37,6 +37,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -150,6 +151,92 @@ public class TestRaftLogSegment extends BaseTest {
     Assert.assertEquals(loadInitial ? 0 : 1, closedSegment.getLoadingTimes());
   }
 
+  @Test
+  public void testLoadSegmentWithIndex() throws Exception {
+    final File closedSegmentFile = prepareLog(false, 1000, 100, 1);
+    final RaftStorage storage = new RaftStorage(storageDir, StartupOption.REGULAR);
+    final LogSegment loaded = LogSegment.loadSegment(storage, closedSegmentFile,
+        1000, 1099, false, true, null);
+    final File indexFile = storage.getStorageDir().getClosedLogIndexFile(1000, 1099);
+    loaded.snapshotIndex().get().write(indexFile);
+
+    // load the segment from the index without reading the entries
+    final LogSegment segment = LogSegment.loadSegment(storage, closedSegmentFile,
+        1000, 1099, false, false, null);
+    Assert.assertFalse(segment.hasCache());
+    Assert.assertEquals(closedSegmentFile.length(), segment.getTotalSize());
+    Assert.assertEquals(0, segment.getLoadingTimes());
+
+    // an entry in the middle is read at its offset
+    final LogSegment.LogRecord record = segment.getLogRecord(1050);
+    Assert.assertEquals(loaded.getLogRecord(1050).getOffset(), record.getOffset());
+    final LogEntryProto entry = segment.loadCache(record);
+    Assert.assertEquals(1050, entry.getIndex());
+    Assert.assertEquals(1, segment.getLoadingTimes());
+    Assert.assertNull(segment.getEntryWithoutLoading(1049).getEntry());
+    checkLogSegment(segment, 1000, 1099, false, closedSegmentFile.length(), 1);
+
+    // a corrupted index is ignored
+    try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+      raf.seek(raf.length() - 1);
+      final int last = raf.read();
+      raf.seek(raf.length() - 1);
+      raf.write(last ^ 0xFF);
+    }
+    final LogSegment reloaded = LogSegment.loadSegment(storage, closedSegmentFile,
+        1000, 1099, false, false, null);
+    checkLogSegment(reloaded, 1000, 1099, false, closedSegmentFile.length(), 1);
+    storage.close();
+  }
+
+  @Test
+  public void testLoadSegmentWithMmap() throws Exception {
+    final File file1 = prepareLog(false, 0, 100, 1);
+    final File file2 = prepareLog(false, 100, 100, 1);
+    final RaftStorage storage = new RaftStorage(storageDir, StartupOption.REGULAR);
+    final MappedSegmentCache mappedSegments = new MappedSegmentCache("test", 1);
+    try {
+      final LogSegment s1 = LogSegment.loadSegment(storage, mappedSegments, null,
+          PageCacheAdvisor.NOOP, file1, 0, 99, false, true, Long.MAX_VALUE, null);
+      checkLogSegment(s1, 0, 99, false, file1.length(), 1);
+      Assert.assertEquals(1, mappedSegments.getNumMappings());
+
+      final LogSegment s2 = LogSegment.loadSegment(storage, mappedSegments, null,
+          PageCacheAdvisor.NOOP, file2, 100, 199, false, false, Long.MAX_VALUE, null);
+      // at most one mapping is kept
+      Assert.assertEquals(1, mappedSegments.getNumMappings());
+      s2.evictCache();
+      final LogEntryProto entry = s2.loadCache(s2.getLogRecord(150));
+      Assert.assertEquals(150, entry.getIndex());
+      checkLogSegment(s2, 100, 199, false, file2.length(), 1);
+
+      mappedSegments.unmap(file2);
+      Assert.assertEquals(0, mappedSegments.getNumMappings());
+    } finally {
+      mappedSegments.close();
+      storage.close();
+    }
+  }
+
+  @Test
+  public void testUnmapWhileReading() throws Exception {
+    final File file = prepareLog(false, 0, 10, 1);
+    final MappedSegmentCache mappedSegments = new MappedSegmentCache("test", 1);
+    try {
+      Assert.assertTrue(mappedSegments.read(file, buffer -> {
+        // the mapping is removed from the cache but not unmapped until the read finishes
+        mappedSegments.unmap(file);
+        Assert.assertEquals(0, mappedSegments.getNumMappings());
+        final byte[] header = new byte[SegmentedRaftLog.HEADER_BYTES.length];
+        buffer.get(header);
+        Assert.assertArrayEquals(SegmentedRaftLog.HEADER_BYTES, header);
+      }));
+      Assert.assertEquals(0, mappedSegments.getNumMappings());
+    } finally {
+      mappedSegments.close();
+    }
+  }
+
   @Test
   public void testAppendEntries() throws Exception {
     final long start = 1000;
@@ -222,13 +309,14 @@ public class TestRaftLogSegment extends BaseTest {
       segment.appendToOpenSegment(entry);
     }
 
-    // truncate an open segment (remove 1080~1099)
+    // truncate an open segment (remove 1080~1099), which stays open
     long newSize = segment.getLogRecord(start + 80).getOffset();
     segment.truncate(start + 80);
     Assert.assertEquals(80, segment.numOfEntries());
-    checkLogSegment(segment, start, start + 79, false, newSize, term);
+    checkLogSegment(segment, start, start + 79, true, newSize, term);
 
     // truncate a closed segment (remove 1050~1079)
+    segment.close();
     newSize = segment.getLogRecord(start + 50).getOffset();
     segment.truncate(start + 50);
     Assert.assertEquals(50, segment.numOfEntries());
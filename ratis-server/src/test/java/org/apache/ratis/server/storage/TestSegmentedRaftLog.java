@@ -22,18 +22,23 @@ import org.apache.ratis.BaseTest;
 import org.apache.ratis.RaftTestUtil.SimpleOperation;
 import org.apache.ratis.conf.RaftProperties;
 import org.apache.ratis.protocol.ClientId;
+import org.apache.ratis.protocol.RaftPeer;
 import org.apache.ratis.protocol.RaftPeerId;
 import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.server.impl.RaftConfiguration;
 import org.apache.ratis.server.impl.RaftServerConstants;
 import org.apache.ratis.server.impl.RetryCacheTestUtil;
 import org.apache.ratis.server.impl.RetryCache;
 import org.apache.ratis.server.impl.RaftServerImpl;
+import org.apache.ratis.server.impl.ServerProtoUtils;
 import org.apache.ratis.server.protocol.TermIndex;
 import org.apache.ratis.proto.RaftProtos.LogEntryProto;
 import org.apache.ratis.util.FileUtils;
+import org.apache.ratis.util.JavaUtils;
 import org.apache.ratis.util.LogUtils;
 import org.apache.ratis.util.ProtoUtils;
 import org.apache.ratis.util.SizeInBytes;
+import org.apache.ratis.util.TimeDuration;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -41,11 +46,14 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import static org.mockito.Matchers.any;
@@ -174,6 +182,102 @@ public class TestSegmentedRaftLog extends BaseTest {
     }
   }
 
+  @Test
+  public void testLoadLogSegmentsInParallel() throws Exception {
+    RaftServerConfigKeys.Log.setLoadThreads(properties, 4);
+    List<SegmentRange> ranges = prepareRanges(0, 10, 100, 0);
+    LogEntryProto[] entries = prepareLog(ranges);
+
+    // the first 4 segments are covered by the snapshot and not cached,
+    // so that they are loaded lazily
+    final long lastIndexInSnapshot = 450;
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, lastIndexInSnapshot, properties)) {
+      raftLog.open(lastIndexInSnapshot, null);
+      Assert.assertEquals(10, raftLog.getRaftLogCache().getNumOfSegments());
+      Assert.assertEquals(entries[entries.length - 1], getLastEntry(raftLog));
+      for (LogEntryProto e : entries) {
+        Assert.assertEquals(e, raftLog.get(e.getIndex()));
+        Assert.assertEquals(ServerProtoUtils.toTermIndex(e), raftLog.getTermIndex(e.getIndex()));
+      }
+    }
+  }
+
+  /**
+   * The configuration entries in the segments covered by the snapshot are
+   * passed to the consumer after a restart, with or without the index files.
+   */
+  @Test
+  public void testRestartAfterSetConfiguration() throws Exception {
+    RaftServerConfigKeys.Log.setPreallocatedSize(properties, SizeInBytes.valueOf("16KB"));
+    RaftServerConfigKeys.Log.setSegmentSizeMax(properties, SizeInBytes.valueOf("128KB"));
+    RaftServerConfigKeys.Log.setMaxCachedSegmentNum(properties, 1);
+    final List<SegmentRange> ranges = prepareRanges(0, 1, 1024, 0);
+    final byte[] content = new byte[1024];
+    final List<LogEntryProto> entries = prepareLogEntries(ranges, () -> new String(content));
+    // a configuration entry in the first segment, as appended by setConfiguration
+    final RaftPeer[] peers = {new RaftPeer(peerId), new RaftPeer(RaftPeerId.valueOf("s1"))};
+    final LogEntryProto confEntry = ServerProtoUtils.toLogEntryProto(
+        RaftConfiguration.newBuilder().setConf(peers).setLogEntryIndex(10).build(), 0, 10);
+    entries.set(10, confEntry);
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      entries.stream().map(raftLog::appendEntry).forEach(CompletableFuture::join);
+      Assert.assertTrue(raftLog.getRaftLogCache().getNumOfSegments() > 2);
+    }
+
+    // the closed segments are covered by the snapshot and loaded lazily
+    final long lastIndexInSnapshot = entries.size() - 2;
+    final List<LogEntryProto> confEntries = new ArrayList<>();
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, lastIndexInSnapshot, properties)) {
+      raftLog.open(lastIndexInSnapshot, confEntries::add);
+      Assert.assertEquals(Collections.singletonList(confEntry), confEntries);
+      checkEntries(raftLog, entries, 0, entries.size());
+    }
+
+    // without the index files, the closed segments are parsed
+    final RaftStorageDirectory dir = storage.getStorageDir();
+    for (RaftStorageDirectory.LogPathAndIndex pi : dir.getLogSegmentFiles()) {
+      if (pi.endIndex != RaftServerConstants.INVALID_LOG_INDEX) {
+        Files.deleteIfExists(dir.getClosedLogIndexFile(pi.startIndex, pi.endIndex).toPath());
+      }
+    }
+    confEntries.clear();
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, lastIndexInSnapshot, properties)) {
+      raftLog.open(lastIndexInSnapshot, confEntries::add);
+      Assert.assertEquals(Collections.singletonList(confEntry), confEntries);
+    }
+  }
+
+  @Test
+  public void testLoadSegmentWithTailCache() throws Exception {
+    final List<SegmentRange> ranges = prepareRanges(0, 1, 1000, 0);
+    final LogEntryProto[] entries = prepareLog(ranges);
+    // cache only the last 10 entries of the open segment
+    final long entrySize = LogSegment.getEntrySize(entries[entries.length - 1]);
+    RaftServerConfigKeys.Log.setLoadTailCacheSize(properties, SizeInBytes.valueOf(10 * entrySize));
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      final LogSegment openSegment = raftLog.getRaftLogCache().getOpenSegment();
+      Assert.assertEquals(1000, openSegment.numOfEntries());
+      Assert.assertFalse(openSegment.getEntryWithoutLoading(0).hasEntry());
+      Assert.assertFalse(openSegment.getEntryWithoutLoading(989).hasEntry());
+      Assert.assertTrue(openSegment.getEntryWithoutLoading(990).hasEntry());
+      Assert.assertTrue(openSegment.getEntryWithoutLoading(999).hasEntry());
+
+      // the uncached entries are loaded on demand
+      for (LogEntryProto e : entries) {
+        Assert.assertEquals(e, raftLog.get(e.getIndex()));
+      }
+    }
+  }
+
   List<LogEntryProto> prepareLogEntries(List<SegmentRange> slist,
       Supplier<String> stringSupplier) {
     List<LogEntryProto> eList = new ArrayList<>();
@@ -237,11 +341,202 @@ public class TestSegmentedRaftLog extends BaseTest {
     }
   }
 
+  /**
+   * Append entries with the fsync done by a separate flush thread.
+   */
+  @Test
+  public void testAppendEntryWithAsyncFlush() throws Exception {
+    RaftServerConfigKeys.Log.setAsyncFlushEnabled(properties, true);
+    RaftServerConfigKeys.Log.setPreallocatedSize(properties, SizeInBytes.valueOf("16KB"));
+    RaftServerConfigKeys.Log.setSegmentSizeMax(properties, SizeInBytes.valueOf("128KB"));
+    List<SegmentRange> ranges = prepareRanges(0, 5, 200, 0);
+    List<LogEntryProto> entries = prepareLogEntries(ranges, null);
+    final long lastIndex = entries.get(entries.size() - 1).getIndex();
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      // append entries to the raftlog
+      entries.stream().map(raftLog::appendEntry).forEach(CompletableFuture::join);
+      for (int i = 0; i < 100 && raftLog.getLatestFlushedIndex() < lastIndex; i++) {
+        Thread.sleep(100);
+      }
+      Assert.assertEquals(lastIndex, raftLog.getLatestFlushedIndex());
+    }
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      // check if the raft log is correct
+      checkEntries(raftLog, entries, 0, entries.size());
+    }
+  }
+
+  /**
+   * Append entries to the logs of two groups sharing a log worker engine.
+   */
+  @Test
+  public void testAppendEntryWithSharedEngine() throws Exception {
+    RaftServerConfigKeys.Log.setPreallocatedSize(properties, SizeInBytes.valueOf("16KB"));
+    RaftServerConfigKeys.Log.setSegmentSizeMax(properties, SizeInBytes.valueOf("128KB"));
+    List<SegmentRange> ranges = prepareRanges(0, 5, 200, 0);
+    List<LogEntryProto> entries = prepareLogEntries(ranges, null);
+    final long lastIndex = entries.get(entries.size() - 1).getIndex();
+
+    final File storageDir2 = new File(storageDir.getParentFile(), "group2");
+    final RaftStorage storage2 = new RaftStorage(storageDir2, RaftServerConstants.StartupOption.REGULAR);
+    try (LogWorkerEngine engine = new LogWorkerEngine(2);
+         SegmentedRaftLog log1 = new SegmentedRaftLog(peerId, null, storage, -1, properties, engine);
+         SegmentedRaftLog log2 = new SegmentedRaftLog(peerId, null, storage2, -1, properties, engine)) {
+      log1.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      log2.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      final List<CompletableFuture<Long>> futures = new ArrayList<>();
+      for (LogEntryProto e : entries) {
+        futures.add(log1.appendEntry(e));
+        futures.add(log2.appendEntry(e));
+      }
+      futures.forEach(CompletableFuture::join);
+      for (int i = 0; i < 100 && Math.min(log1.getLatestFlushedIndex(),
+          log2.getLatestFlushedIndex()) < lastIndex; i++) {
+        Thread.sleep(100);
+      }
+      Assert.assertEquals(lastIndex, log1.getLatestFlushedIndex());
+      Assert.assertEquals(lastIndex, log2.getLatestFlushedIndex());
+    }
+
+    for (RaftStorage s : Arrays.asList(storage, storage2)) {
+      try (SegmentedRaftLog raftLog =
+               new SegmentedRaftLog(peerId, null, s, -1, properties)) {
+        raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+        checkEntries(raftLog, entries, 0, entries.size());
+      }
+    }
+    storage2.close();
+  }
+
   /**
    * Keep appending entries, make sure the rolling is correct.
    */
   @Test
   public void testAppendAndRoll() throws Exception {
+    runTestAppendAndRoll();
+  }
+
+  @Test
+  public void testAppendAndRollAsync() throws Exception {
+    RaftServerConfigKeys.Log.setAsyncRollEnabled(properties, true);
+    runTestAppendAndRoll();
+  }
+
+  /** The advice is a no-op without the native code, but the log must work the same. */
+  @Test
+  public void testAppendAndRollWithFadvise() throws Exception {
+    RaftServerConfigKeys.Log.setFadviseEnabled(properties, true);
+    runTestAppendAndRoll();
+  }
+
+  @Test
+  public void testAppendBatch() throws Exception {
+    RaftServerConfigKeys.Log.setPreallocatedSize(properties, SizeInBytes.valueOf("16KB"));
+    RaftServerConfigKeys.Log.setSegmentSizeMax(properties, SizeInBytes.valueOf("128KB"));
+
+    // two terms, each spanning several segments
+    List<SegmentRange> ranges = prepareRanges(0, 2, 512, 0);
+    final byte[] content = new byte[1024];
+    List<LogEntryProto> entries = prepareLogEntries(ranges,
+        () -> new String(content));
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      final List<CompletableFuture<Long>> futures =
+          raftLog.append(entries.toArray(new LogEntryProto[entries.size()]));
+      // a future for each batch written to a segment
+      Assert.assertEquals(raftLog.getRaftLogCache().getNumOfSegments(), futures.size());
+      Assert.assertEquals(entries.size() - 1, futures.get(futures.size() - 1).join().longValue());
+      futures.forEach(CompletableFuture::join);
+      checkEntries(raftLog, entries, 0, entries.size());
+    }
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      checkEntries(raftLog, entries, 0, entries.size());
+      Assert.assertEquals(entries.size() - 1, raftLog.getLatestFlushedIndex());
+    }
+  }
+
+  @Test
+  public void testColdStorage() throws Exception {
+    RaftServerConfigKeys.Log.setPreallocatedSize(properties, SizeInBytes.valueOf("16KB"));
+    RaftServerConfigKeys.Log.setSegmentSizeMax(properties, SizeInBytes.valueOf("128KB"));
+    RaftServerConfigKeys.Log.setColdSegmentAgeMin(properties, TimeDuration.valueOf(0, TimeUnit.SECONDS));
+
+    List<SegmentRange> ranges = prepareRanges(0, 1, 1024, 0);
+    final byte[] content = new byte[1024];
+    List<LogEntryProto> entries = prepareLogEntries(ranges,
+        () -> new String(content));
+
+    final File tieredDir = new File(storageDir.getParentFile(), "tiered");
+    final File coldDir = new File(storageDir.getParentFile(), "cold");
+    final RaftStorage tiered = new RaftStorage(tieredDir, coldDir,
+        RaftServerConstants.StartupOption.REGULAR);
+    final RaftStorageDirectory dir = tiered.getStorageDir();
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, tiered, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      entries.stream().map(raftLog::appendEntry).forEach(CompletableFuture::join);
+      // all the closed segments are moved, only the open segment stays
+      JavaUtils.attempt(() -> Assert.assertEquals(0, dir.getHotClosedLogSegmentFiles().size()),
+          100, 100, "move the closed segments", LOG);
+      Assert.assertEquals(9, dir.getLogSegmentFiles().size());
+    }
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, tiered, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      // the entries are read from both the directories
+      checkEntries(raftLog, entries, 0, entries.size());
+      Assert.assertEquals(9, raftLog.getRaftLogCache().getNumOfSegments());
+
+      // purge the segments in the cold directory
+      final File first = dir.findClosedLogFile(0, raftLog.getRaftLogCache().getSegment(0).getEndIndex());
+      Assert.assertEquals(dir.getColdDir(), first.getParentFile());
+      raftLog.purge(500).join();
+      Assert.assertFalse(first.exists());
+      Assert.assertEquals(raftLog.getRaftLogCache().getNumOfSegments(), dir.getLogSegmentFiles().size());
+    }
+    tiered.close();
+  }
+
+  @Test
+  public void testColdStorageIdleLog() throws Exception {
+    RaftServerConfigKeys.Log.setPreallocatedSize(properties, SizeInBytes.valueOf("16KB"));
+    RaftServerConfigKeys.Log.setSegmentSizeMax(properties, SizeInBytes.valueOf("128KB"));
+    RaftServerConfigKeys.Log.setColdSegmentAgeMin(properties, TimeDuration.valueOf(1, TimeUnit.SECONDS));
+
+    final byte[] content = new byte[1024];
+    final List<LogEntryProto> entries = prepareLogEntries(prepareRanges(0, 1, 300, 0),
+        () -> new String(content));
+    final File tieredDir = new File(storageDir.getParentFile(), "tiered");
+    final File coldDir = new File(storageDir.getParentFile(), "cold");
+    final RaftStorage tiered = new RaftStorage(tieredDir, coldDir,
+        RaftServerConstants.StartupOption.REGULAR);
+    final RaftStorageDirectory dir = tiered.getStorageDir();
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, tiered, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      entries.stream().map(raftLog::appendEntry).forEach(CompletableFuture::join);
+      Assert.assertFalse(dir.getHotClosedLogSegmentFiles().isEmpty());
+
+      // no more segments are closed; the periodic check moves the old segments
+      JavaUtils.attempt(() -> Assert.assertEquals(0, dir.getHotClosedLogSegmentFiles().size()),
+          50, 100, "move the closed segments of an idle log", LOG);
+    }
+    tiered.close();
+  }
+
+  private void runTestAppendAndRoll() throws Exception {
     RaftServerConfigKeys.Log.setPreallocatedSize(properties, SizeInBytes.valueOf("16KB"));
     RaftServerConfigKeys.Log.setSegmentSizeMax(properties, SizeInBytes.valueOf("128KB"));
 
@@ -284,6 +579,89 @@ public class TestSegmentedRaftLog extends BaseTest {
     }
   }
 
+  @Test
+  public void testTruncateOpenSegment() throws Exception {
+    List<LogEntryProto> entries = prepareLogEntries(prepareRanges(1, 2, 100, 0), null);
+    // the entries replacing the truncated ones, in the same term
+    List<LogEntryProto> newEntries = prepareLogEntries(prepareRanges(1, 2, 100, 60),
+        () -> "new");
+    final List<LogEntryProto> expected = new ArrayList<>(entries.subList(0, 60));
+    expected.addAll(newEntries);
+
+    final RaftStorageDirectory dir = storage.getStorageDir();
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      entries.stream().map(raftLog::appendEntry).forEach(CompletableFuture::join);
+
+      Assert.assertEquals(59, raftLog.truncate(60).join().longValue());
+      // the open segment is kept and its file is appended again
+      final LogSegment open = raftLog.getRaftLogCache().getOpenSegment();
+      Assert.assertNotNull(open);
+      Assert.assertEquals(59, open.getEndIndex());
+      Assert.assertEquals(open.getTotalSize(), dir.getOpenLogFile(0).length());
+      Assert.assertFalse(dir.getClosedLogFile(0, 59).exists());
+
+      newEntries.stream().map(raftLog::appendEntry).forEach(CompletableFuture::join);
+      Assert.assertEquals(1, raftLog.getRaftLogCache().getNumOfSegments());
+      checkEntries(raftLog, expected, 0, expected.size());
+    }
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      checkEntries(raftLog, expected, 0, expected.size());
+    }
+  }
+
+  @Test
+  public void testCheckpointRecovery() throws Exception {
+    RaftServerConfigKeys.Log.setCheckpointEnabled(properties, true);
+    RaftServerConfigKeys.Log.setCheckpointInterval(properties, SizeInBytes.valueOf(1024));
+    List<LogEntryProto> entries = prepareLogEntries(prepareRanges(1, 2, 500, 0), null);
+    List<LogEntryProto> newEntries = prepareLogEntries(prepareRanges(1, 2, 100, 300),
+        () -> "new");
+    final List<LogEntryProto> expected = new ArrayList<>(entries.subList(0, 300));
+    expected.addAll(newEntries);
+
+    final RaftStorageDirectory dir = storage.getStorageDir();
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      entries.stream().map(raftLog::appendEntry).forEach(CompletableFuture::join);
+      Assert.assertTrue(dir.getOpenLogCheckpointFile(0).exists());
+
+      // truncate the checkpointed entries and append again
+      raftLog.truncate(300).join();
+      newEntries.stream().map(raftLog::appendEntry).forEach(CompletableFuture::join);
+    }
+
+    // corrupt the first entry; it is covered by a checkpoint so that it is not validated
+    try (RandomAccessFile raf = new RandomAccessFile(dir.getOpenLogFile(0), "rw")) {
+      final long pos = SegmentedRaftLog.HEADER_BYTES.length + 2;
+      raf.seek(pos);
+      final int b = raf.read();
+      raf.seek(pos);
+      raf.write(~b);
+    }
+
+    try (SegmentedRaftLog raftLog =
+             new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+      raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      Assert.assertEquals(expected.get(expected.size() - 1), getLastEntry(raftLog));
+      checkEntries(raftLog, expected, 1, expected.size() - 1);
+    }
+
+    // the segment is loaded as before once the checkpoints are gone
+    FileUtils.deleteFile(dir.getOpenLogCheckpointFile(0));
+    testFailureCase("load the corrupted segment", () -> {
+      try (SegmentedRaftLog raftLog =
+               new SegmentedRaftLog(peerId, null, storage, -1, properties)) {
+        raftLog.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+      }
+    }, IOException.class);
+  }
+
   private void testTruncate(List<LogEntryProto> entries, long fromIndex)
       throws Exception {
     try (SegmentedRaftLog raftLog =
@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ratis.server.storage;
+
+import org.apache.ratis.BaseTest;
+import org.apache.ratis.RaftTestUtil.SimpleOperation;
+import org.apache.ratis.conf.RaftProperties;
+import org.apache.ratis.protocol.ClientId;
+import org.apache.ratis.protocol.RaftGroupId;
+import org.apache.ratis.protocol.RaftPeerId;
+import org.apache.ratis.server.RaftServerConfigKeys;
+import org.apache.ratis.server.impl.RaftServerConstants;
+import org.apache.ratis.server.impl.RaftServerImpl;
+import org.apache.ratis.proto.RaftProtos.LogEntryProto;
+import org.apache.ratis.statemachine.StateMachine;
+import org.apache.ratis.util.FileUtils;
+import org.apache.ratis.util.ProtoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestSharedFileRaftLog extends BaseTest {
+  private static final RaftPeerId peerId = RaftPeerId.valueOf("s0");
+  private static final ClientId clientId = ClientId.randomId();
+
+  private final RaftGroupId group1 = RaftGroupId.randomId();
+  private final RaftGroupId group2 = RaftGroupId.randomId();
+  private final RaftProperties properties = new RaftProperties();
+  private File testDir;
+
+  @Before
+  public void setup() {
+    testDir = getTestDir();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (testDir != null) {
+      FileUtils.deleteFully(testDir);
+    }
+  }
+
+  private SharedLogStore newStore() {
+    return new SharedLogStore(new File(testDir, SharedLogStore.DIR_NAME), 16 * 1024, 4096);
+  }
+
+  private SharedFileRaftLog newLog(RaftGroupId groupId, SharedLogStore store) throws IOException {
+    return newLog(groupId, store, null);
+  }
+
+  private SharedFileRaftLog newLog(RaftGroupId groupId, SharedLogStore store, RaftServerImpl server)
+      throws IOException {
+    final RaftStorage storage = new RaftStorage(new File(testDir, groupId.getUuid().toString()),
+        RaftServerConstants.StartupOption.REGULAR);
+    final SharedFileRaftLog log = new SharedFileRaftLog(peerId, groupId, server, storage, store, properties);
+    log.open(RaftServerConstants.INVALID_LOG_INDEX, null);
+    return log;
+  }
+
+  private static LogEntryProto newEntry(long term, long index, String s) {
+    return ProtoUtils.toLogEntryProto(new SimpleOperation(s).getLogEntryContent(),
+        term, index, clientId, index);
+  }
+
+  private static List<LogEntryProto> append(SharedFileRaftLog log, long term, long from, long to, String s) {
+    final List<LogEntryProto> entries = new ArrayList<>();
+    for (long i = from; i < to; i++) {
+      entries.add(newEntry(term, i, s + i));
+    }
+    entries.stream().map(log::appendEntry).forEach(CompletableFuture::join);
+    return entries;
+  }
+
+  private static void checkEntries(SharedFileRaftLog log, List<LogEntryProto> expected) throws IOException {
+    Assert.assertEquals(expected.get(0).getIndex(), log.getStartIndex());
+    Assert.assertEquals(expected.get(expected.size() - 1).getIndex(), log.getLastEntryTermIndex().getIndex());
+    for (LogEntryProto e : expected) {
+      Assert.assertEquals(e, log.get(e.getIndex()));
+    }
+  }
+
+  @Test
+  public void testInterleavedGroups() throws Exception {
+    final List<LogEntryProto> entries1;
+    final List<LogEntryProto> entries2;
+    try (SharedLogStore store = newStore();
+         SharedFileRaftLog log1 = newLog(group1, store);
+         SharedFileRaftLog log2 = newLog(group2, store)) {
+      final List<LogEntryProto> first = append(log1, 1, 0, 100, "a");
+      entries2 = append(log2, 1, 0, 100, "b");
+      // truncate group1 from index 50 and append the entries of a newer term
+      log1.truncate(50).join();
+      entries1 = new ArrayList<>(first.subList(0, 50));
+      entries1.addAll(append(log1, 2, 50, 120, "c"));
+      Assert.assertEquals(119, log1.getLatestFlushedIndex());
+      Assert.assertEquals(99, log2.getLatestFlushedIndex());
+      checkEntries(log1, entries1);
+      checkEntries(log2, entries2);
+    }
+
+    // reload the logs from the shared files
+    try (SharedLogStore store = newStore();
+         SharedFileRaftLog log1 = newLog(group1, store);
+         SharedFileRaftLog log2 = newLog(group2, store)) {
+      checkEntries(log1, entries1);
+      checkEntries(log2, entries2);
+    }
+  }
+
+  @Test
+  public void testPurgeDeletesFiles() throws Exception {
+    final List<LogEntryProto> entries;
+    try (SharedLogStore store = newStore();
+         SharedFileRaftLog log1 = newLog(group1, store);
+         SharedFileRaftLog log2 = newLog(group2, store)) {
+      final List<LogEntryProto> all = append(log1, 1, 0, 500, "a");
+      append(log2, 1, 0, 500, "b");
+      final int numFiles = store.getNumFiles();
+      Assert.assertTrue(numFiles > 2);
+
+      // a file is deleted only after all the groups have purged its entries
+      Assert.assertEquals(399, log1.purge(399).join().longValue());
+      Assert.assertEquals(numFiles, store.getNumFiles());
+      log2.purge(399).join();
+      Assert.assertTrue(store.getNumFiles() < numFiles);
+
+      entries = all.subList(400, 500);
+      checkEntries(log1, entries);
+    }
+
+    try (SharedLogStore store = newStore();
+         SharedFileRaftLog log1 = newLog(group1, store)) {
+      checkEntries(log1, entries);
+    }
+  }
+
+  @Test
+  public void testRemoveGroupDeletesFiles() throws Exception {
+    final List<LogEntryProto> entries;
+    try (SharedLogStore store = newStore();
+         SharedFileRaftLog log1 = newLog(group1, store);
+         SharedFileRaftLog log2 = newLog(group2, store)) {
+      final List<LogEntryProto> all = append(log1, 1, 0, 500, "a");
+      append(log2, 1, 0, 500, "b");
+      final int numFiles = store.getNumFiles();
+      Assert.assertTrue(numFiles > 2);
+
+      // the files are held by group2 until it is removed
+      log1.purge(399).join();
+      Assert.assertEquals(numFiles, store.getNumFiles());
+      store.remove(group2).join();
+      Assert.assertTrue(store.getNumFiles() < numFiles);
+      entries = all.subList(400, 500);
+    }
+
+    // the removed group has no entries after reloading
+    try (SharedLogStore store = newStore();
+         SharedFileRaftLog log1 = newLog(group1, store);
+         SharedFileRaftLog log2 = newLog(group2, store)) {
+      checkEntries(log1, entries);
+      Assert.assertNull(log2.getLastEntryTermIndex());
+    }
+  }
+
+  @Test
+  public void testFlushStateMachineDataOncePerBatch() throws Exception {
+    final StateMachine stateMachine = mock(StateMachine.class);
+    when(stateMachine.flushStateMachineData(anyLong())).thenReturn(CompletableFuture.completedFuture(null));
+    final RaftServerImpl server = mock(RaftServerImpl.class);
+    when(server.getStateMachine()).thenReturn(stateMachine);
+
+    try (SharedLogStore store = newStore();
+         SharedFileRaftLog log = newLog(group1, store, server)) {
+      final LogEntryProto[] entries = new LogEntryProto[100];
+      for (int i = 0; i < entries.length; i++) {
+        entries[i] = newEntry(1, i, "a" + i);
+      }
+      final List<CompletableFuture<Long>> futures = log.append(entries);
+      Assert.assertEquals(entries.length, futures.size());
+      futures.forEach(CompletableFuture::join);
+      verify(stateMachine, times(1)).flushStateMachineData(anyLong());
+      verify(stateMachine).flushStateMachineData(99);
+      Assert.assertEquals(99, log.getLatestFlushedIndex());
+    }
+  }
+
+  @Test
+  public void testChooseDirectory() throws Exception {
+    final File volume1 = new File(testDir, "volume1");
+    final File volume2 = new File(testDir, "volume2");
+    FileUtils.createDirectories(new File(volume1, group1.getUuid().toString()));
+    FileUtils.createDirectories(volume2);
+    RaftServerConfigKeys.setStorageDirs(properties, Arrays.asList(volume1, volume2));
+    RaftServerConfigKeys.Log.setSharedFileEnabled(properties, true);
+
+    // a new directory is placed by the policy
+    final File dir = new File(volume2, SharedLogStore.DIR_NAME);
+    Assert.assertEquals(dir, SharedLogStore.newInstance(properties,
+        StorageDirPlacementPolicy.LEAST_GROUPS).getFile(0).getParentFile());
+
+    // the existing directory is reused regardless of the policy
+    FileUtils.createDirectories(dir);
+    FileUtils.createDirectories(new File(volume2, group2.getUuid().toString()));
+    Assert.assertEquals(dir, SharedLogStore.newInstance(properties,
+        StorageDirPlacementPolicy.LEAST_GROUPS).getFile(0).getParentFile());
+  }
+}